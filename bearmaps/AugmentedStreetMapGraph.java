@@ -2,8 +2,11 @@ package bearmaps;
 
 import bearmaps.utils.Constants;
 import bearmaps.utils.Trie;
+import bearmaps.utils.graph.streetmap.CompactGraph;
 import bearmaps.utils.graph.streetmap.Node;
+import bearmaps.utils.graph.streetmap.OsmChange;
 import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import bearmaps.utils.jfr.SnapQueryEvent;
 import bearmaps.utils.ps.KDTree;
 import bearmaps.utils.ps.Point;
 
@@ -21,17 +24,114 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     HashMap<Node, Point> nodeToPoint;
     HashMap<Point, Node> pointToNode;
     KDTree kdtree;
+    /** The points of the vertices in the largest component, for re-snapping routes. */
+    KDTree largestComponentKdtree;
     Trie cleanT;
     HashMap<String, String> cleanToRegular;
     HashMap<String, List<Node>> stringToNodes;
 
     public AugmentedStreetMapGraph(String dbPath) {
         super(dbPath);
+        indexNames();
+        nodeToPoint = new HashMap<>();
+        pointToNode = new HashMap<>();
+        for (Node n : this.getNodes()) {
+            if (!neighbors(n.id()).isEmpty()) {
+                Point p = new Point(projectToX(n.lon(), n.lat()), projectToY(n.lon(), n.lat()));
+                nodeToPoint.put(n, p);
+                pointToNode.put(p, n);
+            }
+        }
+        kdtree = new KDTree(new ArrayList<>(nodeToPoint.values()));
+        indexLargestComponent();
+    }
+
+    /**
+     * Creates the graph that results from applying CHANGE to BASE, leaving BASE untouched so
+     * requests already running on it can finish. The name index is shared with BASE unless a
+     * named node changed, and only the touched vertices are re-projected before the KD-tree is
+     * rebuilt.
+     */
+    private AugmentedStreetMapGraph(AugmentedStreetMapGraph base, OsmChange change) {
+        super(base, change);
+        if (namesChanged(base, change)) {
+            indexNames();
+        } else {
+            cleanT = base.cleanT;
+            cleanToRegular = base.cleanToRegular;
+            stringToNodes = base.stringToNodes;
+        }
+        if (touchedVertices().isEmpty()) {
+            nodeToPoint = base.nodeToPoint;
+            pointToNode = base.pointToNode;
+            kdtree = base.kdtree;
+            largestComponentKdtree = base.largestComponentKdtree;
+            return;
+        }
+        nodeToPoint = new HashMap<>(base.nodeToPoint);
+        pointToNode = new HashMap<>(base.pointToNode);
+        Set<Point> dropped = new HashSet<>();
+        for (long id : touchedVertices()) {
+            Node old = base.node(id);
+            if (old != null) {
+                Point p = nodeToPoint.remove(old);
+                Node mapped = p == null ? null : pointToNode.get(p);
+                if (mapped != null && mapped.id() == id) {
+                    pointToNode.remove(p);
+                    dropped.add(p);
+                }
+            }
+        }
+        for (long id : touchedVertices()) {
+            Node n = node(id);
+            if (n != null && !neighbors(id).isEmpty()) {
+                Point p = new Point(projectToX(n.lon(), n.lat()), projectToY(n.lon(), n.lat()));
+                nodeToPoint.put(n, p);
+                pointToNode.put(p, n);
+            }
+        }
+        /* Untouched vertices at the same place as a touched one lost their point above. */
+        dropped.removeAll(pointToNode.keySet());
+        if (!dropped.isEmpty()) {
+            for (Map.Entry<Node, Point> entry : nodeToPoint.entrySet()) {
+                if (dropped.contains(entry.getValue())) {
+                    pointToNode.putIfAbsent(entry.getValue(), entry.getKey());
+                }
+            }
+        }
+        kdtree = new KDTree(new ArrayList<>(nodeToPoint.values()));
+        indexLargestComponent();
+    }
+
+    /**
+     * Labels the components of this graph, which would otherwise happen on its first route,
+     * and builds the KD-tree of the vertices in the largest one.
+     */
+    private void indexLargestComponent() {
+        CompactGraph compact = compactGraph();
+        List<Point> points = new ArrayList<>();
+        for (Map.Entry<Node, Point> entry : nodeToPoint.entrySet()) {
+            int v = compact.index(entry.getKey().id());
+            if (v >= 0 && compact.component(v) == compact.largestComponent()) {
+                points.add(entry.getValue());
+            }
+        }
+        largestComponentKdtree = new KDTree(points);
+    }
+
+    /**
+     * Returns a new graph with CHANGE applied. This graph is not modified and stays valid, so
+     * it can be swapped for the result while requests are still using it.
+     */
+    public AugmentedStreetMapGraph withChanges(OsmChange change) {
+        return new AugmentedStreetMapGraph(this, change);
+    }
+
+    /** Builds the location name index from all nodes, navigable or not. */
+    private void indexNames() {
         cleanT = new Trie();
         cleanToRegular = new HashMap<>();
         stringToNodes = new HashMap<>();
-        nodeToPoint = new HashMap<>();
-        pointToNode = new HashMap<>();
         for (Node n : this.getAllNodes()) {
             if (n.name() != null) {
                 if (stringToNodes.containsKey(n.name())) {
@@ -43,17 +143,34 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
                 cleanT.add(cleanString(n.name()));
             }
         }
-        for (Node n : this.getNodes()) {
-            if (!neighbors(n.id()).isEmpty()) {
-                Point p = new Point(projectToX(n.lon(), n.lat()), projectToY(n.lon(), n.lat()));
-                nodeToPoint.put(n, p);
-                pointToNode.put(p, n);
+    }
+
+    /** Returns true if CHANGE adds, renames, moves or deletes a named node of BASE. */
+    private static boolean namesChanged(AugmentedStreetMapGraph base, OsmChange change) {
+        for (Node n : change.nodes().values()) {
+            if (n.name() != null) {
+                return true;
             }
         }
-        kdtree = new KDTree(new ArrayList<>(nodeToPoint.values()));
+        Set<Long> named = new HashSet<>();
+        for (List<Node> nodes : base.stringToNodes.values()) {
+            for (Node n : nodes) {
+                named.add(n.id());
+            }
+        }
+        for (long id : change.nodes().keySet()) {
+            if (named.contains(id)) {
+                return true;
+            }
+        }
+        for (long id : change.deletedNodes()) {
+            if (named.contains(id)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-
     /**
      * For Project Part III
      * Returns the vertex closest to the given longitude and latitude.
@@ -62,9 +179,46 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * @return The id of the node in the graph closest to the target.
      */
     public long closest(double lon, double lat) {
+        SnapQueryEvent event = new SnapQueryEvent();
+        event.begin();
         double x = projectToX(lon, lat);
         double y = projectToY(lon, lat);
-        return pointToNode.get(kdtree.nearest(x, y)).id();
+        long id = pointToNode.get(kdtree.nearest(x, y)).id();
+        event.end();
+        if (event.shouldCommit()) {
+            event.lon = lon;
+            event.lat = lat;
+            event.vertex = id;
+            event.commit();
+        }
+        return id;
+    }
+
+    /** Returns the vertex of the largest component closest to the given longitude and latitude. */
+    public long closestInLargestComponent(double lon, double lat) {
+        return pointToNode.get(largestComponentKdtree.nearest(projectToX(lon, lat),
+                projectToY(lon, lat))).id();
+    }
+
+    /**
+     * Returns the vertices a route between two locations starts and ends at: the vertices
+     * closest to them, unless those are in different components and so have no route between
+     * them. Then each end outside the largest component moves to the closest vertex in it,
+     * since islands and fragments of service roads are rarely where a route is meant to go.
+     * @return The start vertex and the end vertex.
+     */
+    public long[] snapRoute(double stlon, double stlat, double destlon, double destlat) {
+        long src = closest(stlon, stlat);
+        long dest = closest(destlon, destlat);
+        if (!connected(src, dest)) {
+            if (!inLargestComponent(src)) {
+                src = closestInLargestComponent(stlon, stlat);
+            }
+            if (!inLargestComponent(dest)) {
+                dest = closestInLargestComponent(destlon, destlat);
+            }
+        }
+        return new long[]{src, dest};
     }
 
     /**
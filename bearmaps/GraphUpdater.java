@@ -0,0 +1,96 @@
+package bearmaps;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.OsmChange;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies OSM change files dropped into a directory to the live street graph. The directory
+ * is polled on a single daemon thread; new .osc and .osc.gz files are applied in file name
+ * order (so replication diffs named by sequence number apply in sequence), each producing a
+ * new graph that replaces Constants.SEMANTIC_STREET_GRAPH in one write. Requests that already
+ * read the old graph finish on it. The new graph finds the arc flags the old one had before
+ * it replaces it, so routes on it can use them at once.
+ *
+ * A file that fails to parse is retried on the next poll, and later files wait for it, so
+ * change files should be moved into the directory once fully written.
+ */
+public class GraphUpdater {
+
+    private final File directory;
+    private final Set<String> applied = new HashSet<>();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "osm-change-poller");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param directory The directory to watch for change files.
+     * @param intervalSeconds How often to look for new files, in seconds.
+     */
+    public GraphUpdater(File directory, long intervalSeconds) {
+        this.directory = directory;
+        poller.scheduleWithFixedDelay(this::poll, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Returns the number of change files applied so far. */
+    public long updates() {
+        return updates.get();
+    }
+
+    /** Returns the number of failed attempts to apply a change file. */
+    public long failures() {
+        return failures.get();
+    }
+
+    /** Applies every change file in the directory that has not been applied yet. */
+    private void poll() {
+        String[] names = directory.list((dir, name) -> name.endsWith(".osc")
+                || name.endsWith(".osc.gz"));
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (applied.contains(name)) {
+                continue;
+            }
+            try {
+                apply(new File(directory, name).getPath());
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                e.printStackTrace();
+                return;
+            }
+            applied.add(name);
+        }
+    }
+
+    /**
+     * Reads the change file FILENAME and swaps in the graph with it applied. Only the poller
+     * thread writes the graph, so nothing is lost between reading and replacing it.
+     */
+    private void apply(String filename) throws IOException {
+        OsmChange change = OsmChange.read(filename);
+        if (!change.isEmpty()) {
+            AugmentedStreetMapGraph graph = Constants.SEMANTIC_STREET_GRAPH;
+            AugmentedStreetMapGraph updated = graph.withChanges(change);
+            updated.findArcFlagsOf(graph);
+            Constants.SEMANTIC_STREET_GRAPH = updated;
+        }
+        updates.incrementAndGet();
+        System.out.println("Applied " + filename + ": " + change);
+    }
+}
@@ -1,8 +1,18 @@
 package bearmaps;
 
+import bearmaps.loadtest.TrafficRecorder;
+import bearmaps.server.admission.AdmissionController;
+import bearmaps.server.execution.RouteClassExecutor;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.server.handler.APIRouteHandlerFactory;
 import bearmaps.utils.Constants;
+import bearmaps.utils.metrics.Metrics;
+import spark.Route;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +24,21 @@ import static spark.Spark.*;
  */
 public class MapServerInitializer {
 
+    /** Whether requests go through per-path admission control. On unless set to false. */
+    private static final boolean ADMISSION_CONTROL = !"false".equals(
+            System.getProperty("bearmaps.admission"));
+
+    /** Paths that are never shed, so the server can still be redirected to and scraped. */
+    private static final Set<String> UNCONTROLLED_PATHS = Set.of("", "metrics");
+
+    /** When set, API requests are appended to this traffic file for the load generator. */
+    private static final String TRAFFIC_RECORD_FILE = System.getProperty("bearmaps.traffic.record");
+
+    /** When set, OSM change files placed in this directory are applied to the live graph. */
+    private static final String OSM_CHANGE_DIR = System.getProperty("bearmaps.osc.dir");
+
+    /** How often the OSM change directory is checked for new files, in seconds. */
+    private static final long OSM_CHANGE_INTERVAL_SECONDS = Long.getLong("bearmaps.osc.interval", 30);
 
     /**
      * Place any initialization statements that will be run before the server main loop here.
@@ -21,7 +46,15 @@ public class MapServerInitializer {
      **/
     public static void initializeServer(Map<String, APIRouteHandler> apiHandlers){
 
+        APIRouteHandlerFactory.startRouteClassExecutors();
         Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        Router.prepareArcFlags(Constants.SEMANTIC_STREET_GRAPH);
+        if (OSM_CHANGE_DIR != null) {
+            GraphUpdater updater = new GraphUpdater(new File(OSM_CHANGE_DIR),
+                    OSM_CHANGE_INTERVAL_SECONDS);
+            Metrics.counter("bearmaps_graph_updates_total", updater::updates);
+            Metrics.counter("bearmaps_graph_update_failures_total", updater::failures);
+        }
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -30,16 +63,96 @@ public class MapServerInitializer {
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
         });
+        if (TRAFFIC_RECORD_FILE != null) {
+            recordTraffic(apiHandlers.keySet());
+        }
 
         Set<String> paths = new HashSet<>();
         for(Map.Entry<String, APIRouteHandler> apiRoute: apiHandlers.entrySet()){
             if(paths.contains(apiRoute.getKey())){
                 throw new RuntimeException("Duplicate API Path found");
             }
-            get("/"+apiRoute.getKey(), apiRoute.getValue());
+            Route route = apiRoute.getValue();
+            RouteClassExecutor executor = APIRouteHandlerFactory.routeClassExecutors.get(
+                    APIRouteHandlerFactory.routeClasses.get(apiRoute.getKey()));
+            if (executor != null) {
+                route = executor.wrap(route);
+            }
+            if (ADMISSION_CONTROL && !UNCONTROLLED_PATHS.contains(apiRoute.getKey())) {
+                AdmissionController controller = admissionControllerFor(apiRoute.getKey(), route);
+                APIRouteHandlerFactory.admissionControllers.put(apiRoute.getKey(), controller);
+                route = controller;
+            }
+            get("/"+apiRoute.getKey(), route);
             paths.add(apiRoute.getKey());
         }
+        registerMetrics();
 
+    }
 
+    /** Records requests to the given API paths, except those never shed, to the traffic file. */
+    private static void recordTraffic(Set<String> apiPaths) {
+        Set<String> recorded = new HashSet<>();
+        for (String path : apiPaths) {
+            if (!UNCONTROLLED_PATHS.contains(path)) {
+                recorded.add("/" + path);
+            }
+        }
+        try {
+            TrafficRecorder recorder = new TrafficRecorder(Paths.get(TRAFFIC_RECORD_FILE), recorded);
+            before((request, response) -> recorder.record(request.pathInfo(), request.queryString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Exposes the counters that the executors, admission controllers, route coalescer and
+     * route store already keep on /metrics.
+     */
+    private static void registerMetrics() {
+        for (RouteClassExecutor executor : APIRouteHandlerFactory.routeClassExecutors.values()) {
+            String routeClass = executor.name();
+            Metrics.counter("bearmaps_executor_completed_total", executor::completed,
+                    "route_class", routeClass);
+            Metrics.counter("bearmaps_executor_rejected_total", executor::rejected,
+                    "route_class", routeClass);
+            Metrics.counter("bearmaps_executor_queue_nanoseconds_total", executor::totalQueueNanos,
+                    "route_class", routeClass);
+            Metrics.gauge("bearmaps_executor_max_queue_nanoseconds", executor::maxQueueNanos,
+                    "route_class", routeClass);
+        }
+        for (AdmissionController controller : APIRouteHandlerFactory.admissionControllers.values()) {
+            String path = controller.name();
+            Metrics.gauge("bearmaps_admission_limit", () -> controller.limiter().limit(),
+                    "path", path);
+            Metrics.gauge("bearmaps_admission_in_flight", () -> controller.limiter().inFlight(),
+                    "path", path);
+            Metrics.counter("bearmaps_admission_rejected_total", () -> controller.limiter().rejected(),
+                    "path", path);
+        }
+        Metrics.counter("bearmaps_route_cache_hits_total", Constants.ROUTE_COALESCER::hits);
+        Metrics.counter("bearmaps_route_cache_misses_total", Constants.ROUTE_COALESCER::misses);
+        Metrics.counter("bearmaps_route_coalesced_total", Constants.ROUTE_COALESCER::coalesced);
+        Metrics.gauge("bearmaps_route_store_size", Constants.ROUTE_STORE::size);
+    }
+
+    /**
+     * Returns the admission controller for the given path, with default limits based on the
+     * path's route class: cheap searches get a high limit and a short queue wait, expensive
+     * routes a low limit and a longer one.
+     */
+    private static AdmissionController admissionControllerFor(String path, Route route) {
+        String routeClass = APIRouteHandlerFactory.routeClasses.getOrDefault(path, "");
+        switch (routeClass) {
+            case "raster":
+                return AdmissionController.fromSystemProperties(path, route, 8, 32, 500);
+            case "route":
+                return AdmissionController.fromSystemProperties(path, route, 8, 32, 1000);
+            case "search":
+                return AdmissionController.fromSystemProperties(path, route, 32, 256, 100);
+            default:
+                return AdmissionController.fromSystemProperties(path, route, 16, 64, 250);
+        }
     }
 }
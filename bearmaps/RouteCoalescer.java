@@ -0,0 +1,239 @@
+package bearmaps;
+
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.SolverOutcome;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates route computations. Requests are keyed by the pair of vertices their start and
+ * end snap to, by AugmentedStreetMapGraph.snapRoute, so a location on an island is routed
+ * from the closest vertex that has a route rather than getting none. A request whose pair is
+ * already being solved waits for that computation instead of running its own search. Finished
+ * routes are kept for a short time so that a burst of identical requests is served from
+ * memory.
+ */
+public class RouteCoalescer {
+
+    /** How long a request waiting on another's search waits between checks of its own token. */
+    private static final long WAIT_SLICE_MILLIS = 50;
+
+    private final int maxRoutes;
+    private final long ttlMillis;
+    private final Map<NodePair, CompletableFuture<List<Long>>> inFlight = new ConcurrentHashMap<>();
+    private final Map<NodePair, CachedRoute> cache;
+    private AugmentedStreetMapGraph graph;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param maxRoutes The maximum number of finished routes kept.
+     * @param ttlMillis How long a finished route is kept, in milliseconds.
+     */
+    public RouteCoalescer(int maxRoutes, long ttlMillis) {
+        this.maxRoutes = maxRoutes;
+        this.ttlMillis = ttlMillis;
+        this.cache = new LinkedHashMap<NodePair, CachedRoute>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NodePair, CachedRoute> eldest) {
+                return size() > RouteCoalescer.this.maxRoutes;
+            }
+        };
+    }
+
+    /**
+     * Returns the same route as Router.shortestPath, computing it only if no identical
+     * computation is running and no recent result is cached.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                   double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, RouteOptions.SHORTEST);
+    }
+
+    /**
+     * Returns the same route as Router.shortestPath with route options, computing it only if
+     * no identical computation is running and no recent result is cached. Options with the
+     * same key give the same route and share cache entries.
+     * @param options How to weight edges and whether to obey restrictions.
+     */
+    public List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                   double destlon, double destlat, RouteOptions options) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, options,
+                CancellationToken.withTimeout(Router.DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Returns the same route as Router.shortestPath with route options and a cancellation
+     * token. A route whose search was cancelled or ran out of time is neither cached nor
+     * handed to requests waiting on it, since it may be empty only for having stopped early;
+     * they run the search again under their own tokens instead. A request waiting on another's
+     * search stops waiting, with an empty route, once its own token says to stop.
+     * @param token Says when this request's search, or its wait for another's, should give up.
+     */
+    public List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                   double destlon, double destlat, RouteOptions options,
+                                   CancellationToken token) {
+        long[] ends = g.snapRoute(stlon, stlat, destlon, destlat);
+        NodePair key = new NodePair(ends[0], ends[1], options.key());
+        List<Long> cached = cachedRoute(g, key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        while (true) {
+            CompletableFuture<List<Long>> mine = new CompletableFuture<>();
+            CompletableFuture<List<Long>> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                coalesced.incrementAndGet();
+                try {
+                    List<Long> route = await(running, token);
+                    return route == null ? List.of() : route;
+                } catch (CancellationException e) {
+                    /* The request computing the route went away or ran out of time; try
+                       again, most likely computing it for this request. */
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return List.of();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException("Could not find route", e.getCause());
+                }
+            }
+            try {
+                List<Long> route = List.copyOf(Router.shortestPath(g, key.src, key.dest, options,
+                        token));
+                SolverOutcome stopReason = token.stopReason();
+                if (stopReason != null) {
+                    mine.completeExceptionally(new CancellationException(
+                            "Route search stopped early: " + stopReason));
+                    return route;
+                }
+                synchronized (cache) {
+                    if (graph == g) {
+                        cache.put(key, new CachedRoute(route,
+                                System.currentTimeMillis() + ttlMillis));
+                    }
+                }
+                mine.complete(route);
+                return route;
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    /**
+     * Waits for the search RUNNING to finish and returns its route, or returns null once TOKEN
+     * says to stop first.
+     */
+    private static List<Long> await(CompletableFuture<List<Long>> running,
+                                    CancellationToken token)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                return running.get(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (token.stopReason() != null) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /** Returns the cached route for KEY on graph G, or null. Drops the cache if G is new. */
+    private List<Long> cachedRoute(AugmentedStreetMapGraph g, NodePair key) {
+        synchronized (cache) {
+            if (graph != g) {
+                graph = g;
+                cache.clear();
+                return null;
+            }
+            CachedRoute cached = cache.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.expiresAt < System.currentTimeMillis()) {
+                cache.remove(key);
+                return null;
+            }
+            return cached.route;
+        }
+    }
+
+    /** Returns the number of requests answered from the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of requests that missed the cache, including coalesced ones. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Returns the number of requests that waited on an identical running computation. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    private static class CachedRoute {
+        private final List<Long> route;
+        private final long expiresAt;
+
+        CachedRoute(List<Long> route, long expiresAt) {
+            this.route = route;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class NodePair {
+        private final long src;
+        private final long dest;
+        /** The key of the route options. */
+        private final String weighting;
+
+        NodePair(long src, long dest, String weighting) {
+            this.src = src;
+            this.dest = dest;
+            this.weighting = weighting;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodePair)) {
+                return false;
+            }
+            NodePair other = (NodePair) o;
+            return src == other.src && dest == other.dest && weighting.equals(other.weighting);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(src) * 31 + Long.hashCode(dest)) * 31 + weighting.hashCode();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package bearmaps;
+
+import bearmaps.utils.graph.streetmap.SpeedProfile;
+
+/**
+ * How a route should be found: the shortest by distance or the fastest under a speed profile
+ * leaving at some hour, and whether oneway tags and turn restrictions are obeyed.
+ */
+public class RouteOptions {
+
+    /** The shortest route by distance, ignoring oneway tags and turn restrictions. */
+    public static final RouteOptions SHORTEST = new RouteOptions(null, 0, false);
+
+    private final SpeedProfile profile;
+    private final int hour;
+    private final boolean turnRestrictions;
+
+    /**
+     * @param profile The speed profile to find the fastest route for, or null for the
+     *                shortest route.
+     * @param hour The hour of the day the route starts at, from 0 to 23.
+     * @param turnRestrictions Whether to obey oneway tags and turn restrictions.
+     */
+    public RouteOptions(SpeedProfile profile, int hour, boolean turnRestrictions) {
+        this.profile = profile;
+        this.hour = hour;
+        this.turnRestrictions = turnRestrictions;
+    }
+
+    public SpeedProfile profile() {
+        return profile;
+    }
+
+    public int hour() {
+        return hour;
+    }
+
+    public boolean turnRestrictions() {
+        return turnRestrictions;
+    }
+
+    /**
+     * Returns a string that is equal for options that always give the same route, such as
+     * hours in the same bucket of the profile.
+     */
+    public String key() {
+        String weighting = profile == null ? "" : profile.name() + "@" + profile.bucket(hour);
+        return turnRestrictions ? weighting + "/turns" : weighting;
+    }
+}
@@ -1,9 +1,19 @@
 package bearmaps;
 
 import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.WeightedEdge;
+import bearmaps.utils.graph.streetmap.AlternativeRoutes;
+import bearmaps.utils.graph.streetmap.ArcFlagSolver;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.QueueType;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +23,30 @@ import java.util.regex.Pattern;
  */
 public class Router {
 
+    /**
+     * How many seconds a search may run before giving up, from the bearmaps.route.timeout
+     * system property.
+     */
+    public static final int DEFAULT_TIMEOUT = Integer.getInteger("bearmaps.route.timeout", 20);
+
+    /**
+     * Whether routes without turn restrictions are found by ArcFlagSolver rather than
+     * AStarSolver, from the bearmaps.route.arcflags system property. The flags are found, or
+     * read from their file, in the background: those weighted by distance once the graph is
+     * built, and those of other weightings once a route needs them. Routes use AStarSolver
+     * until the flags they need are ready.
+     */
+    private static final boolean ARC_FLAGS = Boolean.getBoolean("bearmaps.route.arcflags");
+
+    /**
+     * The kind of queue route searches use, from the bearmaps.route.queue system property:
+     * "binary-heap" (the default), or the monotone "radix-heap" or "dial".
+     */
+    private static final QueueType ROUTE_QUEUE = QueueType.forQuery("route");
+
+    /** Routes answered without a search because their ends are in different components. */
+    private static final LongAdder UNROUTABLE = Metrics.counter("bearmaps_routes_unroutable_total");
+
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
@@ -28,11 +62,129 @@ public class Router {
                                           double destlon, double destlat) {
         long src = g.closest(stlon, stlat);
         long dest = g.closest(destlon, destlat);
-        return new AStarSolver<>(g, src, dest, 20).solution();
+        return shortestPath(g, src, dest);
+    }
+
+    /**
+     * Returns a List of longs representing the shortest path between two vertices.
+     * @param g The graph to use.
+     * @param src The id of the start vertex.
+     * @param dest The id of the destination vertex.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, long src, long dest) {
+        if (!connected(g, src, dest)) {
+            return new ArrayList<>();
+        }
+        return new AStarSolver<>(g, src, dest, CancellationToken.withTimeout(DEFAULT_TIMEOUT),
+                ROUTE_QUEUE.create(g.queueResolution(null, 0))).solution();
+    }
+
+    /**
+     * Returns a List of longs representing the best path between two vertices under the
+     * given options: the shortest or the fastest, with or without oneway tags and turn
+     * restrictions. Weights for profiles and restrictions are kept by the graph.
+     * @param g The graph to use.
+     * @param src The id of the start vertex.
+     * @param dest The id of the destination vertex.
+     * @param options How to weight edges and whether to obey restrictions.
+     * @return A list of node id's in the order visited on the best path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, long src, long dest,
+                                          RouteOptions options) {
+        return shortestPath(g, src, dest, options, CancellationToken.withTimeout(DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Returns the best path between two vertices under the given options, like the method
+     * above, or an empty list if TOKEN stops the search before it is found.
+     * @param token Says when to give up, such as once the client that asked has gone.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, long src, long dest,
+                                          RouteOptions options, CancellationToken token) {
+        if (!connected(g, src, dest)) {
+            return new ArrayList<>();
+        }
+        if (options.turnRestrictions()) {
+            return g.turnRestrictedGraph(options.profile(), options.hour())
+                    .shortestPath(src, dest, token);
+        }
+        if (ARC_FLAGS && g.readyArcFlags(options.profile(), options.hour()) != null) {
+            return new ArcFlagSolver(g, src, dest, options.profile(), options.hour(), token)
+                    .solution();
+        }
+        PriorityQueue<Long> pq = ROUTE_QUEUE.create(
+                g.queueResolution(options.profile(), options.hour()));
+        if (options.profile() == null) {
+            return new AStarSolver<>(g, src, dest, token, pq).solution();
+        }
+        return new AStarSolver<>(g.travelTimeGraph(options.profile(), options.hour()), src, dest,
+                token, pq).solution();
+    }
+
+    /**
+     * Starts finding the arc flags of G weighted by distance in the background if routes are
+     * found with arc flags, so that they are ready before most routes need them.
+     * @param g The graph to use.
+     */
+    public static void prepareArcFlags(AugmentedStreetMapGraph g) {
+        if (ARC_FLAGS) {
+            g.prepareArcFlags(null, 0);
+        }
     }
 
     /**
-     * Create the list of directions corresponding to a route on the graph.
+     * Returns up to K reasonably different routes between two vertices, the best first, each
+     * as a list of node ids like shortestPath. The alternatives are no more than a quarter
+     * longer than the best route, do not share most of it, and have no obvious detours; see
+     * AlternativeRoutes. Oneway tags and turn restrictions in the options are not applied.
+     * @param g The graph to use.
+     * @param src The id of the start vertex.
+     * @param dest The id of the destination vertex.
+     * @param k The most routes to return.
+     * @param options How to weight edges.
+     * @return The routes found, or an empty list if there is no route.
+     */
+    public static List<List<Long>> alternatives(AugmentedStreetMapGraph g, long src, long dest,
+                                                int k, RouteOptions options) {
+        return alternatives(g, src, dest, k, options,
+                CancellationToken.withTimeout(DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Returns up to K alternative routes like the method above, stopping early when TOKEN
+     * says to. Once the best route is known it is returned along with the alternatives
+     * accepted before the token tripped.
+     */
+    public static List<List<Long>> alternatives(AugmentedStreetMapGraph g, long src, long dest,
+                                                int k, RouteOptions options,
+                                                CancellationToken token) {
+        if (!connected(g, src, dest)) {
+            return new ArrayList<>();
+        }
+        return new AlternativeRoutes(g, src, dest, k, options.profile(), options.hour(), token)
+                .routes();
+    }
+
+    /**
+     * Returns whether SRC and DEST are in the same component of G. If not there is no route
+     * between them, which a search would only find out after exploring every vertex it can
+     * reach, so routes between them are answered at once.
+     */
+    private static boolean connected(AugmentedStreetMapGraph g, long src, long dest) {
+        if (g.connected(src, dest)) {
+            return true;
+        }
+        UNROUTABLE.increment();
+        return false;
+    }
+
+    /**
+     * Create the list of directions corresponding to a route on the graph. Walks the route
+     * once, looking up the edge between each pair of consecutive vertices for its way name and
+     * length; consecutive edges on the same way are merged into one direction, and the turn
+     * onto a new way is found from the bearings of the last edge before it and the first edge
+     * on it.
      * @param g The graph to use.
      * @param route The route to translate into directions. Each element
      *              corresponds to a node from the graph in the route.
@@ -41,8 +193,34 @@ public class Router {
      */
     public static List<NavigationDirection> routeDirections(AugmentedStreetMapGraph g,
                                                             List<Long> route) {
-        /* fill in for part IV */
-        return null;
+        List<NavigationDirection> directions = new ArrayList<>();
+        if (route == null || route.size() < 2) {
+            return directions;
+        }
+        NavigationDirection current = null;
+        double prevBearing = 0;
+        Iterator<Long> vertices = route.iterator();
+        long v = vertices.next();
+        while (vertices.hasNext()) {
+            long w = vertices.next();
+            WeightedEdge<Long> e = g.edge(v, w);
+            String way = e == null || e.getName() == null || e.getName().isEmpty()
+                    ? NavigationDirection.UNKNOWN_ROAD : e.getName();
+            double distance = e != null ? e.weight()
+                    : g.contains(v) && g.contains(w) ? g.estimatedDistanceToGoal(v, w) : 0;
+            double bearing = NavigationDirection.bearing(g.lon(v), g.lon(w), g.lat(v), g.lat(w));
+            if (current == null || !current.way.equals(way)) {
+                current = new NavigationDirection();
+                current.direction = directions.isEmpty() ? NavigationDirection.START
+                        : NavigationDirection.getDirection(prevBearing, bearing);
+                current.way = way;
+                directions.add(current);
+            }
+            current.distance += distance;
+            prevBearing = bearing;
+            v = w;
+        }
+        return directions;
     }
 
     /**
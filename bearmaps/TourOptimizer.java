@@ -0,0 +1,339 @@
+package bearmaps;
+
+import bearmaps.utils.graph.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders stops to visit so that the total cost of the legs between them is low, given the
+ * cost of going from each stop to each other one. The first stop is always visited first,
+ * and a round trip returns to it at the end. Costs need not be symmetric.
+ *
+ * Each of up to THREADS workers repeatedly builds an order by a randomized nearest neighbor
+ * heuristic and improves it with 2-opt moves (reversing a run of stops) and Or-opt moves
+ * (moving a run of up to three stops elsewhere) until no move helps, starting over from a
+ * new order until the time budget runs out. The best order any worker found wins.
+ *
+ * The workers of all requests share one pool of THREADS daemon threads. A request takes at
+ * least one of its slots, waiting for one if none is free, and at most half of those free
+ * when it starts, so that concurrent requests share the pool instead of queueing their
+ * workers behind each other's. Each worker's budget starts when the worker does. The
+ * searches of a CostMatrix get a pool of their own, MATRIX_EXECUTOR, so that they never
+ * wait behind workers that run until their budget is spent.
+ */
+public class TourOptimizer {
+
+    /** The number of worker threads, from the bearmaps.optimize.threads system property. */
+    public static final int THREADS = Integer.getInteger("bearmaps.optimize.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** The pool the workers run on. */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new DaemonThreadFactory("tour-optimizer-"));
+
+    /** The slots of EXECUTOR not taken by a request's workers. */
+    private static final Semaphore WORKER_SLOTS = new Semaphore(THREADS, true);
+
+    /** The pool cost matrix searches for tours run on. */
+    public static final ExecutorService MATRIX_EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new DaemonThreadFactory("cost-matrix-"));
+
+    /** The longest run of stops an Or-opt move moves. */
+    private static final int OR_OPT_LENGTH = 3;
+
+    /** How many of the nearest unvisited stops a randomized construction picks among. */
+    private static final int CANDIDATES = 3;
+
+    /** Improvements smaller than this are ignored, so rounding cannot make moves cycle. */
+    private static final double EPSILON = 1e-9;
+
+    private final double[][] costs;
+    private final boolean roundTrip;
+    private final int n;
+
+    private TourOptimizer(double[][] costs, boolean roundTrip) {
+        this.n = costs.length;
+        this.roundTrip = roundTrip;
+        /* Unreachable pairs get a cost larger than any order without them, so the search
+           avoids them where it can and never does arithmetic on infinities. */
+        double largest = 0;
+        for (double[] row : costs) {
+            for (double c : row) {
+                if (c != Double.POSITIVE_INFINITY) {
+                    largest = Math.max(largest, c);
+                }
+            }
+        }
+        double unreachable = (largest + 1) * (n + 1);
+        this.costs = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                this.costs[i][j] = costs[i][j] == Double.POSITIVE_INFINITY
+                        ? unreachable : costs[i][j];
+            }
+        }
+    }
+
+    /**
+     * Returns the best order of the stops found within BUDGET_MILLIS milliseconds, as the
+     * stops' indices into COSTS starting with 0.
+     * @param costs The cost from each stop to each other stop, infinite if unreachable.
+     * @param roundTrip Whether the route returns to the first stop.
+     * @param budgetMillis How long to search for a better order.
+     */
+    public static int[] optimize(double[][] costs, boolean roundTrip, long budgetMillis) {
+        return optimize(costs, roundTrip, budgetMillis,
+                CancellationToken.withTimeout(Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * Returns the best order of the stops found within BUDGET_MILLIS milliseconds, or found
+     * before TOKEN said to stop if that is sooner. Some order is always returned.
+     * @param token Says when to stop early, such as once the client that asked has gone.
+     */
+    public static int[] optimize(double[][] costs, boolean roundTrip, long budgetMillis,
+                                 CancellationToken token) {
+        TourOptimizer optimizer = new TourOptimizer(costs, roundTrip);
+        if (optimizer.n <= 3) {
+            return optimizer.improve(optimizer.construct(null), Long.MAX_VALUE, token);
+        }
+        long budgetNanos = budgetMillis * 1_000_000;
+        int slots = takeWorkerSlots();
+        int[] best = null;
+        try {
+            List<Future<int[]>> workers = new ArrayList<>();
+            for (int w = 0; w < slots; w++) {
+                long seed = w;
+                workers.add(EXECUTOR.submit(() -> optimizer.search(seed,
+                        System.nanoTime() + budgetNanos, token)));
+            }
+            for (Future<int[]> worker : workers) {
+                int[] order = worker.get();
+                if (best == null || optimizer.cost(order) < optimizer.cost(best)) {
+                    best = order;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while ordering stops", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not order stops", e.getCause());
+        } finally {
+            WORKER_SLOTS.release(slots);
+        }
+        return best;
+    }
+
+    /**
+     * Takes one worker slot, waiting for it if need be, and up to half of the others that
+     * are free, and returns how many it took.
+     */
+    private static int takeWorkerSlots() {
+        try {
+            WORKER_SLOTS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while ordering stops", e);
+        }
+        int slots = 1;
+        int extra = WORKER_SLOTS.availablePermits() / 2;
+        while (extra > 0 && WORKER_SLOTS.tryAcquire()) {
+            slots += 1;
+            extra -= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Builds and improves orders until DEADLINE, in System.nanoTime() terms, or until TOKEN
+     * says to stop, and returns the best. The worker with SEED 0 starts from the plain
+     * nearest neighbor order.
+     */
+    private int[] search(long seed, long deadline, CancellationToken token) {
+        Random random = new Random(seed);
+        int[] best = improve(construct(seed == 0 ? null : random), deadline, token);
+        double bestCost = cost(best);
+        while (System.nanoTime() < deadline && token.stopReason() == null) {
+            int[] order = improve(construct(random), deadline, token);
+            double cost = cost(order);
+            if (cost < bestCost - EPSILON) {
+                best = order;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns an order starting at stop 0 that always goes on to one of the CANDIDATES
+     * cheapest unvisited stops, chosen by RANDOM, or to the cheapest if RANDOM is null.
+     */
+    private int[] construct(Random random) {
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        int[] nearest = new int[CANDIDATES];
+        for (int k = 1; k < n; k++) {
+            int from = order[k - 1];
+            int found = 0;
+            for (int j = 0; j < n; j++) {
+                if (visited[j]) {
+                    continue;
+                }
+                /* Keep the CANDIDATES cheapest in nearest, cheapest first. */
+                int pos = Math.min(found, CANDIDATES - 1);
+                if (found == CANDIDATES && costs[from][j] >= costs[from][nearest[pos]]) {
+                    continue;
+                }
+                while (pos > 0 && costs[from][nearest[pos - 1]] > costs[from][j]) {
+                    nearest[pos] = nearest[pos - 1];
+                    pos -= 1;
+                }
+                nearest[pos] = j;
+                found = Math.min(found + 1, CANDIDATES);
+            }
+            int next = nearest[random == null ? 0 : random.nextInt(found)];
+            order[k] = next;
+            visited[next] = true;
+        }
+        return order;
+    }
+
+    /**
+     * Applies improving moves to ORDER until none is left, DEADLINE passes or TOKEN says to
+     * stop, and returns it. Each move scans the whole order, so the token is checked after
+     * every one.
+     */
+    private int[] improve(int[] order, long deadline, CancellationToken token) {
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline && token.stopReason() == null) {
+            improved = twoOpt(order) || orOpt(order);
+        }
+        return order;
+    }
+
+    /** Returns the stop after position K of ORDER, or -1 if the route ends there. */
+    private int next(int[] order, int k) {
+        if (k + 1 < n) {
+            return order[k + 1];
+        }
+        return roundTrip ? order[0] : -1;
+    }
+
+    /** Returns the cost from stop I to stop J, which is 0 if J is -1, the end of the route. */
+    private double cost(int i, int j) {
+        return j < 0 ? 0 : costs[i][j];
+    }
+
+    /** Returns the total cost of the route visiting the stops in ORDER. */
+    double cost(int[] order) {
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += cost(order[k], next(order, k));
+        }
+        return total;
+    }
+
+    /**
+     * Applies the first improving 2-opt move: reversing the stops at positions i + 1 to j.
+     * Since costs may be asymmetric, the reversed run costs what its legs cost backwards,
+     * which prefix sums of the legs in both directions give for any run at once.
+     * Returns whether a move was made.
+     */
+    private boolean twoOpt(int[] order) {
+        double[] forward = new double[n];
+        double[] backward = new double[n];
+        for (int k = 1; k < n; k++) {
+            forward[k] = forward[k - 1] + costs[order[k - 1]][order[k]];
+            backward[k] = backward[k - 1] + costs[order[k]][order[k - 1]];
+        }
+        for (int i = 0; i < n - 2; i++) {
+            int a = order[i];
+            int b = order[i + 1];
+            for (int j = i + 2; j < n; j++) {
+                int c = order[j];
+                int d = next(order, j);
+                double delta = cost(a, c) + cost(b, d) - cost(a, b) - cost(c, d)
+                        + (backward[j] - backward[i + 1]) - (forward[j] - forward[i + 1]);
+                if (delta < -EPSILON) {
+                    for (int lo = i + 1, hi = j; lo < hi; lo++, hi--) {
+                        int t = order[lo];
+                        order[lo] = order[hi];
+                        order[hi] = t;
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the first improving Or-opt move: moving the run of up to OR_OPT_LENGTH stops
+     * starting at position s, in the same direction, to between two other consecutive stops.
+     * Returns whether a move was made.
+     */
+    private boolean orOpt(int[] order) {
+        for (int length = 1; length <= OR_OPT_LENGTH; length++) {
+            for (int s = 1; s + length <= n; s++) {
+                int e = s + length - 1;
+                int first = order[s];
+                int last = order[e];
+                int before = order[s - 1];
+                int after = next(order, e);
+                double removed = cost(before, first) + cost(last, after) - cost(before, after);
+                for (int p = 0; p < n; p++) {
+                    if (p >= s - 1 && p <= e) {
+                        continue;
+                    }
+                    int a = order[p];
+                    int b = next(order, p);
+                    double delta = cost(a, first) + cost(last, b) - cost(a, b) - removed;
+                    if (delta < -EPSILON) {
+                        move(order, s, length, p);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Moves the LENGTH stops at position S of ORDER to just after the stop at position P. */
+    private static void move(int[] order, int s, int length, int p) {
+        int[] run = new int[length];
+        System.arraycopy(order, s, run, 0, length);
+        if (p < s) {
+            System.arraycopy(order, p + 1, order, p + 1 + length, s - p - 1);
+            System.arraycopy(run, 0, order, p + 1, length);
+        } else {
+            System.arraycopy(order, s + length, order, s, p - s - length + 1);
+            System.arraycopy(run, 0, order, p - length + 1, length);
+        }
+    }
+
+    /** Makes the pool's threads daemons, so a busy pool never keeps the server from exiting. */
+    private static class DaemonThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
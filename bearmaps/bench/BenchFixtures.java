@@ -0,0 +1,62 @@
+package bearmaps.bench;
+
+import bearmaps.AugmentedStreetMapGraph;
+
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks. Everything random is drawn from SEED so runs are
+ * comparable, and the street graph is read from a small bundled OSM file: a jittered 40 by 40
+ * grid of streets inside the Berkeley raster bounds, with a few missing intersections,
+ * diagonals and named places. Set the bearmaps.bench.osm system property to benchmark
+ * against another file, such as the full Berkeley map.
+ */
+class BenchFixtures {
+
+    /** Seed of every random input. */
+    static final long SEED = 61;
+
+    /** The OSM file benchmarks read, relative to the repository root. */
+    static final String OSM_PATH = System.getProperty("bearmaps.bench.osm",
+            "bearmaps/bench/data/bench.osm.xml");
+
+    /** Bounds of the bundled fixture. */
+    static final double MIN_LON = -122.2900, MAX_LON = -122.2180;
+    static final double MIN_LAT = 37.8290, MAX_LAT = 37.8850;
+
+    private static AugmentedStreetMapGraph graph;
+
+    private BenchFixtures() {
+    }
+
+    /** Returns the street graph of OSM_PATH, read once per JVM. */
+    static synchronized AugmentedStreetMapGraph graph() {
+        if (graph == null) {
+            graph = new AugmentedStreetMapGraph(OSM_PATH);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns COUNT origin and destination vertices of GRAPH, snapped from uniformly random
+     * points of the fixture bounds.
+     */
+    static long[][] routePairs(AugmentedStreetMapGraph graph, int count) {
+        Random random = new Random(SEED);
+        long[][] pairs = new long[count][];
+        for (int i = 0; i < count; i++) {
+            long from = graph.closest(randomLon(random), randomLat(random));
+            long to = graph.closest(randomLon(random), randomLat(random));
+            pairs[i] = new long[]{from, to};
+        }
+        return pairs;
+    }
+
+    static double randomLon(Random random) {
+        return MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON);
+    }
+
+    static double randomLat(Random random) {
+        return MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+    }
+}
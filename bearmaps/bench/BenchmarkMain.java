@@ -0,0 +1,30 @@
+package bearmaps.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package with the GC profiler, so every score comes with its
+ * allocation rate. Takes the usual JMH command line options, e.g. a benchmark name regex or
+ * -p size=1000; with no regex all benchmarks in this package run. Run from the repository
+ * root so the bundled OSM fixture is found, with jmh-core and jmh-generator-annprocess on the
+ * class path and annotation processing enabled.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkMain.class.getPackage().getName() + "\\..*Benchmark");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package bearmaps.bench;
+
+import bearmaps.utils.ps.KDTree;
+import bearmaps.utils.ps.NaivePointSet;
+import bearmaps.utils.ps.Point;
+import bearmaps.utils.ps.PointSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Nearest point queries against SIZE uniformly random points. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PointSetBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"KDTree", "NaivePointSet"})
+    public String pointSet;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private PointSet points;
+    private double[] xs;
+    private double[] ys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchFixtures.SEED);
+        List<Point> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Point(random.nextDouble(), random.nextDouble()));
+        }
+        points = pointSet.equals("NaivePointSet") ? new NaivePointSet(list) : new KDTree(list);
+        xs = new double[QUERIES];
+        ys = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public Point nearest() {
+        int i = next;
+        next = (next + 1) % QUERIES;
+        return points.nearest(xs[i], ys[i]);
+    }
+}
@@ -0,0 +1,100 @@
+package bearmaps.bench;
+
+import bearmaps.utils.pq.DialPQ;
+import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.NaiveMinPQ;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.RadixHeapPQ;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a priority queue with SIZE items and drains it. In the "insert-poll" mix that is all;
+ * in the "change-priority" mix half of the items get a new priority in between, as happens
+ * to vertices whose distance is relaxed during a search. Every item is inserted before the
+ * first poll, so the monotone queues can run the same mixes; they bucket the priorities,
+ * which are below 1, by RESOLUTION.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+    private static final double RESOLUTION = 1e-4;
+
+    @Param({"MinHeapPQ", "NaiveMinPQ", "RadixHeapPQ", "DialPQ"})
+    public String queue;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"insert-poll", "change-priority"})
+    public String mix;
+
+    private Integer[] items;
+    private double[] priorities;
+    private int[] changed;
+    private double[] newPriorities;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchFixtures.SEED);
+        items = new Integer[size];
+        priorities = new double[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = i;
+            priorities[i] = random.nextDouble();
+        }
+        int changes = mix.equals("change-priority") ? size / 2 : 0;
+        changed = new int[changes];
+        newPriorities = new double[changes];
+        for (int i = 0; i < changes; i++) {
+            changed[i] = random.nextInt(size);
+            newPriorities[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public int fillAndDrain() {
+        PriorityQueue<Integer> pq = newQueue();
+        for (int i = 0; i < size; i++) {
+            pq.insert(items[i], priorities[i]);
+        }
+        for (int i = 0; i < changed.length; i++) {
+            pq.changePriority(items[changed[i]], newPriorities[i]);
+        }
+        int checksum = 0;
+        while (pq.size() > 0) {
+            checksum = 31 * checksum + pq.poll();
+        }
+        return checksum;
+    }
+
+    private PriorityQueue<Integer> newQueue() {
+        switch (queue) {
+            case "NaiveMinPQ":
+                return new NaiveMinPQ<>();
+            case "RadixHeapPQ":
+                return new RadixHeapPQ<>(RESOLUTION);
+            case "DialPQ":
+                return new DialPQ<>(RESOLUTION);
+            default:
+                return new MinHeapPQ<>();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bearmaps.bench;
+
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static bearmaps.utils.Constants.*;
+
+/**
+ * Raster planning, the part of a raster request that picks the depth and the grid of tiles
+ * for a viewport, without reading or encoding any images or prefetching tiles. Viewports are random boxes inside
+ * the root tile at zoom levels from the whole map down to a few blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterPlanningBenchmark {
+
+    private static final int QUERIES = 256;
+
+    private RasterAPIHandler rasterer;
+    private List<Map<String, Double>> queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        rasterer = new RasterAPIHandler(false);
+        Random random = new Random(BenchFixtures.SEED);
+        queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            double width = (ROOT_LRLON - ROOT_ULLON) / Math.pow(2, random.nextInt(8));
+            double height = (ROOT_ULLAT - ROOT_LRLAT) / Math.pow(2, random.nextInt(8));
+            double ullon = ROOT_ULLON + random.nextDouble() * (ROOT_LRLON - ROOT_ULLON - width);
+            double ullat = ROOT_ULLAT - random.nextDouble() * (ROOT_ULLAT - ROOT_LRLAT - height);
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", ullon);
+            params.put("ullat", ullat);
+            params.put("lrlon", ullon + width);
+            params.put("lrlat", ullat - height);
+            params.put("w", 400.0 + random.nextInt(1200));
+            params.put("h", 300.0 + random.nextInt(900));
+            queries.add(params);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public Map<String, Object> plan() {
+        Map<String, Double> params = queries.get(next);
+        next = (next + 1) % QUERIES;
+        return rasterer.processRequest(params, null);
+    }
+}
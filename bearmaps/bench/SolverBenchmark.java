@@ -0,0 +1,71 @@
+package bearmaps.bench;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.LazySolver;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.streetmap.ArcFlagSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shortest path searches between random origins and destinations of the fixture graph. Each
+ * invocation solves the next pair, so the score is the mean over PAIRS different searches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+
+    private static final int PAIRS = 256;
+
+    /** Searches are never cut short. */
+    private static final double TIMEOUT = 60;
+
+    @Param({"AStarSolver", "LazySolver", "ArcFlagSolver"})
+    public String solver;
+
+    private AugmentedStreetMapGraph graph;
+    private long[][] pairs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        graph = BenchFixtures.graph();
+        pairs = BenchFixtures.routePairs(graph, PAIRS);
+        next = 0;
+        if (solver.equals("ArcFlagSolver")) {
+            /* Preprocessing is not part of the score. */
+            graph.arcFlags(null, 0);
+        }
+    }
+
+    @Benchmark
+    public double solve() {
+        long[] pair = pairs[next];
+        next = (next + 1) % pairs.length;
+        ShortestPathsSolver<Long> s;
+        if (solver.equals("LazySolver")) {
+            s = new LazySolver<>(graph, pair[0], pair[1], TIMEOUT);
+        } else if (solver.equals("ArcFlagSolver")) {
+            s = new ArcFlagSolver(graph, pair[0], pair[1], null, 0, TIMEOUT);
+        } else {
+            s = new AStarSolver<>(graph, pair[0], pair[1], TIMEOUT);
+        }
+        return s.solutionWeight();
+    }
+}
@@ -0,0 +1,78 @@
+package bearmaps.bench;
+
+import bearmaps.utils.Trie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefix queries against a trie of SIZE random lower case names, as the search box sends
+ * them. Short prefixes match a large share of the names, long ones only a few.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrieBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"1", "3"})
+    public int prefixLength;
+
+    private Trie trie;
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchFixtures.SEED);
+        String[] keys = new String[size];
+        trie = new Trie();
+        for (int i = 0; i < size; i++) {
+            keys[i] = randomName(random);
+            trie.add(keys[i]);
+        }
+        prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String key = keys[random.nextInt(size)];
+            prefixes[i] = key.substring(0, Math.min(prefixLength, key.length()));
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public List<String> keysWithPrefix() {
+        String prefix = prefixes[next];
+        next = (next + 1) % QUERIES;
+        return trie.keysWithPrefix(prefix);
+    }
+
+    /** Returns a name of 3 to 14 letters and spaces. */
+    private static String randomName(Random random) {
+        int length = 3 + random.nextInt(12);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            boolean space = i > 0 && i < length - 1 && sb.charAt(i - 1) != ' ' && random.nextInt(6) == 0;
+            sb.append(space ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,214 @@
+package bearmaps.loadtest;
+
+import bearmaps.utils.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop load generator for a running MapServer. Requests are sent on a fixed schedule
+ * at the target rate whether or not earlier ones have completed, and each latency is measured
+ * from the time its request was scheduled to be sent rather than the time it actually was, so
+ * a stalled server or a generator that falls behind shows up in the percentiles instead of
+ * silently lowering the offered load (coordinated omission).
+ *
+ * Usage: java bearmaps.loadtest.LoadGenerator [--url http://localhost:4567] [--rate 50]
+ * [--duration 60] [--replay traffic.txt | --seed 61 --raster 0.7 --route 0.1]
+ * [--write traffic.txt]
+ *
+ * With --replay the requests of a traffic file are sent in order, wrapping around as needed;
+ * otherwise traffic is synthesized with Traffic.synthesize and the remainder of --raster and
+ * --route goes to /search. --write saves the traffic that would be sent and exits.
+ */
+public class LoadGenerator {
+
+    /** Requests still outstanding this long after the last one was sent count as errors. */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final double rate;
+    private final Map<String, EndpointStats> stats = new TreeMap<>();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    public LoadGenerator(String baseUrl, double rate, ExecutorService executor) {
+        this.baseUrl = baseUrl;
+        this.rate = rate;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(executor)
+                .build();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        double duration = Double.parseDouble(options.getOrDefault("duration", "60"));
+        int count = (int) Math.ceil(rate * duration);
+
+        List<String> traffic;
+        if (options.containsKey("replay")) {
+            traffic = Traffic.read(Paths.get(options.get("replay")));
+        } else {
+            traffic = Traffic.synthesize(count,
+                    Long.parseLong(options.getOrDefault("seed", "61")),
+                    Double.parseDouble(options.getOrDefault("raster", "0.7")),
+                    Double.parseDouble(options.getOrDefault("route", "0.1")));
+        }
+        if (traffic.isEmpty()) {
+            throw new IllegalArgumentException("No requests to send.");
+        }
+        if (options.containsKey("write")) {
+            Traffic.write(Paths.get(options.get("write")), traffic);
+            return;
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "load-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        LoadGenerator generator = new LoadGenerator(
+                options.getOrDefault("url", "http://localhost:4567"), rate, executor);
+        System.out.print(generator.run(traffic, count));
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends COUNT requests from TRAFFIC, wrapping around, at the target rate and waits for
+     * them to complete.
+     * @return The summary report.
+     */
+    public String run(List<String> traffic, int count) throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long maxLag = 0;
+        for (int i = 0; i < count; i++) {
+            long intended = start + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            maxLag = Math.max(maxLag, now - intended);
+            send(traffic.get(i % traffic.size()), intended);
+        }
+        long sent = System.nanoTime();
+        long deadline = sent + REQUEST_TIMEOUT.toNanos();
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - start;
+        return report(count, sent - start, elapsed, maxLag);
+    }
+
+    /** Sends one request, recording its latency from INTENDED when it completes. */
+    private void send(String request, long intended) {
+        EndpointStats endpoint = statsFor(endpointOf(request));
+        endpoint.sent.incrementAndGet();
+        HttpRequest httpRequest;
+        try {
+            httpRequest = HttpRequest.newBuilder(URI.create(baseUrl + request))
+                    .timeout(REQUEST_TIMEOUT)
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            endpoint.errors.incrementAndGet();
+            return;
+        }
+        outstanding.incrementAndGet();
+        client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long latency = System.nanoTime() - intended;
+                    if (error != null || response.statusCode() >= 400) {
+                        endpoint.errors.incrementAndGet();
+                        if (response != null && response.statusCode() == 503) {
+                            endpoint.shed.incrementAndGet();
+                        }
+                    } else {
+                        endpoint.latency.record(latency);
+                    }
+                    outstanding.decrementAndGet();
+                });
+    }
+
+    private synchronized EndpointStats statsFor(String endpoint) {
+        return stats.computeIfAbsent(endpoint, k -> new EndpointStats());
+    }
+
+    /** Returns the path of a request without its leading '/' and query string. */
+    private static String endpointOf(String request) {
+        int query = request.indexOf('?');
+        String path = query < 0 ? request : request.substring(0, query);
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private synchronized String report(int count, long sendingNanos, long elapsedNanos, long maxLagNanos) {
+        StringBuilder sb = new StringBuilder();
+        double seconds = elapsedNanos / 1e9;
+        sb.append(String.format(Locale.ROOT, "Sent %d requests in %.1f s (target %.1f req/s, "
+                        + "achieved %.1f req/s), worst send lag %.1f ms%n", count, sendingNanos / 1e9,
+                rate, count / (sendingNanos / 1e9), maxLagNanos / 1e6));
+        sb.append(String.format(Locale.ROOT, "%-14s %9s %8s %7s %6s %10s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "error%", "shed", "ok req/s",
+                "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        long totalSent = 0, totalErrors = 0, totalShed = 0, totalOk = 0;
+        for (Map.Entry<String, EndpointStats> e : stats.entrySet()) {
+            EndpointStats s = e.getValue();
+            appendRow(sb, e.getKey(), s.sent.get(), s.errors.get(), s.shed.get(), s.latency, seconds);
+            totalSent += s.sent.get();
+            totalErrors += s.errors.get();
+            totalShed += s.shed.get();
+            totalOk += s.latency.count();
+        }
+        long unfinished = outstanding.get();
+        sb.append(String.format(Locale.ROOT, "all: %d requests, %d errors (%.2f%%), %d shed, "
+                        + "%d unfinished, %.1f ok req/s%n", totalSent, totalErrors + unfinished,
+                100.0 * (totalErrors + unfinished) / Math.max(1, totalSent), totalShed, unfinished,
+                totalOk / seconds));
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, long sent, long errors, long shed,
+                                  LatencyHistogram latency, double seconds) {
+        sb.append(String.format(Locale.ROOT, "%-14s %9d %8d %7.2f %6d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                name, sent, errors, 100.0 * errors / Math.max(1, sent), shed, latency.count() / seconds,
+                latency.valueAtQuantile(0.5) / 1e6, latency.valueAtQuantile(0.99) / 1e6,
+                latency.valueAtQuantile(0.999) / 1e6, latency.max() / 1e6));
+    }
+
+    /** Parses "--name value" pairs. */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+            i += 1;
+        }
+        return options;
+    }
+
+    /** Counts of one endpoint. Latencies are only recorded for successful requests. */
+    private static class EndpointStats {
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
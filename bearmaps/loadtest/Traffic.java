@@ -0,0 +1,142 @@
+package bearmaps.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static bearmaps.utils.Constants.*;
+
+/**
+ * Request mixes for the load generator. A traffic file holds one request per line, as the
+ * path and query string the front end sends, e.g. "/search?term=tel". Blank lines and lines
+ * starting with '#' are ignored. Files are either recorded by a running server (see
+ * TrafficRecorder) or synthesized from the bounding box of the map.
+ */
+public class Traffic {
+
+    /** Common screen sizes, in pixels, that synthesized viewports are drawn with. */
+    private static final int[][] SCREENS = {{1280, 720}, {1440, 900}, {1920, 1080}, {390, 844}};
+
+    /** Prefixes typed into the search box; the longer ones are sent as full searches. */
+    private static final String[] SEARCH_TERMS = {"telegraph", "shattuck", "university",
+        "college", "cafe", "pizza", "library", "bart", "berkeley", "park", "market", "bakery"};
+
+    /** Number of simulated users whose viewports are panned and zoomed independently. */
+    private static final int USERS = 32;
+
+    /** Deepest raster depth. */
+    private static final int MAX_DEPTH = 7;
+
+    private Traffic() {
+    }
+
+    /** Reads the requests of a traffic file. */
+    public static List<String> read(Path file) throws IOException {
+        List<String> requests = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                requests.add(line);
+            }
+        }
+        return requests;
+    }
+
+    /** Writes the given requests as a traffic file. */
+    public static void write(Path file, List<String> requests) throws IOException {
+        Files.write(file, requests, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Synthesizes COUNT requests inside the root bounding box in Constants. Raster requests
+     * come from USERS users who each pan and zoom their own viewport, so consecutive tiles
+     * overlap the way real browsing does; routes run between nearby points; searches are
+     * prefixes of common names.
+     * @param count Number of requests.
+     * @param seed Seed of the random choices, so the same arguments give the same traffic.
+     * @param rasterShare Fraction of requests that are /raster requests.
+     * @param routeShare Fraction of requests that are /route requests; the rest are /search.
+     * @return The requests, in order.
+     */
+    public static List<String> synthesize(int count, long seed, double rasterShare, double routeShare) {
+        Random random = new Random(seed);
+        double[][] viewports = new double[USERS][];
+        for (int u = 0; u < USERS; u++) {
+            viewports[u] = new double[]{randomLon(random), randomLat(random), random.nextInt(MAX_DEPTH + 1),
+                SCREENS[random.nextInt(SCREENS.length)][0], SCREENS[random.nextInt(SCREENS.length)][1]};
+        }
+        List<String> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double p = random.nextDouble();
+            if (p < rasterShare) {
+                requests.add(raster(random, viewports[random.nextInt(USERS)]));
+            } else if (p < rasterShare + routeShare) {
+                requests.add(route(random));
+            } else {
+                requests.add(search(random));
+            }
+        }
+        return requests;
+    }
+
+    /** Pans or zooms the viewport (lon, lat, depth, w, h) and returns its raster request. */
+    private static String raster(Random random, double[] viewport) {
+        double move = random.nextDouble();
+        if (move < 0.15 && viewport[2] < MAX_DEPTH) {
+            viewport[2] += 1;
+        } else if (move < 0.25 && viewport[2] > 0) {
+            viewport[2] -= 1;
+        }
+        double lonPerPixel = (ROOT_LRLON - ROOT_ULLON) / TILE_SIZE / Math.pow(2, viewport[2]);
+        double latPerPixel = (ROOT_ULLAT - ROOT_LRLAT) / TILE_SIZE / Math.pow(2, viewport[2]);
+        double width = viewport[3] * lonPerPixel;
+        double height = viewport[4] * latPerPixel;
+        if (move >= 0.25) {
+            viewport[0] += (random.nextDouble() - 0.5) * width / 2;
+            viewport[1] += (random.nextDouble() - 0.5) * height / 2;
+        }
+        viewport[0] = clamp(viewport[0], ROOT_ULLON, ROOT_LRLON);
+        viewport[1] = clamp(viewport[1], ROOT_LRLAT, ROOT_ULLAT);
+        return String.format(Locale.ROOT, "/raster?ullon=%.7f&ullat=%.7f&lrlon=%.7f&lrlat=%.7f&w=%d&h=%d",
+                viewport[0] - width / 2, viewport[1] + height / 2,
+                viewport[0] + width / 2, viewport[1] - height / 2,
+                (int) viewport[3], (int) viewport[4]);
+    }
+
+    /** Returns a route request between a random point and another point a few blocks away. */
+    private static String route(Random random) {
+        double startLon = randomLon(random), startLat = randomLat(random);
+        double endLon = clamp(startLon + random.nextGaussian() * (ROOT_LRLON - ROOT_ULLON) / 8,
+                ROOT_ULLON, ROOT_LRLON);
+        double endLat = clamp(startLat + random.nextGaussian() * (ROOT_ULLAT - ROOT_LRLAT) / 8,
+                ROOT_LRLAT, ROOT_ULLAT);
+        return String.format(Locale.ROOT, "/route?start_lon=%.7f&start_lat=%.7f&end_lon=%.7f&end_lat=%.7f",
+                startLon, startLat, endLon, endLat);
+    }
+
+    /** Returns a prefix search, or one time in five a full search. */
+    private static String search(Random random) {
+        String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+        if (random.nextInt(5) == 0) {
+            return "/search?term=" + term + "&full=true";
+        }
+        return "/search?term=" + term.substring(0, 1 + random.nextInt(term.length()));
+    }
+
+    private static double randomLon(Random random) {
+        return ROOT_ULLON + random.nextDouble() * (ROOT_LRLON - ROOT_ULLON);
+    }
+
+    private static double randomLat(Random random) {
+        return ROOT_LRLAT + random.nextDouble() * (ROOT_ULLAT - ROOT_LRLAT);
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
@@ -0,0 +1,68 @@
+package bearmaps.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Appends the API requests a running server receives to a traffic file that the load
+ * generator can replay. Only the given paths are recorded, so static files and the metrics
+ * endpoint stay out of the mix.
+ */
+public class TrafficRecorder {
+
+    /** Lines are flushed to the file in batches of this many. */
+    private static final int FLUSH_EVERY = 64;
+
+    private final Set<String> paths;
+    private final BufferedWriter out;
+    private int unflushed;
+
+    /**
+     * Opens FILE for appending.
+     * @param file The traffic file.
+     * @param paths The request paths to record, e.g. "/raster".
+     */
+    public TrafficRecorder(Path file, Set<String> paths) throws IOException {
+        this.paths = paths;
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    /** Records a request, if its path is one of the recorded paths. */
+    public void record(String path, String query) {
+        if (!paths.contains(path)) {
+            return;
+        }
+        String line = query == null || query.isEmpty() ? path : path + "?" + query;
+        synchronized (this) {
+            try {
+                out.write(line);
+                out.newLine();
+                unflushed += 1;
+                if (unflushed >= FLUSH_EVERY) {
+                    out.flush();
+                    unflushed = 0;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Writes out any buffered lines. */
+    public synchronized void flush() {
+        try {
+            out.flush();
+            unflushed = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package bearmaps.server.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit that adapts to observed latency (AIMD). Two moving averages of latency
+ * are kept: a short-term one over about the last SHORT_WINDOW requests, and a baseline over
+ * about the last BASELINE_WINDOW. While the short-term average is within TOLERANCE times the
+ * baseline, every request grows the limit by about one per limit's worth of requests; once it
+ * is above that, or a request fails, every request shrinks the limit by BACKOFF. Averages
+ * rather than single requests are compared, so a mix of cheap requests, such as those served
+ * from a cache, and expensive ones is not mistaken for overload, while latency that keeps
+ * rising pulls the short-term average away from the baseline.
+ *
+ * Requests over the limit wait for a permit, but only until their deadline: a request whose
+ * estimated wait would already run past its deadline is turned away at once instead of
+ * queueing just to time out.
+ */
+public class AdaptiveLimiter {
+
+    /** Requests are "slow" while their short-term average is over this times the baseline. */
+    private static final double TOLERANCE = 2.0;
+
+    /** Factor the limit is multiplied by after a slow or failed request. */
+    private static final double BACKOFF = 0.9;
+
+    /** About how many of the latest requests the short-term average and the baseline span. */
+    private static final int SHORT_WINDOW = 10, BASELINE_WINDOW = 600;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long samples;
+    private double baselineNanos;
+    private double averageNanos;
+    private long rejected;
+
+    /**
+     * @param initialLimit The concurrency limit to start with.
+     * @param minLimit The limit never shrinks below this.
+     * @param maxLimit The limit never grows above this.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Acquires a permit, waiting until the deadline at the latest.
+     * @param deadlineNanos The System.nanoTime() by which the request must have started.
+     * @return True if a permit was acquired, false if the request should be shed.
+     */
+    public boolean acquire(long deadlineNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight += 1;
+                return true;
+            }
+            long now = System.nanoTime();
+            if (now + estimatedWaitNanos(waiting + 1) > deadlineNanos) {
+                rejected += 1;
+                return false;
+            }
+            waiting += 1;
+            try {
+                while (inFlight >= (int) limit) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejected += 1;
+                        return false;
+                    }
+                    released.awaitNanos(remaining);
+                }
+                inFlight += 1;
+                return true;
+            } finally {
+                waiting -= 1;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit and updates the limit with the request's outcome.
+     * @param latencyNanos How long the request took.
+     * @param succeeded False if the request failed in a way that signals overload.
+     */
+    public void release(long latencyNanos, boolean succeeded) {
+        lock.lock();
+        try {
+            int usedInFlight = inFlight;
+            inFlight -= 1;
+            /* Plain means until a window is full, so neither average starts from one sample. */
+            samples += 1;
+            averageNanos += (latencyNanos - averageNanos) / Math.min(samples, SHORT_WINDOW);
+            baselineNanos += (latencyNanos - baselineNanos) / Math.min(samples, BASELINE_WINDOW);
+
+            if (!succeeded || averageNanos > TOLERANCE * baselineNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+            } else if (usedInFlight * 2 >= (int) limit) {
+                /* Only grow when the limit is actually being used. */
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the estimated time until the request at the given queue position can start. */
+    private long estimatedWaitNanos(int position) {
+        return (long) (averageNanos * position / Math.max(1, (int) limit));
+    }
+
+    /** Returns a suggestion, in whole seconds and at least 1, of when to retry. */
+    public long retryAfterSeconds() {
+        lock.lock();
+        try {
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(estimatedWaitNanos(waiting + 1)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long rejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package bearmaps.server.admission;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+    private static final long MILLI = 1_000_000;
+
+    /** Runs one request through LIMITER that takes LATENCYNANOS. */
+    private static void request(AdaptiveLimiter limiter, long latencyNanos)
+            throws InterruptedException {
+        assertTrue(limiter.acquire(System.nanoTime() + 1000 * MILLI));
+        limiter.release(latencyNanos, true);
+    }
+
+    @Test
+    public void testSteadyLatencyKeepsLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(50, 1, 100);
+        for (int i = 0; i < 1000; i++) {
+            request(limiter, (i % 2 == 0 ? 10 : 15) * MILLI);
+        }
+        assertEquals(50, limiter.limit());
+    }
+
+    @Test
+    public void testRisingLatencyShrinksLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(50, 1, 100);
+        for (int i = 0; i < 200; i++) {
+            request(limiter, 10 * MILLI);
+        }
+        double latency = 10 * MILLI;
+        for (int i = 0; i < 500; i++) {
+            latency *= 1.01;
+            request(limiter, (long) latency);
+        }
+        assertTrue(limiter.limit() < 50);
+    }
+
+    @Test
+    public void testCacheHitsAmongMissesKeepLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(50, 1, 100);
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            request(limiter, random.nextDouble() < 0.3 ? 200_000 : 40 * MILLI);
+        }
+        assertEquals(50, limiter.limit());
+    }
+}
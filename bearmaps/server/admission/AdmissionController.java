@@ -0,0 +1,102 @@
+package bearmaps.server.admission;
+
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.concurrent.TimeUnit;
+
+import static spark.Spark.halt;
+
+/**
+ * Sits in front of an API route and admits requests through an AdaptiveLimiter. Requests that
+ * cannot start before their deadline are shed right away with a 503 and a Retry-After header,
+ * so that under a spike the server keeps serving what it can in time instead of slowing every
+ * request down together. The deadline is the endpoint's maximum queue wait, or sooner if the
+ * client sends an X-Request-Deadline-Ms header with the number of milliseconds it will wait.
+ */
+public class AdmissionController implements Route {
+
+    /** HTTP response for shed requests. */
+    private static final int UNAVAILABLE_RESPONSE = 503;
+
+    /** Status codes at or above this returned through halt count as failures. */
+    private static final int SERVER_ERROR = 500;
+
+    private final String name;
+    private final Route route;
+    private final AdaptiveLimiter limiter;
+    private final long maxQueueWaitNanos;
+
+    /**
+     * @param name The name of the endpoint.
+     * @param route The route to admit requests to.
+     * @param limiter The limiter of the endpoint.
+     * @param maxQueueWaitMillis The longest a request may wait for a permit.
+     */
+    public AdmissionController(String name, Route route, AdaptiveLimiter limiter,
+                               long maxQueueWaitMillis) {
+        this.name = name;
+        this.route = route;
+        this.limiter = limiter;
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+    }
+
+    /**
+     * Wraps the route of the given endpoint, reading its limits from the system properties
+     * bearmaps.admission.NAME.limit, .max_limit and .max_wait_ms.
+     */
+    public static AdmissionController fromSystemProperties(String name, Route route,
+                                                           int defaultLimit, int defaultMaxLimit,
+                                                           long defaultMaxWaitMillis) {
+        String prefix = "bearmaps.admission." + name;
+        int limit = Integer.getInteger(prefix + ".limit", defaultLimit);
+        int maxLimit = Integer.getInteger(prefix + ".max_limit", defaultMaxLimit);
+        long maxWait = Long.getLong(prefix + ".max_wait_ms", defaultMaxWaitMillis);
+        return new AdmissionController(name, route, new AdaptiveLimiter(limit, 1, maxLimit), maxWait);
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        long arrived = System.nanoTime();
+        if (!limiter.acquire(arrived + queueWaitNanos(request))) {
+            response.header("Retry-After", Long.toString(limiter.retryAfterSeconds()));
+            throw halt(UNAVAILABLE_RESPONSE, "Server busy - try again later.");
+        }
+        long started = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Object result = route.handle(request, response);
+            succeeded = true;
+            return result;
+        } catch (HaltException e) {
+            succeeded = e.statusCode() < SERVER_ERROR;
+            throw e;
+        } finally {
+            limiter.release(System.nanoTime() - started, succeeded);
+        }
+    }
+
+    /** Returns how long this request may wait for a permit. */
+    private long queueWaitNanos(Request request) {
+        String header = request.headers("X-Request-Deadline-Ms");
+        if (header != null) {
+            try {
+                long clientWait = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(header.trim()));
+                return Math.max(0, Math.min(clientWait, maxQueueWaitNanos));
+            } catch (NumberFormatException e) {
+                /* Ignore malformed deadlines and use the endpoint's own. */
+            }
+        }
+        return maxQueueWaitNanos;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public AdaptiveLimiter limiter() {
+        return limiter;
+    }
+}
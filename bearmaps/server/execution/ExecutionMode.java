@@ -0,0 +1,26 @@
+package bearmaps.server.execution;
+
+/**
+ * How API handlers are run. Selected with the bearmaps.execution system property.
+ */
+public enum ExecutionMode {
+    /** Handlers run directly on Spark's Jetty threads, as they always have. */
+    JETTY,
+    /** Each route class runs on its own bounded pool of platform threads. */
+    POOLED;
+
+    /**
+     * Returns the mode named by the bearmaps.execution system property, JETTY by default.
+     * Throws an IllegalArgumentException naming the property if it names no mode.
+     */
+    public static ExecutionMode fromSystemProperties() {
+        String mode = System.getProperty("bearmaps.execution", "jetty");
+        for (ExecutionMode m : values()) {
+            if (m.name().equalsIgnoreCase(mode.trim())) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Unknown execution mode \"" + mode
+                + "\" in the bearmaps.execution system property; use jetty or pooled.");
+    }
+}
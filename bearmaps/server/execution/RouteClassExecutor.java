@@ -0,0 +1,138 @@
+package bearmaps.server.execution;
+
+import spark.Route;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spark.Spark.halt;
+
+/**
+ * Bounds the Jetty threads one class of API routes (e.g. every raster request) can hold, so
+ * that a slow class of requests cannot starve the others. At most a fixed number of requests
+ * of the class run at once, on this executor's threads; the rest queue, up to a bound, after
+ * which they are rejected with a 503. The Jetty thread of a request waits for it the whole
+ * time, so a class holds at most concurrency + queue capacity Jetty threads. The time
+ * requests spend queued is recorded.
+ */
+public class RouteClassExecutor {
+
+    /** HTTP response for requests rejected because the queue is full. */
+    private static final int UNAVAILABLE_RESPONSE = 503;
+
+    private final String name;
+    private final ExecutorService executor;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * @param name The name of the route class, used for thread names and metrics.
+     * @param concurrency The maximum number of requests of this class that run at once.
+     * @param queueCapacity The maximum number of requests of this class waiting to run.
+     */
+    public RouteClassExecutor(String name, int concurrency, int queueCapacity) {
+        this.name = name;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, name + "-handler-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Creates an executor for the given route class, reading its limits from the
+     * bearmaps.execution.NAME.concurrency and bearmaps.execution.NAME.queue system properties.
+     */
+    public static RouteClassExecutor fromSystemProperties(String name, int defaultConcurrency,
+                                                          int defaultQueue) {
+        int concurrency = Integer.getInteger("bearmaps.execution." + name + ".concurrency",
+                defaultConcurrency);
+        int queue = Integer.getInteger("bearmaps.execution." + name + ".queue", defaultQueue);
+        return new RouteClassExecutor(name, concurrency, queue);
+    }
+
+    /** Returns a Route that runs the given route on this executor. */
+    public Route wrap(Route route) {
+        return (request, response) -> execute(() -> route.handle(request, response));
+    }
+
+    /**
+     * Runs the task on this executor and waits for its result. Exceptions thrown by the task,
+     * including Spark's halt, are rethrown on the calling thread.
+     */
+    public <T> T execute(Callable<T> task) throws Exception {
+        long submitted = System.nanoTime();
+        Callable<T> timed = () -> {
+            recordQueueTime(System.nanoTime() - submitted);
+            return task.call();
+        };
+        Future<T> future;
+        try {
+            future = executor.submit(timed);
+        } catch (RejectedExecutionException e) {
+            throw reject();
+        }
+        try {
+            T result = future.get();
+            completed.incrementAndGet();
+            return result;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private RuntimeException reject() {
+        rejected.incrementAndGet();
+        return halt(UNAVAILABLE_RESPONSE, "Server busy - " + name + " requests are queued up.");
+    }
+
+    private void recordQueueTime(long nanos) {
+        totalQueueNanos.addAndGet(nanos);
+        maxQueueNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Returns the number of requests of this class that ran and returned normally. */
+    public long completed() {
+        return completed.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /** Returns the total time requests of this class spent queued, in nanoseconds. */
+    public long totalQueueNanos() {
+        return totalQueueNanos.get();
+    }
+
+    /** Returns the longest time a request of this class spent queued, in nanoseconds. */
+    public long maxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+}
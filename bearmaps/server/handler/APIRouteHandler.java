@@ -1,12 +1,24 @@
 package bearmaps.server.handler;
 
+import bearmaps.Router;
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.metrics.LatencyHistogram;
+import bearmaps.utils.metrics.Metrics;
 import com.google.gson.Gson;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.BufferUtil;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
 
 import static spark.Spark.halt;
 
@@ -22,17 +34,52 @@ public abstract class APIRouteHandler<Req, Res> implements Route {
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
 
+    /** Latency of whole requests, labelled by handler. */
+    protected static final String REQUEST_LATENCY = "bearmaps_request_duration_seconds";
+
+    /** Latency of the phases of requests, labelled by handler and phase. */
+    protected static final String PHASE_LATENCY = "bearmaps_request_phase_duration_seconds";
+
     private Gson gson;
 
+    /** The name handlers are labelled with in metrics, their simple class name. */
+    private final String metricsName;
+
+    private final LatencyHistogram requestLatency, parseLatency, processLatency, serializeLatency;
+
     public APIRouteHandler() {
         gson = new Gson();
+        metricsName = getClass().getSimpleName();
+        requestLatency = Metrics.histogram(REQUEST_LATENCY, "handler", metricsName);
+        parseLatency = phaseLatency("parse");
+        processLatency = phaseLatency("process");
+        serializeLatency = phaseLatency("serialize");
     }
 
     @Override
     public Object handle(Request request, Response response) throws Exception {
-        Req requestParams = parseRequestParams(request);
-        Res result = processRequest(requestParams, response);
-        return buildJsonResponse(result);
+        long start = System.nanoTime();
+        try {
+            Req requestParams = parseRequestParams(request);
+            long parsed = System.nanoTime();
+            parseLatency.record(parsed - start);
+            Res result = processRequest(requestParams, response);
+            long processed = System.nanoTime();
+            processLatency.record(processed - parsed);
+            Object body = buildJsonResponse(result);
+            serializeLatency.recordSince(processed);
+            return body;
+        } finally {
+            requestLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the histogram for the given phase of this handler's requests, for handlers
+     * that time phases of their own in addition to parse, process and serialize.
+     */
+    protected LatencyHistogram phaseLatency(String phase) {
+        return Metrics.histogram(PHASE_LATENCY, "handler", metricsName, "phase", phase);
     }
 
     /**
@@ -59,6 +106,81 @@ public abstract class APIRouteHandler<Req, Res> implements Route {
         return gson.toJson(result);
     }
 
+    /** Returns OBJECT as JSON, for handlers whose result is not itself the response body. */
+    protected String toJson(Object object) {
+        return gson.toJson(object);
+    }
+
+    /**
+     * Returns a token for the searches made for REQUEST. It times out after
+     * Router.DEFAULT_TIMEOUT seconds, and is cancelled once the client has closed its
+     * connection, so that no search runs on for a response nobody will read.
+     */
+    protected static CancellationToken cancellationToken(Request request) {
+        HttpChannel channel = channel(request);
+        return new CancellationToken(Router.DEFAULT_TIMEOUT,
+                channel == null ? null : new DisconnectProbe(channel));
+    }
+
+    /** Returns the Jetty channel REQUEST came in on, or null if it was not served by Jetty. */
+    private static HttpChannel channel(Request request) {
+        if (request.raw() == null) {
+            return null;
+        }
+        org.eclipse.jetty.server.Request base =
+                org.eclipse.jetty.server.Request.getBaseRequest(request.raw());
+        return base == null ? null : base.getHttpChannel();
+    }
+
+    /**
+     * Tells whether the client of a request has closed its connection. Jetty only notices
+     * that when it reads from or writes to the connection, which it does neither of while a
+     * handler runs, so each probe tries a non-blocking read of one byte itself: end of input
+     * or a reset means the client is gone, and nothing to read means it is still waiting.
+     * A byte read is the start of a pipelined request, which can't be put back, so probing
+     * stops there and the response asks the client to close the connection, after which it
+     * sends that request again. Probing also stops once the response is committed or the
+     * connection has moved on to another request, whose bytes are Jetty's to read.
+     */
+    private static class DisconnectProbe implements BooleanSupplier {
+        private final HttpChannel channel;
+        private final long request;
+        private final ByteBuffer buffer = BufferUtil.allocate(1);
+        private boolean gone;
+        private boolean probing = true;
+
+        DisconnectProbe(HttpChannel channel) {
+            this.channel = channel;
+            this.request = channel.getRequests();
+        }
+
+        @Override
+        public synchronized boolean getAsBoolean() {
+            if (gone || !probing) {
+                return gone;
+            }
+            if (channel.isCommitted() || channel.getRequests() != request) {
+                probing = false;
+                return false;
+            }
+            EndPoint endPoint = channel.getEndPoint();
+            try {
+                BufferUtil.clear(buffer);
+                int read = endPoint.fill(buffer);
+                if (read < 0) {
+                    gone = true;
+                } else if (read > 0) {
+                    probing = false;
+                    channel.getResponse().setHeader(HttpHeader.CONNECTION,
+                            HttpHeaderValue.CLOSE.asString());
+                }
+            } catch (IOException e) {
+                gone = true;
+            }
+            return gone;
+        }
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
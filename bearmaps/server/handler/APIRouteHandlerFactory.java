@@ -1,5 +1,8 @@
 package bearmaps.server.handler;
 
+import bearmaps.server.admission.AdmissionController;
+import bearmaps.server.execution.ExecutionMode;
+import bearmaps.server.execution.RouteClassExecutor;
 import bearmaps.server.handler.impl.*;
 
 import java.util.HashMap;
@@ -16,14 +19,60 @@ public class APIRouteHandlerFactory {
 
     public static final Map<String, APIRouteHandler> handlerMap;
 
+    /**
+     * The class each expensive path belongs to. Paths of the same class share an executor
+     * when the server does not run handlers on the Jetty threads; other paths always do.
+     */
+    public static final Map<String, String> routeClasses;
+
+    /**
+     * The executor of each route class, filled in by startRouteClassExecutors when the server
+     * starts and left empty when handlers run on the Jetty threads.
+     */
+    public static final Map<String, RouteClassExecutor> routeClassExecutors = new HashMap<>();
+
+    /**
+     * The admission controller in front of each path, filled in when the server starts unless
+     * the bearmaps.admission system property is false.
+     */
+    public static final Map<String, AdmissionController> admissionControllers = new HashMap<>();
+
     static {
         handlerMap = new HashMap<>();
         handlerMap.put("raster", new RasterAPIHandler());
         handlerMap.put("route", new RoutingAPIHandler());
+        handlerMap.put("alternatives", new AlternativesAPIHandler());
+        handlerMap.put("optimize", new OptimizeAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
         handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("vector_tile", new VectorTileAPIHandler());
+        handlerMap.put("route_export", new RouteExportAPIHandler());
+        handlerMap.put("metrics", new MetricsAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
+
+        routeClasses = new HashMap<>();
+        routeClasses.put("raster", "raster");
+        routeClasses.put("vector_tile", "raster");
+        routeClasses.put("route", "route");
+        routeClasses.put("alternatives", "route");
+        routeClasses.put("optimize", "route");
+        routeClasses.put("route_export", "route");
+        routeClasses.put("search", "search");
     }
 
+    /**
+     * Starts an executor for each route class unless the bearmaps.execution system property
+     * says to run handlers on the Jetty threads. Called when the server starts rather than
+     * when this class is loaded, so that a mistyped mode fails with its own message.
+     */
+    public static void startRouteClassExecutors() {
+        if (ExecutionMode.fromSystemProperties() == ExecutionMode.JETTY) {
+            return;
+        }
+        routeClassExecutors.put("raster", RouteClassExecutor.fromSystemProperties("raster", 4, 32));
+        routeClassExecutors.put("route", RouteClassExecutor.fromSystemProperties("route", 4, 32));
+        routeClassExecutors.put("search",
+                RouteClassExecutor.fromSystemProperties("search", 16, 256));
+    }
 
 }
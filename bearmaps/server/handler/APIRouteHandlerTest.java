@@ -0,0 +1,112 @@
+package bearmaps.server.handler;
+
+import bearmaps.utils.graph.CancellationToken;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import spark.Request;
+import spark.Response;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
+import static spark.Spark.get;
+import static spark.Spark.port;
+import static spark.Spark.stop;
+
+/**
+ * Checks against a real Jetty that the cancellation token of a request trips once its client
+ * disconnects, and only then.
+ */
+public class APIRouteHandlerTest {
+
+    private static final String REQUEST = "GET /spin?millis=%d HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    /** Whether each request's token was cancelled by the time its handler stopped waiting. */
+    private static final BlockingQueue<Boolean> CANCELLED = new LinkedBlockingQueue<>();
+
+    /** Waits up to millis milliseconds for its token to be cancelled, as a search would. */
+    private static class SpinHandler extends APIRouteHandler<Request, Boolean> {
+        @Override
+        protected Request parseRequestParams(Request request) {
+            return request;
+        }
+
+        @Override
+        protected Boolean processRequest(Request request, Response response) {
+            CancellationToken token = cancellationToken(request);
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(request.queryParams("millis")));
+            while (!token.isCancelled() && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            CANCELLED.add(token.isCancelled());
+            return token.isCancelled();
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() {
+        port(0);
+        get("/spin", new SpinHandler());
+        awaitInitialization();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        stop();
+        awaitStop();
+    }
+
+    @Test
+    public void testDisconnectCancels() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", port())) {
+            socket.getOutputStream().write(request(10000));
+            Thread.sleep(200);
+        }
+        Boolean cancelled = CANCELLED.poll(10, TimeUnit.SECONDS);
+        assertEquals(Boolean.TRUE, cancelled);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testWaitingClientIsNotCancelled() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", port())) {
+            socket.getOutputStream().write(request(500));
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            assertEquals(Boolean.FALSE, CANCELLED.poll(10, TimeUnit.SECONDS));
+
+            /* The connection still serves the next request. */
+            socket.getOutputStream().write(request(100));
+            String line = in.readLine();
+            while (line != null && !line.startsWith("HTTP/1.1")) {
+                line = in.readLine();
+            }
+            assertEquals("HTTP/1.1 200 OK", line);
+            assertFalse(CANCELLED.poll(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static byte[] request(long millis) {
+        return String.format(REQUEST, millis).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,119 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.CancellationToken;
+import spark.Request;
+import spark.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for a few different routes between two locations, so the user can pick
+ * one. Each route is stored in Constants.ROUTE_STORE under a token of its own, to be drawn
+ * by raster requests like the route of a route request.
+ */
+public class AlternativesAPIHandler extends APIRouteHandler<AlternativesAPIHandler.AlternativesQuery, Map<String, Object>> {
+
+    /**
+     * Each alternatives request to the server will have the same parameters as a route
+     * request, plus an optional k, the most routes to return (DEFAULT_ROUTES if absent, at
+     * most MAX_ROUTES). Turn restrictions are not supported, and the route_token parameter
+     * is ignored.
+     **/
+    private static final String[] REQUIRED_ALTERNATIVES_REQUEST_PARAMS = {"start_lat",
+            "start_lon", "end_lat", "end_lon"};
+
+    private static final int DEFAULT_ROUTES = 3;
+    private static final int MAX_ROUTES = 5;
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    @Override
+    protected AlternativesQuery parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request,
+                REQUIRED_ALTERNATIVES_REQUEST_PARAMS);
+        double k = DEFAULT_ROUTES;
+        String routes = request.queryParams("k");
+        if (routes != null) {
+            try {
+                k = Double.parseDouble(routes);
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        if (k < 1 || k > MAX_ROUTES) {
+            halt(HALT_RESPONSE, "k must be between 1 and " + MAX_ROUTES + ".");
+        }
+        params.put("k", Math.floor(k));
+        RouteOptions options = RoutingAPIHandler.parseRouteOptions(request);
+        if (options.turnRestrictions()) {
+            halt(HALT_RESPONSE, "Alternatives do not support turn restrictions.");
+        }
+        return new AlternativesQuery(params, options, cancellationToken(request));
+    }
+
+    /**
+     * Finds up to k routes between the requested locations, the best first.
+     * @param requestParams The start and end locations and k, the route options and the
+     *                      request's cancellation token.
+     * @param response Not used.
+     * @return A map of results for the front end: <br>
+     * "routing_success" : Boolean, whether any route was found.<br>
+     * "routes" : A list with a map for each route, holding its "route_token" for raster
+     *            requests, its "distance" in miles, and its "directions" in HTML format.
+     */
+    @Override
+    protected Map<String, Object> processRequest(AlternativesQuery requestParams,
+                                                 Response response) {
+        Map<String, Double> params = requestParams.params;
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        long[] ends = graph.snapRoute(params.get("start_lon"), params.get("start_lat"),
+                params.get("end_lon"), params.get("end_lat"));
+        List<List<Long>> routes = Router.alternatives(graph, ends[0], ends[1],
+                params.get("k").intValue(), requestParams.options, requestParams.cancellation);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (List<Long> route : routes) {
+            String routeToken = ROUTE_STORE.newToken();
+            ROUTE_STORE.put(routeToken, route);
+            double distance = 0;
+            for (int i = 1; i < route.size(); i++) {
+                distance += graph.edge(route.get(i - 1), route.get(i)).weight();
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("route_token", routeToken);
+            result.put("distance", distance);
+            result.put("directions", RoutingAPIHandler.getDirectionsText(graph, route));
+            results.add(result);
+        }
+        Map<String, Object> routeParams = new HashMap<>();
+        routeParams.put("routing_success", !results.isEmpty());
+        routeParams.put("routes", results);
+        return routeParams;
+    }
+
+    /** The parameters of an alternatives request. */
+    static class AlternativesQuery {
+        private final Map<String, Double> params;
+        private final RouteOptions options;
+        private final CancellationToken cancellation;
+
+        AlternativesQuery(Map<String, Double> params, RouteOptions options,
+                          CancellationToken cancellation) {
+            this.params = params;
+            this.options = options;
+            this.cancellation = cancellation;
+        }
+    }
+}
@@ -4,24 +4,25 @@ import bearmaps.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
 
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_STORE;
 
 
 /**
- * Handles the "Clear Route" button in Bearmaps.
+ * Handles the "Clear Route" button in Bearmaps. Clears the route stored under the
+ * request's route_token.
  * Created by rahul
  */
-public class ClearRouteAPIHandler extends APIRouteHandler {
+public class ClearRouteAPIHandler extends APIRouteHandler<String, Object> {
 
 
     @Override
-    protected Object parseRequestParams(Request request) {
-        return null;
+    protected String parseRequestParams(Request request) {
+        return request.queryParams("route_token");
     }
 
     @Override
-    protected Object processRequest(Object requestParams, Response response) {
-        ROUTE_LIST.clear();
+    protected Object processRequest(String routeToken, Response response) {
+        ROUTE_STORE.clear(routeToken);
         return true;
     }
 }
@@ -0,0 +1,33 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.metrics.Metrics;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Exposes every metric in the Metrics registry in the Prometheus text format, for scraping.
+ */
+public class MetricsAPIHandler extends APIRouteHandler<Object, String> {
+
+    /** Content type of version 0.0.4 of the Prometheus text format. */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    protected Object parseRequestParams(Request request) {
+        return null;
+    }
+
+    @Override
+    protected String processRequest(Object requestParams, Response response) {
+        if (response != null) {
+            response.type(CONTENT_TYPE);
+        }
+        return Metrics.prometheusText();
+    }
+
+    @Override
+    protected Object buildJsonResponse(String result) {
+        return result;
+    }
+}
@@ -0,0 +1,167 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
+import bearmaps.TourOptimizer;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CostMatrix;
+import spark.Request;
+import spark.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the best order to visit a list of stops in, such as a courier's
+ * deliveries, and the route that visits them in that order. The costs between all stops are
+ * found with one search per stop, the order by TourOptimizer, and the route is joined from
+ * the legs the searches found. The route is stored in Constants.ROUTE_STORE to be drawn
+ * like the route of a route request.
+ */
+public class OptimizeAPIHandler extends APIRouteHandler<OptimizeAPIHandler.OptimizeQuery, Map<String, Object>> {
+
+    /**
+     * Each optimize request to the server will have a stops parameter, the stops'
+     * coordinates as lat,lon pairs separated by semicolons, starting with the stop the route
+     * starts at. A request may also have round_trip=true to return to the first stop at the
+     * end, budget_ms for how long to spend on the order (DEFAULT_BUDGET_MILLIS if absent, at
+     * most MAX_BUDGET_MILLIS), and the profile and depart_hour of a route request.
+     **/
+    private static final int MIN_STOPS = 2;
+    private static final int MAX_STOPS = 200;
+    private static final long DEFAULT_BUDGET_MILLIS = 1000;
+    private static final long MAX_BUDGET_MILLIS = 10000;
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** HTTP response for requests whose searches gave up. */
+    private static final int UNAVAILABLE_RESPONSE = 503;
+
+    @Override
+    protected OptimizeQuery parseRequestParams(Request request) {
+        String stops = request.queryParams("stops");
+        if (stops == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = stops.split(";");
+        if (pairs.length < MIN_STOPS || pairs.length > MAX_STOPS) {
+            halt(HALT_RESPONSE, "Provide between " + MIN_STOPS + " and " + MAX_STOPS
+                    + " stops.");
+        }
+        double[] lats = new double[pairs.length];
+        double[] lons = new double[pairs.length];
+        long budget = DEFAULT_BUDGET_MILLIS;
+        try {
+            for (int i = 0; i < pairs.length; i++) {
+                String[] latLon = pairs[i].split(",");
+                if (latLon.length != 2) {
+                    halt(HALT_RESPONSE, "Stops must be lat,lon pairs.");
+                }
+                lats[i] = Double.parseDouble(latLon[0]);
+                lons[i] = Double.parseDouble(latLon[1]);
+            }
+            String budgetMillis = request.queryParams("budget_ms");
+            if (budgetMillis != null) {
+                budget = (long) Double.parseDouble(budgetMillis);
+            }
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        if (budget < 0 || budget > MAX_BUDGET_MILLIS) {
+            halt(HALT_RESPONSE, "budget_ms must be between 0 and " + MAX_BUDGET_MILLIS + ".");
+        }
+        RouteOptions options = RoutingAPIHandler.parseRouteOptions(request);
+        if (options.turnRestrictions()) {
+            halt(HALT_RESPONSE, "Optimized routes do not support turn restrictions.");
+        }
+        return new OptimizeQuery(lats, lons, "true".equals(request.queryParams("round_trip")),
+                budget, options, cancellationToken(request));
+    }
+
+    /**
+     * Orders the requested stops and finds the route through them.
+     * @param requestParams The stops, whether to return to the first, the time budget, the
+     *                      route options and the request's cancellation token.
+     * @param response Not used.
+     * @return A map of results for the front end: <br>
+     * "routing_success" : Boolean, whether every stop could be reached.<br>
+     * "order" : The stops' positions in the request, in the order to visit them.<br>
+     * "distance" : The length of the route in miles.<br>
+     * "route_token" : String. The token the route is stored under, to be sent with later
+     *                 raster and clear route requests.
+     */
+    @Override
+    protected Map<String, Object> processRequest(OptimizeQuery requestParams, Response response) {
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        long[] stops = new long[requestParams.lats.length];
+        boolean connected = true;
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = graph.closest(requestParams.lons[i], requestParams.lats[i]);
+            connected = connected && graph.connected(stops[0], stops[i]);
+        }
+        /* Like the ends of a route, stops that cannot reach each other are moved into the
+           largest component; see AugmentedStreetMapGraph.snapRoute. */
+        for (int i = 0; i < stops.length && !connected; i++) {
+            if (!graph.inLargestComponent(stops[i])) {
+                stops[i] = graph.closestInLargestComponent(requestParams.lons[i],
+                        requestParams.lats[i]);
+            }
+        }
+        RouteOptions options = requestParams.options;
+        CostMatrix matrix = new CostMatrix(graph, stops, options.profile(), options.hour(),
+                TourOptimizer.MATRIX_EXECUTOR, TourOptimizer.THREADS, requestParams.cancellation);
+        if (matrix.outcome() != SolverOutcome.SOLVED) {
+            halt(UNAVAILABLE_RESPONSE, "Could not find the costs between the stops in time.");
+        }
+        int[] order = TourOptimizer.optimize(matrix.costs(), requestParams.roundTrip,
+                requestParams.budgetMillis, requestParams.cancellation);
+        List<Long> route = matrix.route(order, requestParams.roundTrip);
+
+        double distance = 0;
+        for (int i = 1; i < route.size(); i++) {
+            distance += graph.edge(route.get(i - 1), route.get(i)).weight();
+        }
+        List<Integer> visits = new ArrayList<>();
+        for (int stop : order) {
+            visits.add(stop);
+        }
+        String routeToken = ROUTE_STORE.newToken();
+        ROUTE_STORE.put(routeToken, route);
+
+        Map<String, Object> routeParams = new HashMap<>();
+        routeParams.put("routing_success", !route.isEmpty());
+        routeParams.put("order", visits);
+        routeParams.put("distance", distance);
+        routeParams.put("route_token", routeToken);
+        return routeParams;
+    }
+
+    /** The parameters of an optimize request. */
+    static class OptimizeQuery {
+        private final double[] lats;
+        private final double[] lons;
+        private final boolean roundTrip;
+        private final long budgetMillis;
+        private final RouteOptions options;
+        private final CancellationToken cancellation;
+
+        OptimizeQuery(double[] lats, double[] lons, boolean roundTrip, long budgetMillis,
+                      RouteOptions options, CancellationToken cancellation) {
+            this.lats = lats;
+            this.lons = lons;
+            this.roundTrip = roundTrip;
+            this.budgetMillis = budgetMillis;
+            this.options = options;
+            this.cancellation = cancellation;
+        }
+    }
+}
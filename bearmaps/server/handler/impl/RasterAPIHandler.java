@@ -2,6 +2,13 @@ package bearmaps.server.handler.impl;
 
 import bearmaps.AugmentedStreetMapGraph;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.PolylineSimplifier;
+import bearmaps.utils.Tuple;
+import bearmaps.utils.jfr.RasterComposeEvent;
+import bearmaps.utils.metrics.LatencyHistogram;
+import bearmaps.utils.metrics.Metrics;
+import bearmaps.utils.raster.TileCache;
+import bearmaps.utils.raster.TilePrefetcher;
 import spark.Request;
 import spark.Response;
 import bearmaps.utils.Constants;
@@ -10,10 +17,12 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,7 +33,8 @@ import static bearmaps.utils.Constants.*;
  * will be rastered into one large image to be displayed to the user.
  * @author rahul, Josh Hug, _________
  */
-public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+public class RasterAPIHandler
+        extends APIRouteHandler<Tuple<Map<String, Double>, String>, RasterAPIHandler.RasterResult> {
 
     /**
      * Each raster request to the server will have the following parameters
@@ -46,9 +56,101 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
     private static final double[] LON_DPP_BY_DEPTH = {3.4332275390625E-4, 1.71661376953125E-4, 8.58306884765625E-5, 4.291534423828125E-5, 2.1457672119140625E-5, 1.0728836059570312E-5, 5.364418029785156E-6, 2.682209014892578E-6};
 
+    /**
+     * Optional raster request parameter. When true, the route is not drawn into the image;
+     * instead the result carries "route_polyline", a list of [lon, lat] pairs simplified for
+     * the raster depth, which the front end draws on top of the untouched tiles.
+     */
+    private static final String VECTOR_ROUTE_PARAM = "vector_route";
+
+    /** Optional raster request parameter, the route token of the user's current route. */
+    private static final String ROUTE_TOKEN_PARAM = "route_token";
+
+    /** Points closer than this many pixels to the simplified route line are dropped. */
+    private static final double ROUTE_SIMPLIFY_TOLERANCE_PX = 1.0;
+
+    /** Maximum number of encoded rasters without a route drawn on them that are kept. */
+    private static final int RASTER_CACHE_SIZE = 64;
+
+    /** The deepest depth that tiles exist for. */
+    private static final int MAX_DEPTH = 7;
+
+    /** Maximum number of decoded tiles that are kept in memory. */
+    private static final int TILE_CACHE_SIZE = 512;
+
+    /** Number of background threads and queued jobs used to prefetch tiles. */
+    private static final int PREFETCH_THREADS = 2, PREFETCH_QUEUE_SIZE = 4;
+
+    private final TileCache tileCache = new TileCache(Constants.IMG_ROOT, TILE_CACHE_SIZE);
+
+    /** Loads the tiles around each raster in the background; null if prefetching is off. */
+    private final TilePrefetcher prefetcher;
+
+    /**
+     * Base64 encoded rasters keyed by their render grid. Only rasters with no route drawn on
+     * them are cached, since those are the same for every user.
+     */
+    private final Map<String, String> encodedRasterCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > RASTER_CACHE_SIZE;
+                }
+            });
+
+    /** Time spent drawing tiles and routes into rasters, and encoding them as PNG. */
+    private final LatencyHistogram composeLatency = phaseLatency("image_compose");
+    private final LatencyHistogram encodeLatency = phaseLatency("image_encode");
+
+    public RasterAPIHandler() {
+        this(true);
+    }
+
+    /**
+     * @param prefetch Whether to load the tiles around each raster in the background. Turned
+     *                 off where only the planning of rasters matters, such as in benchmarks.
+     */
+    public RasterAPIHandler(boolean prefetch) {
+        prefetcher = prefetch ? new TilePrefetcher(tileCache, MAX_DEPTH,
+                PREFETCH_THREADS, PREFETCH_QUEUE_SIZE) : null;
+        Metrics.counter("bearmaps_tile_cache_hits_total", tileCache::hits);
+        Metrics.counter("bearmaps_tile_cache_misses_total", tileCache::misses);
+    }
+
+    @Override
+    protected Tuple<Map<String, Double>, String> parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_RASTER_REQUEST_PARAMS);
+        if (Boolean.parseBoolean(request.queryParams(VECTOR_ROUTE_PARAM))) {
+            params.put(VECTOR_ROUTE_PARAM, 1.0);
+        }
+        return new Tuple<>(params, request.queryParams(ROUTE_TOKEN_PARAM));
+    }
+
+    /**
+     * Finds the grid of images for the query box as processRequest(Map, Response) does, then
+     * attaches the route stored under the request's route token, if any. The route is either
+     * returned as a polyline (vector_route=true) or drawn into the image.
+     * @param requestParams The query parameters and the route token of the request.
+     * @param response : Not used by this function. You may ignore.
+     * @return The raster results, as specified in processRequest(Map, Response), and the
+     *         route to draw into the image, if any.
+     */
     @Override
-    protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_RASTER_REQUEST_PARAMS);
+    protected RasterResult processRequest(Tuple<Map<String, Double>, String> requestParams,
+                                          Response response) {
+        Map<String, Double> params = requestParams.getFirst();
+        Map<String, Object> results = processRequest(params, response);
+        if (!(boolean) results.get("query_success")) {
+            return new RasterResult(results, null);
+        }
+        List<Long> route = ROUTE_STORE.get(requestParams.getSecond());
+        if (params.getOrDefault(VECTOR_ROUTE_PARAM, 0.0) != 0) {
+            results.put(VECTOR_ROUTE_PARAM, true);
+            results.put("route_polyline", routePolyline(SEMANTIC_STREET_GRAPH, route,
+                    (int) results.get("depth")));
+            return new RasterResult(results, null);
+        }
+        return new RasterResult(results, route.isEmpty() ? null : route);
     }
 
     /**
@@ -82,10 +184,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * "query_success" : Boolean, whether the query was able to successfully complete; don't
      *                    forget to set this to true on success! <br>
      */
-    @Override
     public Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        System.out.println("yo, wanna know the parameters given by the web browser? They are:");
-        System.out.println(requestParams);
         Map<String, Object> results = new HashMap<>();
         double ullat = requestParams.get("ullat");
         double ullon = requestParams.get("ullon");
@@ -119,7 +218,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         String[][] render_grid = new String[raster_height][raster_width];
         for (int i = 0; i < raster_height; i++) {
             for (int j = 0; j < raster_width; j++) {
-                render_grid[i][j] = "d" + level + "_x" + (j + raster_ullon_index) + "_y" + (i + raster_ullat_index) + ".png";
+                render_grid[i][j] = TileCache.tileName(level, j + raster_ullon_index, i + raster_ullat_index);
             }
         }
         results.put("render_grid", render_grid);
@@ -128,10 +227,53 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         results.put("raster_lr_lon", getLonTileBounds(level, raster_lrlon_index).get("lrlon"));
         results.put("raster_lr_lat", getLatTileBounds(level, raster_lrlat_index).get("lrlat"));
         results.put("depth", level);
+        if (prefetcher != null) {
+            prefetcher.prefetch(level, raster_ullon_index, raster_ullat_index,
+                    raster_lrlon_index, raster_lrlat_index);
+        }
 
         return results;
     }
 
+    /**
+     * Returns the route as a list of [lon, lat] pairs, simplified with Douglas-Peucker in the
+     * pixel space of the given depth so that the client draws no more points than are visible.
+     * @param graph The graph the route's vertices belong to.
+     * @param route The route as a list of vertex ids.
+     * @param level The depth of the raster the route will be drawn over.
+     * @return The simplified polyline, or an empty list if there is no route.
+     */
+    public List<double[]> routePolyline(AugmentedStreetMapGraph graph, List<Long> route, int level) {
+        List<double[]> polyline = new ArrayList<>();
+        if (graph == null || route == null || route.isEmpty()) {
+            return polyline;
+        }
+        List<Long> vertices = new ArrayList<>();
+        for (long v : route) {
+            /* Routes found on an older graph may pass vertices that have since been removed. */
+            if (graph.contains(v)) {
+                vertices.add(v);
+            }
+        }
+        double lonDPP = LON_DPP_BY_DEPTH[level];
+        double latDPP = (ROOT_ULLAT - ROOT_LRLAT) / TILE_SIZE / Math.pow(2, level);
+        double[] lons = new double[vertices.size()];
+        double[] lats = new double[vertices.size()];
+        double[] xs = new double[vertices.size()];
+        double[] ys = new double[vertices.size()];
+        for (int i = 0; i < vertices.size(); i++) {
+            long v = vertices.get(i);
+            lons[i] = graph.lon(v);
+            lats[i] = graph.lat(v);
+            xs[i] = (lons[i] - ROOT_ULLON) / lonDPP;
+            ys[i] = (ROOT_ULLAT - lats[i]) / latDPP;
+        }
+        for (int i : PolylineSimplifier.simplify(xs, ys, ROUTE_SIMPLIFY_TOLERANCE_PX)) {
+            polyline.add(new double[]{lons[i], lats[i]});
+        }
+        return polyline;
+    }
+
     public boolean outOfBounds(int c1, int c2) {
         return (c1 == -1 && c2 == -1) || (c1 == 1 && c2 == 1);
     }
@@ -206,16 +348,39 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
     @Override
-    protected Object buildJsonResponse(Map<String, Object> result) {
+    protected Object buildJsonResponse(RasterResult rasterResult) {
+        Map<String, Object> result = rasterResult.results;
         boolean rasterSuccess = validateRasteredImgParams(result);
 
         if (rasterSuccess) {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writeImagesToOutputStream(result, os);
-            String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+            String[][] renderGrid = (String[][]) result.get("render_grid");
+            List<Long> route = rasterResult.route;
+            boolean drawRoute = route != null;
+            String key = renderGrid[0][0] + ":" + renderGrid[renderGrid.length - 1][renderGrid[0].length - 1];
+            RasterComposeEvent event = new RasterComposeEvent();
+            event.begin();
+            String encodedImage = drawRoute ? null : encodedRasterCache.get(key);
+            event.rasterCached = encodedImage != null;
+            if (encodedImage == null) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                writeImagesToOutputStream(result, os, route, event);
+                encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+                if (!drawRoute) {
+                    encodedRasterCache.put(key, encodedImage);
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.depth = (int) result.get("depth");
+                event.tileCount = renderGrid.length * renderGrid[0].length;
+                event.routeDrawn = drawRoute;
+                event.commit();
+            }
+            result.put("raster_width", renderGrid[0].length * Constants.TILE_SIZE);
+            result.put("raster_height", renderGrid.length * Constants.TILE_SIZE);
             result.put("b64_encoded_image_data", encodedImage);
         }
-        return super.buildJsonResponse(result);
+        return toJson(result);
     }
 
     private Map<String, Object> queryFail() {
@@ -255,9 +420,13 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we made this into provided code since it was just a bit too low level.
+     * The given route, if any, is drawn on top. Tile cache hits and the encode time are
+     * recorded in the given event.
      */
     private  void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+                                                  ByteArrayOutputStream os, List<Long> route,
+                                                  RasterComposeEvent event) {
+        long start = System.nanoTime();
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -269,7 +438,10 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(Constants.IMG_ROOT + renderGrid[r][c]), x, y, null);
+                if (tileCache.contains(renderGrid[r][c])) {
+                    event.cacheHits += 1;
+                }
+                graphic.drawImage(tileCache.get(renderGrid[r][c]), x, y, null);
                 x += Constants.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -287,14 +459,13 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
         AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
-        List<Long> route = ROUTE_LIST;
 
         if (route != null && !route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(Constants.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(Constants.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
+            route.stream().filter(graph::contains).reduce((v, w) -> {
                 g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
                         (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
                         (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
@@ -303,27 +474,26 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
             });
         }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
-
+        long composed = System.nanoTime();
+        composeLatency.record(composed - start);
         try {
             ImageIO.write(img, "png", os);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        event.encodeTime = System.nanoTime() - composed;
+        encodeLatency.record(event.encodeTime);
 
     }
 
-    private BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
+    /** The results of a raster request, and the route to draw into its image, if any. */
+    static class RasterResult {
+        private final Map<String, Object> results;
+        private final List<Long> route;
+
+        RasterResult(Map<String, Object> results, List<Long> route) {
+            this.results = results;
+            this.route = route;
         }
-        return tileImg;
     }
 }
@@ -0,0 +1,162 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.CancellationToken;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ROUTE_COALESCER;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests to export the route between two locations as GeoJSON or GPX. The route is
+ * written straight to the response node by node, without building a JSON tree first, and the
+ * response is flushed periodically so that it goes out chunked while it is being written. The
+ * search stops once the client has gone, and so does the writing.
+ */
+public class RouteExportAPIHandler extends APIRouteHandler<RouteExportAPIHandler.ExportQuery, Boolean> {
+
+    /**
+     * Each export request to the server will have the same parameters as a route request,
+     * plus an optional format, which is either "geojson" (the default) or "gpx".
+     **/
+    private static final String[] REQUIRED_EXPORT_REQUEST_PARAMS = {"start_lat", "start_lon",
+            "end_lat", "end_lon"};
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** The response is flushed every time this many points have been written. */
+    private static final int FLUSH_INTERVAL = 512;
+
+    @Override
+    protected ExportQuery parseRequestParams(Request request) {
+        String format = request.queryParams("format");
+        if (format == null) {
+            format = "geojson";
+        }
+        if (!format.equals("geojson") && !format.equals("gpx")) {
+            halt(HALT_RESPONSE, "Unknown export format - use geojson or gpx.");
+        }
+        return new ExportQuery(getRequestParams(request, REQUIRED_EXPORT_REQUEST_PARAMS), format,
+                cancellationToken(request));
+    }
+
+    /**
+     * Finds the route between the requested locations and writes it to the response.
+     * Nothing is written if the client went away during the search.
+     * @param requestParams The start and end locations, the export format and the request's
+     *                      cancellation token.
+     * @param response The response the route is written to.
+     * @return Whether a route was found and written.
+     */
+    @Override
+    protected Boolean processRequest(ExportQuery requestParams, Response response) {
+        Map<String, Double> params = requestParams.params;
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        List<Long> route = ROUTE_COALESCER.shortestPath(graph,
+                params.get("start_lon"), params.get("start_lat"),
+                params.get("end_lon"), params.get("end_lat"),
+                RouteOptions.SHORTEST, requestParams.cancellation);
+        if (requestParams.cancellation.isCancelled()) {
+            return false;
+        }
+
+        HttpServletResponse raw = response.raw();
+        boolean written;
+        try {
+            if (requestParams.format.equals("gpx")) {
+                raw.setContentType("application/gpx+xml");
+                raw.setCharacterEncoding("UTF-8");
+                written = writeGpx(graph, route, raw.getWriter());
+            } else {
+                raw.setContentType("application/geo+json");
+                raw.setCharacterEncoding("UTF-8");
+                written = writeGeoJson(graph, route, raw.getWriter());
+            }
+            /* Commit the response so that Spark does not try to write a body of its own. */
+            raw.flushBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return written && !route.isEmpty();
+    }
+
+    /**
+     * Writes the route as a GeoJSON Feature with a LineString geometry. Returns false if
+     * writing failed, which PrintWriter does not throw for, because the client went away.
+     */
+    private boolean writeGeoJson(AugmentedStreetMapGraph graph, List<Long> route, PrintWriter out) {
+        out.write("{\"type\":\"Feature\",\"properties\":{\"nodes\":");
+        out.print(route.size());
+        out.write("},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        int written = 0;
+        for (long v : route) {
+            if (written > 0) {
+                out.write(',');
+            }
+            out.write('[');
+            out.print(graph.lon(v));
+            out.write(',');
+            out.print(graph.lat(v));
+            out.write(']');
+            written += 1;
+            /* checkError flushes, and reports whether any write so far failed. */
+            if (written % FLUSH_INTERVAL == 0 && out.checkError()) {
+                return false;
+            }
+        }
+        out.write("]}}");
+        return !out.checkError();
+    }
+
+    /** Writes the route as a GPX 1.1 track with a single segment, like writeGeoJson. */
+    private boolean writeGpx(AugmentedStreetMapGraph graph, List<Long> route, PrintWriter out) {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<gpx version=\"1.1\" creator=\"bearmaps\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        out.write("<trk><name>Route</name><trkseg>\n");
+        int written = 0;
+        for (long v : route) {
+            out.write("<trkpt lat=\"");
+            out.print(graph.lat(v));
+            out.write("\" lon=\"");
+            out.print(graph.lon(v));
+            out.write("\"/>\n");
+            written += 1;
+            if (written % FLUSH_INTERVAL == 0 && out.checkError()) {
+                return false;
+            }
+        }
+        out.write("</trkseg></trk>\n</gpx>\n");
+        return !out.checkError();
+    }
+
+    /** The route has already been written to the response, so there is nothing left to add. */
+    @Override
+    protected Object buildJsonResponse(Boolean result) {
+        return "";
+    }
+
+    /** The parameters of an export request. */
+    static class ExportQuery {
+        private final Map<String, Double> params;
+        private final String format;
+        private final CancellationToken cancellation;
+
+        ExportQuery(Map<String, Double> params, String format, CancellationToken cancellation) {
+            this.params = params;
+            this.format = format;
+            this.cancellation = cancellation;
+        }
+    }
+}
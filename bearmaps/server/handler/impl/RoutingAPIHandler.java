@@ -1,36 +1,81 @@
 package bearmaps.server.handler.impl;
 
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
 import bearmaps.Router;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.streetmap.SpeedProfile;
 import spark.Request;
 import spark.Response;
 
+import java.time.LocalTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_COALESCER;
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static spark.Spark.halt;
 
 /**
  * Handles requests from the web browser for routes between locations. The
  * route will be returned as image data, as well as (optionally) driving directions. *
  * Created by rahul
  */
-public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+public class RoutingAPIHandler extends APIRouteHandler<RoutingAPIHandler.RouteQuery, Map<String, Object>> {
 
     /**
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
      * start_lat : start point latitude,<br> start_lon : start point longitude,<br>
      * end_lat : end point latitude, <br>end_lon : end point longitude.
+     * A request may also carry the route_token handed out by an earlier route request, in
+     * which case the new route replaces the one stored under that token if it is still
+     * stored; any other token is ignored and the route is stored under a new one.
+     * A request may also name a speed profile, such as car or bicycle, to get the fastest
+     * route instead of the shortest, and the hour of the day it leaves at (depart_hour, 0 to
+     * 23, the current hour by default) for profiles whose speeds change during the day. With
+     * turn_restrictions=true the route obeys oneway tags and turn restrictions.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
 
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
     @Override
-    protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+    protected RouteQuery parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        return new RouteQuery(params, request.queryParams("route_token"),
+                parseRouteOptions(request), cancellationToken(request));
+    }
+
+    /**
+     * Reads the profile, depart_hour and turn_restrictions parameters of REQUEST, shared by
+     * every request that finds routes.
+     */
+    static RouteOptions parseRouteOptions(Request request) {
+        SpeedProfile profile = null;
+        String profileName = request.queryParams("profile");
+        if (profileName != null && !profileName.isEmpty()) {
+            profile = SpeedProfile.named(profileName);
+            if (profile == null) {
+                halt(HALT_RESPONSE, "Unknown speed profile " + profileName + ".");
+            }
+        }
+        int hour = LocalTime.now().getHour();
+        String departHour = request.queryParams("depart_hour");
+        if (departHour != null) {
+            try {
+                hour = (int) Math.floor(Double.parseDouble(departHour));
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        boolean turnRestrictions = "true".equals(request.queryParams("turn_restrictions"));
+        return new RouteOptions(profile, hour, turnRestrictions);
     }
 
     /**
@@ -38,15 +83,15 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * street directions between the given points. THis method has been
      * completed for you.
      *
-     * The route to draw on the map should be added to the end of
-     * Constants.ROUTE_LIST. This is a LinkedList of longs,
-     * where each long corresponds to one point on the map.
+     * The route to draw on the map is stored in Constants.ROUTE_STORE under the
+     * request's route token, or under a new token if the request did not have one.
      *
      * Street directions can also be provided in the form of text as a return
      * value to this function.
      *
      * @param requestParams Map of the HTTP GET request's query parameters - the starting lat/long
-     *                      and the destination lat/lon.
+     *                      and the destination lat/lon, and the route token if there was one,
+     *                      the route options and the request's cancellation token.
      *
      * @param response : Not used by this function. You may ignore.
      * @return A map of results for the front end as specified: <br>
@@ -55,17 +100,23 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * "directions_success" : Boolean, whether the query generated text directions (i.e. if
      *                        length of directions is > 0).
      * "directions"      : String. The text directions you want to display, in HTML format.
+     * "route_token"     : String. The token the route is stored under, to be sent with
+     *                     later raster and clear route requests.
      */
     @Override
-    protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        List<Long> route = Router.shortestPath(
-                SEMANTIC_STREET_GRAPH,
-                requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
-        ROUTE_LIST.addAll(route);
-        String directions = getDirectionsText();
+    protected Map<String, Object> processRequest(RouteQuery requestParams, Response response) {
+        Map<String, Double> params = requestParams.params;
+        AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
+        List<Long> route = ROUTE_COALESCER.shortestPath(
+                graph,
+                params.get("start_lon"), params.get("start_lat"),
+                params.get("end_lon"), params.get("end_lat"),
+                requestParams.options, requestParams.cancellation);
+        String routeToken = ROUTE_STORE.replace(requestParams.routeToken, route);
+        String directions = getDirectionsText(graph, route);
 
         Map<String, Object> routeParams = new HashMap<>();
+        routeParams.put("route_token", routeToken);
         routeParams.put("routing_success", !route.isEmpty());
         routeParams.put("directions_success", directions.length() > 0);
         routeParams.put("directions", directions);
@@ -73,12 +124,12 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes the given route and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private String getDirectionsText() {
+    static String getDirectionsText(AugmentedStreetMapGraph graph, List<Long> route) {
 
-        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, ROUTE_LIST);
+        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
         if (directions == null || directions.isEmpty()) {
             return "";
         }
@@ -90,4 +141,20 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
         }
         return sb.toString();
     }
+
+    /** The parameters of a route request. */
+    static class RouteQuery {
+        private final Map<String, Double> params;
+        private final String routeToken;
+        private final RouteOptions options;
+        private final CancellationToken cancellation;
+
+        RouteQuery(Map<String, Double> params, String routeToken, RouteOptions options,
+                   CancellationToken cancellation) {
+            this.params = params;
+            this.routeToken = routeToken;
+            this.options = options;
+            this.cancellation = cancellation;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.vectortile.VectorTileEncoder;
+import spark.Request;
+import spark.Response;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for binary vector tiles of the street graph. Tiles are addressed by
+ * (depth, x, y) in the same pyramid as the raster tiles; see VectorTileEncoder for the format.
+ */
+public class VectorTileAPIHandler extends APIRouteHandler<Map<String, Double>, byte[]> {
+
+    /**
+     * Each vector tile request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * depth : the depth of the tile,<br> x : the column of the tile,<br> y : the row of the tile.
+     **/
+    private static final String[] REQUIRED_VECTOR_TILE_REQUEST_PARAMS = {"depth", "x", "y"};
+
+    /** HTTP response for tiles outside of the pyramid. */
+    private static final int NOT_FOUND_RESPONSE = 404;
+
+    /** Maximum number of encoded tiles that are kept. */
+    private static final int TILE_CACHE_SIZE = 1024;
+
+    /** The encoder of the current graph and the tiles it encoded, replaced with the graph. */
+    private Tiles tiles;
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        return getRequestParams(request, REQUIRED_VECTOR_TILE_REQUEST_PARAMS);
+    }
+
+    /**
+     * Returns the encoded vector tile at the requested position, encoding it on a cache miss.
+     * @param requestParams Map of the HTTP GET request's query parameters - the tile position.
+     * @param response The response, whose content type is set to binary.
+     * @return The encoded tile.
+     */
+    @Override
+    protected byte[] processRequest(Map<String, Double> requestParams, Response response) {
+        int depth = requestParams.get("depth").intValue();
+        int x = requestParams.get("x").intValue();
+        int y = requestParams.get("y").intValue();
+        if (depth < 0 || depth > VectorTileEncoder.MAX_DEPTH || x < 0 || y < 0
+                || x >= (1 << depth) || y >= (1 << depth)) {
+            halt(NOT_FOUND_RESPONSE, "Tile is outside of the map.");
+        }
+
+        Tiles current = tilesFor(SEMANTIC_STREET_GRAPH);
+        String key = "d" + depth + "_x" + x + "_y" + y;
+        byte[] tile = current.cache.get(key);
+        if (tile == null) {
+            tile = current.encoder.encode(depth, x, y);
+            current.cache.put(key, tile);
+        }
+        response.type("application/octet-stream");
+        return tile;
+    }
+
+    /**
+     * Returns the encoder and tile cache of the given graph, making new ones if the graph
+     * changed. Requests that still hold the old ones only ever add to the old cache, so no
+     * tile of an old graph is served once a request has seen the new one.
+     */
+    private synchronized Tiles tilesFor(AugmentedStreetMapGraph graph) {
+        if (tiles == null || tiles.encoder.graph() != graph) {
+            tiles = new Tiles(new VectorTileEncoder(graph));
+        }
+        return tiles;
+    }
+
+    @Override
+    protected Object buildJsonResponse(byte[] result) {
+        return result;
+    }
+
+    /** An encoder and the most recently used tiles it encoded. */
+    private static class Tiles {
+        private final VectorTileEncoder encoder;
+        private final Map<String, byte[]> cache = Collections.synchronizedMap(
+                new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                        return size() > TILE_CACHE_SIZE;
+                    }
+                });
+
+        Tiles(VectorTileEncoder encoder) {
+            this.encoder = encoder;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
+import bearmaps.Router;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.AlternativeRoutes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that alternative routes on the Berkeley graph start with the shortest route, are
+ * real routes between the right vertices, and are neither too long nor repeated.
+ */
+public class TestAlternatives {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static final int NUM_TESTS = 50;
+    private static final double DELTA = 1e-9;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testAlternatives() {
+        Random r = new Random(1);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long src = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            long dest = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            AlternativeRoutes alternatives = new AlternativeRoutes(graph, src, dest, 3, null, 0, 20);
+            List<Long> best = Router.shortestPath(graph, src, dest);
+            if (alternatives.outcome() != SolverOutcome.SOLVED) {
+                assertTrue(best.isEmpty());
+                continue;
+            }
+            List<List<Long>> routes = alternatives.routes();
+            assertTrue(routes.size() >= 1 && routes.size() <= 3);
+            assertEquals(routes, Router.alternatives(graph, src, dest, 3, RouteOptions.SHORTEST));
+            double bestWeight = weight(best);
+            assertEquals(bestWeight, alternatives.solutionWeight(), DELTA);
+            for (int j = 0; j < routes.size(); j++) {
+                List<Long> route = routes.get(j);
+                assertEquals(src, (long) route.get(0));
+                assertEquals(dest, (long) route.get(route.size() - 1));
+                assertEquals("Route visits a vertex twice.",
+                        route.size(), new HashSet<>(route).size());
+                assertEquals(alternatives.routeWeights().get(j), weight(route), DELTA);
+                assertTrue("Alternative is too long.", weight(route) <= bestWeight * 1.25 + DELTA);
+            }
+            assertEquals("Routes repeat.", routes.size(), new HashSet<>(routes).size());
+        }
+    }
+
+    /** Returns the length of ROUTE, failing if two consecutive vertices are not adjacent. */
+    private static double weight(List<Long> route) {
+        double weight = 0;
+        for (int i = 1; i < route.size(); i++) {
+            assertTrue("Route uses an edge that does not exist.",
+                    graph.edge(route.get(i - 1), route.get(i)) != null);
+            weight += graph.edge(route.get(i - 1), route.get(i)).weight();
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,119 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.ArcFlagSolver;
+import bearmaps.utils.graph.streetmap.ArcFlags;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.OsmChange;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that searches pruned by arc flags on the Berkeley graph find routes as short as
+ * AStarSolver's, that flags read back from a file are the flags written, and that flags are
+ * found in the background and carried over to updated graphs.
+ */
+public class TestArcFlags {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static final int NUM_TESTS = 100;
+    private static final int REGIONS = 16;
+    private static final double DELTA = 1e-9;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testRoutesAreShortest() {
+        Random r = new Random(1);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long src = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            long dest = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            ArcFlagSolver solver = new ArcFlagSolver(graph, src, dest, null, 0, 20);
+            List<Long> best = Router.shortestPath(graph, src, dest);
+            if (solver.outcome() != SolverOutcome.SOLVED) {
+                assertTrue(best.isEmpty());
+                continue;
+            }
+            List<Long> route = solver.solution();
+            assertEquals(src, (long) route.get(0));
+            assertEquals(dest, (long) route.get(route.size() - 1));
+            assertEquals(weight(best), weight(route), DELTA);
+            assertEquals(weight(route), solver.solutionWeight(), DELTA);
+        }
+    }
+
+    @Test
+    public void testReadWhatWasWritten() throws Exception {
+        ArcFlags flags = ArcFlags.compute(graph, null, 0, REGIONS);
+        Path path = Files.createTempDirectory("arcflags").resolve("arcflags.bin");
+        flags.write(path);
+        ArcFlags read = ArcFlags.read(path, graph, null, 0);
+        assertNotNull(read);
+        assertEquals(REGIONS, read.regionCount());
+        CompactGraph compact = graph.compactGraph();
+        for (int v = 0; v < compact.vertexCount(); v++) {
+            assertEquals(flags.region(v), read.region(v));
+        }
+        for (int e = 0; e < compact.edgeCount(); e++) {
+            assertEquals(flags.flags(e), read.flags(e));
+        }
+        Files.delete(path);
+        Files.delete(path.getParent());
+    }
+
+    /** Returns the length of ROUTE, failing if two consecutive vertices are not adjacent. */
+    private static double weight(List<Long> route) {
+        double weight = 0;
+        for (int i = 1; i < route.size(); i++) {
+            assertTrue("Route uses an edge that does not exist.",
+                    graph.edge(route.get(i - 1), route.get(i)) != null);
+            weight += graph.edge(route.get(i - 1), route.get(i)).weight();
+        }
+        return weight;
+    }
+
+    @Test
+    public void testFlagsAreFoundInBackgroundAndCarriedOver() throws Exception {
+        AugmentedStreetMapGraph fresh = graph.withChanges(emptyChange());
+        assertNull(fresh.readyArcFlags(null, 0));
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (fresh.readyArcFlags(null, 0) == null && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertNotNull(fresh.readyArcFlags(null, 0));
+
+        AugmentedStreetMapGraph updated = fresh.withChanges(emptyChange());
+        updated.findArcFlagsOf(fresh);
+        assertNotNull(updated.readyArcFlags(null, 0));
+    }
+
+    private static OsmChange emptyChange() throws Exception {
+        Path path = Files.createTempFile("empty", ".osc");
+        Files.write(path, "<osmChange version=\"0.6\"></osmChange>".getBytes(StandardCharsets.UTF_8));
+        OsmChange change = OsmChange.read(path.toString());
+        Files.delete(path);
+        return change;
+    }
+}
@@ -0,0 +1,64 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that vertices of the Berkeley graph are in the same component exactly when a search
+ * finds a route between them, and that the ends of routes between locations are snapped to
+ * vertices that have one.
+ */
+public class TestComponents {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static final int NUM_TESTS = 100;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testConnectedMeansRoutable() {
+        Random r = new Random(1);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            long src = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            long dest = graph.closest(-122.29 + r.nextDouble() * 0.08, 37.84 + r.nextDouble() * 0.05);
+            boolean solved = new AStarSolver<>(graph, src, dest, 20).outcome() == SolverOutcome.SOLVED;
+            assertEquals(solved, graph.connected(src, dest));
+            assertEquals(solved, !Router.shortestPath(graph, src, dest).isEmpty());
+        }
+    }
+
+    @Test
+    public void testSnappedEndsAreConnected() {
+        Random r = new Random(2);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double stlon = -122.29 + r.nextDouble() * 0.08;
+            double stlat = 37.84 + r.nextDouble() * 0.05;
+            double destlon = -122.29 + r.nextDouble() * 0.08;
+            double destlat = 37.84 + r.nextDouble() * 0.05;
+            long[] ends = graph.snapRoute(stlon, stlat, destlon, destlat);
+            assertTrue(graph.connected(ends[0], ends[1]));
+            if (graph.connected(graph.closest(stlon, stlat), graph.closest(destlon, destlat))) {
+                assertEquals(graph.closest(stlon, stlat), ends[0]);
+                assertEquals(graph.closest(destlon, destlat), ends[1]);
+            }
+        }
+    }
+}
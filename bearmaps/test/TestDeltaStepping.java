@@ -0,0 +1,66 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.DeltaStepping;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static bearmaps.utils.Constants.BASE_DIR_PATH;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the distances delta-stepping finds on the Berkeley graph are those of the
+ * routes AStarSolver finds, for a few bucket widths and several threads.
+ */
+public class TestDeltaStepping {
+    private static final String OSM_DB_PATH = BASE_DIR_PATH + "data/proj3_xml/berkeley-2020.osm.xml";
+    private static final int NUM_SOURCES = 5;
+    private static final int NUM_TARGETS = 20;
+    private static final int THREADS = 4;
+    private static final double DELTA = 1e-9;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testDistancesAreShortest() {
+        CompactGraph compact = graph.compactGraph();
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        Random r = new Random(1);
+        try {
+            for (double bucketWidth : new double[]{0, 0.01, 1}) {
+                DeltaStepping engine = new DeltaStepping(graph, null, 0, pool, bucketWidth);
+                for (int i = 0; i < NUM_SOURCES; i++) {
+                    long src = compact.id(r.nextInt(compact.vertexCount()));
+                    double[] distances = engine.distances(src);
+                    assertEquals(0, distances[compact.index(src)], 0);
+                    for (int j = 0; j < NUM_TARGETS; j++) {
+                        int dest = r.nextInt(compact.vertexCount());
+                        AStarSolver<Long> solver = new AStarSolver<>(graph, src, compact.id(dest), 20);
+                        if (solver.outcome() == SolverOutcome.SOLVED) {
+                            assertEquals(solver.solutionWeight(), distances[dest], DELTA);
+                        } else {
+                            assertEquals(Double.POSITIVE_INFINITY, distances[dest], 0);
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
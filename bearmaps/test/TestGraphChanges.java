@@ -0,0 +1,49 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.streetmap.OsmChange;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a graph with changes applied still snaps locations to the vertices it kept,
+ * on a graph small enough to write out here: vertices 1 and 2 share a place, and both are
+ * joined to vertex 3.
+ */
+public class TestGraphChanges {
+    private static final String GRAPH = "<osm version=\"0.6\">"
+            + "<node id=\"1\" lat=\"38.1\" lon=\"0.1\"/>"
+            + "<node id=\"2\" lat=\"38.1\" lon=\"0.1\"/>"
+            + "<node id=\"3\" lat=\"38.2\" lon=\"0.2\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"11\"><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "</osm>";
+
+    @Test
+    public void testMovingOneOfTwoVerticesInOnePlace() throws Exception {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(write(GRAPH, ".osm.xml"));
+        assertEquals(2, graph.withChanges(move(1)).closest(0.1, 38.1));
+        assertEquals(1, graph.withChanges(move(2)).closest(0.1, 38.1));
+    }
+
+    /** Returns a change that moves vertex ID next to vertex 3. */
+    private static OsmChange move(long id) throws Exception {
+        return OsmChange.read(write("<osmChange version=\"0.6\"><modify>"
+                + "<node id=\"" + id + "\" lat=\"38.25\" lon=\"0.25\"/>"
+                + "</modify></osmChange>", ".osc"));
+    }
+
+    private static String write(String contents, String suffix) throws Exception {
+        Path path = Files.createTempFile("graph", suffix);
+        path.toFile().deleteOnExit();
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        return path.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package bearmaps.test;
+
+import bearmaps.TourOptimizer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TourOptimizer returns every stop once, starting with the first, and finds the
+ * best order of a few stops, which can be checked against every order.
+ */
+public class TestTourOptimizer {
+    private static final int NUM_TESTS = 50;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testVisitsEveryStopOnce() {
+        Random r = new Random(1);
+        for (int n : new int[]{2, 3, 10, 60}) {
+            int[] order = TourOptimizer.optimize(randomCosts(r, n, false), false, 50);
+            assertEquals(n, order.length);
+            assertEquals(0, order[0]);
+            assertEquals(n, Arrays.stream(order).distinct().count());
+        }
+    }
+
+    @Test
+    public void testSmallOrdersAreBest() {
+        Random r = new Random(2);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            int n = 4 + r.nextInt(4);
+            boolean roundTrip = r.nextBoolean();
+            double[][] costs = randomCosts(r, n, r.nextBoolean());
+            int[] order = TourOptimizer.optimize(costs, roundTrip, 200);
+            int[] stops = new int[n];
+            for (int k = 0; k < n; k++) {
+                stops[k] = k;
+            }
+            assertEquals(best(costs, stops, 1, roundTrip), cost(costs, order, roundTrip), DELTA);
+        }
+    }
+
+    @Test
+    public void testAvoidsUnreachableStops() {
+        double[][] costs = {
+                {0, 1, 1, 1},
+                {1, 0, Double.POSITIVE_INFINITY, 1},
+                {1, 1, 0, 1},
+                {1, 1, 1, 0}};
+        int[] order = TourOptimizer.optimize(costs, true, 50);
+        assertTrue(cost(costs, order, true) < Double.POSITIVE_INFINITY);
+    }
+
+    /** Returns costs between N random points, or random costs unless SYMMETRIC. */
+    private static double[][] randomCosts(Random r, int n, boolean symmetric) {
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = r.nextDouble();
+            y[i] = r.nextDouble();
+        }
+        double[][] costs = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                costs[i][j] = i == j ? 0 : symmetric ? Math.hypot(x[i] - x[j], y[i] - y[j])
+                        : r.nextDouble();
+            }
+        }
+        return costs;
+    }
+
+    private static double cost(double[][] costs, int[] order, boolean roundTrip) {
+        double total = roundTrip ? costs[order[order.length - 1]][order[0]] : 0;
+        for (int k = 1; k < order.length; k++) {
+            total += costs[order[k - 1]][order[k]];
+        }
+        return total;
+    }
+
+    /** Returns the cost of the best order of ORDER that keeps its first K stops in place. */
+    private static double best(double[][] costs, int[] order, int k, boolean roundTrip) {
+        if (k == order.length) {
+            return cost(costs, order, roundTrip);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = k; i < order.length; i++) {
+            swap(order, k, i);
+            best = Math.min(best, best(costs, order, k + 1, roundTrip));
+            swap(order, k, i);
+        }
+        return best;
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+    }
+}
@@ -0,0 +1,85 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteOptions;
+import bearmaps.Router;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that routes with turn restrictions obey oneway tags and no_ and only_ relations, on
+ * a crossroads small enough to write out here. Vertex 1 is the crossing, with arms to 2 in
+ * the south, 3 in the north, 4 in the west and 5 in the east; a longer road runs from 2 by
+ * way of 6, in the southwest, to 4, and may only be taken from 6 to 4. Coming from the south
+ * no left turn is allowed, and coming from the east the only way on is straight ahead.
+ */
+public class TestTurnRestrictions {
+    private static final String GRAPH = "<osm version=\"0.6\">"
+            + "<node id=\"1\" lat=\"38.5\" lon=\"0.5\"/>"
+            + "<node id=\"2\" lat=\"38.4\" lon=\"0.5\"/>"
+            + "<node id=\"3\" lat=\"38.6\" lon=\"0.5\"/>"
+            + "<node id=\"4\" lat=\"38.5\" lon=\"0.4\"/>"
+            + "<node id=\"5\" lat=\"38.5\" lon=\"0.6\"/>"
+            + "<node id=\"6\" lat=\"38.35\" lon=\"0.35\"/>"
+            + way(21, 2, 1, false) + way(31, 1, 3, false) + way(41, 1, 4, false)
+            + way(51, 5, 1, false) + way(26, 2, 6, false) + way(64, 6, 4, true)
+            + restriction(100, 21, 41, "no_left_turn")
+            + restriction(101, 51, 41, "only_straight_on")
+            + "</osm>";
+    private static final RouteOptions RESTRICTED = new RouteOptions(null, 0, true);
+    private static AugmentedStreetMapGraph graph;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Path path = Files.createTempFile("crossroads", ".osm.xml");
+        path.toFile().deleteOnExit();
+        Files.write(path, GRAPH.getBytes(StandardCharsets.UTF_8));
+        graph = new AugmentedStreetMapGraph(path.toString());
+    }
+
+    @Test
+    public void testNoTurn() {
+        assertEquals(List.of(2L, 1L, 4L), Router.shortestPath(graph, 2, 4, RouteOptions.SHORTEST));
+        assertEquals(List.of(2L, 6L, 4L), Router.shortestPath(graph, 2, 4, RESTRICTED));
+        assertEquals(List.of(2L, 1L, 5L), Router.shortestPath(graph, 2, 5, RESTRICTED));
+    }
+
+    @Test
+    public void testOnlyTurn() {
+        assertEquals(List.of(5L, 1L, 3L), Router.shortestPath(graph, 5, 3, RouteOptions.SHORTEST));
+        /* Going straight on to 4 and turning back there is allowed. */
+        assertEquals(List.of(5L, 1L, 4L, 1L, 3L), Router.shortestPath(graph, 5, 3, RESTRICTED));
+        assertEquals(List.of(5L, 1L, 4L), Router.shortestPath(graph, 5, 4, RESTRICTED));
+    }
+
+    @Test
+    public void testOneway() {
+        assertEquals(List.of(4L, 6L), Router.shortestPath(graph, 4, 6, RouteOptions.SHORTEST));
+        assertEquals(List.of(4L, 1L, 2L, 6L), Router.shortestPath(graph, 4, 6, RESTRICTED));
+        assertEquals(List.of(6L, 4L), Router.shortestPath(graph, 6, 4, RESTRICTED));
+    }
+
+    /** Returns a residential way ID from vertex FROM to vertex TO. */
+    private static String way(long id, long from, long to, boolean oneway) {
+        return "<way id=\"" + id + "\"><nd ref=\"" + from + "\"/><nd ref=\"" + to + "\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/>"
+                + (oneway ? "<tag k=\"oneway\" v=\"yes\"/>" : "") + "</way>";
+    }
+
+    /** Returns a restriction relation ID of kind KIND from way FROM via vertex 1 to way TO. */
+    private static String restriction(long id, long from, long to, String kind) {
+        return "<relation id=\"" + id + "\">"
+                + "<member type=\"way\" ref=\"" + from + "\" role=\"from\"/>"
+                + "<member type=\"node\" ref=\"1\" role=\"via\"/>"
+                + "<member type=\"way\" ref=\"" + to + "\" role=\"to\"/>"
+                + "<tag k=\"type\" v=\"restriction\"/>"
+                + "<tag k=\"restriction\" v=\"" + kind + "\"/></relation>";
+    }
+}
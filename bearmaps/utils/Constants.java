@@ -1,10 +1,9 @@
 package bearmaps.utils;
 
 import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.RouteCoalescer;
 
 import java.awt.*;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A class holding all the constant values used throughout the project
@@ -41,11 +40,31 @@ public class Constants {
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
 
-    public static AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
+    /**
+     * The current street graph. Replaced as a whole when OSM changes are applied, so handlers
+     * should read it once per request and use that graph throughout.
+     */
+    public static volatile AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
+
+    /** Maximum number of user routes kept at once. */
+    public static final int MAX_ROUTES = 10000;
+
+    /** User routes are dropped after not being used for this many milliseconds (30 minutes). */
+    public static final long ROUTE_TTL_MILLIS = 30 * 60 * 1000;
 
     /**
-     * This is used to maintain a single List of route so that the same instance(object) is accessed
-     * from everywhere in the code. Enum is a cleaner way to achieve such a singleton pattern.
+     * The routes of all users, keyed by the route token handed out by the route API and sent
+     * back by the client with raster and clear route requests.
      */
-    public static final List<Long> ROUTE_LIST = new LinkedList<>();
+    public static final RouteStore ROUTE_STORE = new RouteStore(MAX_ROUTES, ROUTE_TTL_MILLIS);
+
+    /** Maximum number of recently computed routes kept for identical requests. */
+    public static final int ROUTE_CACHE_SIZE = 1024;
+
+    /** Recently computed routes are reused for this many milliseconds. */
+    public static final long ROUTE_CACHE_TTL_MILLIS = 10 * 1000;
+
+    /** Shares route computations between identical in-flight and recent route requests. */
+    public static final RouteCoalescer ROUTE_COALESCER = new RouteCoalescer(ROUTE_CACHE_SIZE,
+            ROUTE_CACHE_TTL_MILLIS);
 }
@@ -0,0 +1,97 @@
+package bearmaps.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Douglas-Peucker simplification of a polyline given as parallel coordinate arrays.
+ * The coordinates should already be in a space where the tolerance is meaningful,
+ * e.g. raster pixels at the zoom depth the line will be drawn at.
+ */
+public class PolylineSimplifier {
+
+    private PolylineSimplifier() {
+    }
+
+    /**
+     * Returns the indices of the points to keep, in order. The first and last points are
+     * always kept. Uses an explicit stack so very long routes cannot overflow the call stack.
+     * @param xs The x coordinates of the polyline.
+     * @param ys The y coordinates of the polyline.
+     * @param tolerance The maximum perpendicular distance a dropped point may have from the
+     *                  simplified line.
+     * @return The indices of the kept points, in increasing order.
+     */
+    public static int[] simplify(double[] xs, double[] ys, double tolerance) {
+        int n = xs.length;
+        if (n <= 2) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        double sqTolerance = tolerance * tolerance;
+
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, n - 1});
+        while (!stack.isEmpty()) {
+            int[] span = stack.pop();
+            int first = span[0];
+            int last = span[1];
+            double maxSqDist = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double sqDist = sqSegmentDistance(xs[i], ys[i], xs[first], ys[first],
+                        xs[last], ys[last]);
+                if (sqDist > maxSqDist) {
+                    index = i;
+                    maxSqDist = sqDist;
+                }
+            }
+            if (index != -1 && maxSqDist > sqTolerance) {
+                keep[index] = true;
+                stack.push(new int[]{first, index});
+                stack.push(new int[]{index, last});
+            }
+        }
+
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count += 1;
+            }
+        }
+        int[] kept = new int[count];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept[j++] = i;
+            }
+        }
+        return kept;
+    }
+
+    /** Squared distance from (px, py) to the segment (ax, ay) - (bx, by). */
+    private static double sqSegmentDistance(double px, double py, double ax, double ay,
+                                            double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        if (dx != 0 || dy != 0) {
+            double t = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                ax = bx;
+                ay = by;
+            } else if (t > 0) {
+                ax += dx * t;
+                ay += dy * t;
+            }
+        }
+        dx = px - ax;
+        dy = py - ay;
+        return dx * dx + dy * dy;
+    }
+}
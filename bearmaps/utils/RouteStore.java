@@ -0,0 +1,119 @@
+package bearmaps.utils;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thread-safe store of the routes of different users, keyed by an opaque route token that
+ * the client sends back with every request. Entries expire once they have not been read or
+ * written for the time-to-live, and the store never holds more than a fixed number of routes;
+ * when it is full, the least recently used route is evicted. Expired routes are removed when
+ * they are next read, or once they are the least recently used when a route is stored.
+ */
+public class RouteStore {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final long ttlMillis;
+
+    /** The routes by token, least recently used first. Guarded by this. */
+    private final LinkedHashMap<String, Entry> routes;
+
+    /**
+     * @param maxRoutes The maximum number of routes kept at once.
+     * @param ttlMillis How long a route is kept after it was last used, in milliseconds.
+     */
+    public RouteStore(int maxRoutes, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.routes = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxRoutes;
+            }
+        };
+    }
+
+    /** Returns a new, unguessable route token. */
+    public String newToken() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Returns the route stored under TOKEN, or an empty list if there is none or it expired.
+     * Reading a route extends its lifetime.
+     */
+    public synchronized List<Long> get(String token) {
+        if (token == null) {
+            return Collections.emptyList();
+        }
+        Entry entry = routes.get(token);
+        long now = System.currentTimeMillis();
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        if (entry.lastUsed + ttlMillis < now) {
+            routes.remove(token);
+            return Collections.emptyList();
+        }
+        entry.lastUsed = now;
+        return entry.route;
+    }
+
+    /** Stores ROUTE under TOKEN, replacing any route already stored there. */
+    public synchronized void put(String token, List<Long> route) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        routes.put(token, new Entry(List.copyOf(route), now));
+    }
+
+    /**
+     * Stores ROUTE under TOKEN if a route that has not expired is stored under it, and under a
+     * new token otherwise, so that clients can only reuse tokens this store handed out.
+     * @return The token ROUTE is stored under.
+     */
+    public synchronized String replace(String token, List<Long> route) {
+        Entry entry = token == null ? null : routes.get(token);
+        if (entry == null || entry.lastUsed + ttlMillis < System.currentTimeMillis()) {
+            token = newToken();
+        }
+        put(token, route);
+        return token;
+    }
+
+    /** Removes the route stored under TOKEN, if any. */
+    public synchronized void clear(String token) {
+        if (token != null) {
+            routes.remove(token);
+        }
+    }
+
+    /** Returns the number of routes currently stored, including ones that expired. */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    /** Removes the least recently used routes for as long as they have expired. */
+    private void expire(long now) {
+        Iterator<Entry> entries = routes.values().iterator();
+        while (entries.hasNext() && entries.next().lastUsed + ttlMillis < now) {
+            entries.remove();
+        }
+    }
+
+    private static class Entry {
+        private final List<Long> route;
+        private long lastUsed;
+
+        Entry(List<Long> route, long lastUsed) {
+            this.route = route;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package bearmaps.utils.graph;
 
+import bearmaps.utils.jfr.RouteSearchEvent;
+import bearmaps.utils.metrics.Metrics;
 import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import edu.princeton.cs.algs4.Stopwatch;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
 
+    /** Totals over all searches, exposed on /metrics. */
+    private static final LongAdder STATES_EXPLORED = Metrics.counter("bearmaps_solver_states_explored_total");
+    private static final LongAdder SEARCHES = Metrics.counter("bearmaps_solver_searches_total");
+
     private SolverOutcome outcome;
     private List<Vertex> solution;
     private double solutionWeight;
@@ -17,10 +24,32 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
     private double explorationTime;
 
     public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout) {
-        MinHeapPQ<Vertex> pq = new MinHeapPQ<>();
+        this(input, start, end, CancellationToken.withTimeout(timeout));
+    }
+
+    /**
+     * Searches for the shortest path from START to END until TOKEN says to stop, which it is
+     * asked every CancellationToken.CHECK_INTERVAL states; the outcome is then TIMEOUT or
+     * CANCELLED.
+     */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end,
+                       CancellationToken token) {
+        this(input, start, end, token, new MinHeapPQ<>());
+    }
+
+    /**
+     * Searches for the shortest path like the constructor above, keeping the fringe in PQ,
+     * which must be empty. A monotone queue such as a RadixHeapPQ suits graphs whose
+     * heuristic is consistent.
+     */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end,
+                       CancellationToken token, PriorityQueue<Vertex> pq) {
+        RouteSearchEvent event = new RouteSearchEvent();
+        event.begin();
+        int queueHighWater = 1;
         HashMap<Vertex, Double> distTo = new HashMap<>();
         HashMap<Vertex, Vertex> edgeTo = new HashMap<>();
-        Stopwatch stopWatch = new Stopwatch();
+        long startTime = System.nanoTime();
         solution = new ArrayList<>();
 
         pq.insert(start, input.estimatedDistanceToGoal(start, end));
@@ -48,10 +77,13 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
                 solutionWeight = distTo.get(end);
                 break;
             }
-            if (stopWatch.elapsedTime() >= timeout) {
-                outcome = SolverOutcome.TIMEOUT;
-                solutionWeight = 0;
-                break;
+            if (numStatesExplored % CancellationToken.CHECK_INTERVAL == 0) {
+                SolverOutcome stop = token.stopReason();
+                if (stop != null) {
+                    outcome = stop;
+                    solutionWeight = 0;
+                    break;
+                }
             }
             for (WeightedEdge e : input.neighbors(v)) {
                 Vertex p = (Vertex) e.from();
@@ -62,13 +94,25 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
                     edgeTo.put(q, p);
                     if (!pq.contains(q)) {
                         pq.insert(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
+                        queueHighWater = Math.max(queueHighWater, pq.size());
                     } else {
                         pq.changePriority(q, distTo.get(q) + input.estimatedDistanceToGoal(q, end));
                     }
                 }
             }
         }
-        explorationTime = stopWatch.elapsedTime();
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+        STATES_EXPLORED.add(numStatesExplored);
+        SEARCHES.increment();
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = String.valueOf(start);
+            event.target = String.valueOf(end);
+            event.settled = numStatesExplored;
+            event.queueHighWater = queueHighWater;
+            event.outcome = outcome.name();
+            event.commit();
+        }
     }
 
     public SolverOutcome outcome() {
@@ -0,0 +1,66 @@
+package bearmaps.utils.graph;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tells a search when to stop early: when its deadline passes, or when whoever wanted the
+ * result no longer does, such as a client that disconnected. Searches check the token once
+ * every CHECK_INTERVAL iterations rather than on every one, so the cost of reading the clock
+ * and probing the client is spread over many settled vertices. One token may be shared by
+ * several searches on several threads, which all stop once it trips.
+ */
+public class CancellationToken {
+
+    /** How many iterations a search runs between checks of its token. */
+    public static final int CHECK_INTERVAL = 1024;
+
+    private final long deadlineNanos;
+    private final boolean noDeadline;
+    private final BooleanSupplier abandoned;
+    private volatile boolean cancelled;
+
+    /**
+     * @param timeoutSeconds How long from now searches may run, or infinity for no limit.
+     * @param abandoned Returns true once the result is no longer wanted, or null if that
+     *                  never happens. Only called when searches check the token.
+     */
+    public CancellationToken(double timeoutSeconds, BooleanSupplier abandoned) {
+        this.noDeadline = timeoutSeconds == Double.POSITIVE_INFINITY;
+        this.deadlineNanos = System.nanoTime() + (long) (timeoutSeconds * 1e9);
+        this.abandoned = abandoned;
+    }
+
+    /** Returns a token that only stops searches once TIMEOUT_SECONDS have passed. */
+    public static CancellationToken withTimeout(double timeoutSeconds) {
+        return new CancellationToken(timeoutSeconds, null);
+    }
+
+    /** Stops every search using this token at its next check. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Returns whether this token was cancelled, or the result was found to be abandoned. */
+    public boolean isCancelled() {
+        if (!cancelled && abandoned != null && abandoned.getAsBoolean()) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /** Returns whether the deadline has passed. */
+    public boolean isExpired() {
+        return !noDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Returns why a search should stop, CANCELLED or TIMEOUT, or null if it may go on.
+     * Searches call this every CHECK_INTERVAL iterations.
+     */
+    public SolverOutcome stopReason() {
+        if (isCancelled()) {
+            return SolverOutcome.CANCELLED;
+        }
+        return isExpired() ? SolverOutcome.TIMEOUT : null;
+    }
+}
@@ -0,0 +1,59 @@
+package bearmaps.utils.graph;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CancellationTokenTest {
+
+    /** A path long enough that a search checks its token several times before the end. */
+    private static final int PATH_LENGTH = 10 * CancellationToken.CHECK_INTERVAL;
+
+    private static final AStarGraph<Integer> PATH = new AStarGraph<Integer>() {
+        @Override
+        public List<WeightedEdge<Integer>> neighbors(Integer v) {
+            return v + 1 < PATH_LENGTH ? List.of(new WeightedEdge<>(v, v + 1, 1)) : List.of();
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(Integer s, Integer goal) {
+            return 0;
+        }
+    };
+
+    @Test
+    public void testStopReason() {
+        assertNull(CancellationToken.withTimeout(60).stopReason());
+        assertNull(CancellationToken.withTimeout(Double.POSITIVE_INFINITY).stopReason());
+        assertEquals(SolverOutcome.TIMEOUT, CancellationToken.withTimeout(0).stopReason());
+
+        CancellationToken token = CancellationToken.withTimeout(0);
+        token.cancel();
+        assertEquals(SolverOutcome.CANCELLED, token.stopReason());
+
+        AtomicBoolean gone = new AtomicBoolean();
+        token = new CancellationToken(60, gone::get);
+        assertNull(token.stopReason());
+        gone.set(true);
+        assertEquals(SolverOutcome.CANCELLED, token.stopReason());
+        gone.set(false);
+        assertEquals(SolverOutcome.CANCELLED, token.stopReason());
+    }
+
+    @Test
+    public void testSolverStops() {
+        CancellationToken token = CancellationToken.withTimeout(60);
+        assertEquals(SolverOutcome.SOLVED,
+                new AStarSolver<>(PATH, 0, PATH_LENGTH - 1, token).outcome());
+        token.cancel();
+        AStarSolver<Integer> solver = new AStarSolver<>(PATH, 0, PATH_LENGTH - 1, token);
+        assertEquals(SolverOutcome.CANCELLED, solver.outcome());
+        assertEquals(0, solver.solution().size());
+        assertEquals(SolverOutcome.TIMEOUT,
+                new AStarSolver<>(PATH, 0, PATH_LENGTH - 1, 0).outcome());
+    }
+}
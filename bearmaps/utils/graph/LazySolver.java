@@ -18,6 +18,11 @@ public class LazySolver<Vertex> implements ShortestPathsSolver<Vertex> {
 
     /* ignores timeout since algorithm is so fast. */
     public LazySolver(AStarGraph<Vertex> G, Vertex start, Vertex goal, double timeout) {
+        this(G, start, goal, CancellationToken.withTimeout(timeout));
+    }
+
+    /* ignores the token for the same reason. */
+    public LazySolver(AStarGraph<Vertex> G, Vertex start, Vertex goal, CancellationToken token) {
         Stopwatch sw = new Stopwatch();
         List<WeightedEdge<Vertex>> neighborEdges = G.neighbors(start);
         for (WeightedEdge<Vertex> e : neighborEdges) {
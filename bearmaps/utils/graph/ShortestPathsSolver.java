@@ -4,6 +4,9 @@ import java.util.List;
 
 /**
  * Interface for shortest path solvers.
+ * Solvers take a CancellationToken, or a timeout that makes one, and check it every
+ * CancellationToken.CHECK_INTERVAL iterations; a search it stops has outcome TIMEOUT or
+ * CANCELLED.
  * Created by hug.
  */
 public interface ShortestPathsSolver<Vertex> {
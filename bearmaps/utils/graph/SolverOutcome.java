@@ -1,5 +1,7 @@
 package bearmaps.utils.graph;
 
 public enum SolverOutcome {
-    SOLVED, TIMEOUT, UNSOLVABLE
+    SOLVED, TIMEOUT, UNSOLVABLE,
+    /** The search was abandoned through its CancellationToken, e.g. by a client disconnect. */
+    CANCELLED
 }
@@ -0,0 +1,460 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.QueueType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The best route between two vertices of a StreetMapGraph and up to k - 1 alternatives to
+ * it, found with the via-node method. One search grows a shortest path tree forward from the
+ * source and another grows one backward into the destination, both until they pass
+ * (1 + STRETCH) times the weight D of the best route. Every vertex v settled by both trees
+ * gives the candidate route source -> v -> destination, read off the two trees, so the trees
+ * are shared by all candidates. Up to MAX_CANDIDATES candidates are tried, shortest first
+ * less the length of the part of them in both trees, and one is accepted if
+ * <ul>
+ *     <li>it is a simple path no longer than (1 + STRETCH) D,</li>
+ *     <li>it shares at most SHARING D of its weight with the routes accepted before it,</li>
+ *     <li>it is locally optimal: the part of it within LOCAL_OPTIMALITY D of v on either
+ *     side is a shortest path, which the trees often show and otherwise takes a small
+ *     search, of which there are at most MAX_LOCAL_SEARCHES.</li>
+ * </ul>
+ * The weights are those of StreetMapGraph.edgeWeights, so alternatives can be the shortest
+ * or the fastest under a speed profile; oneway tags and turn restrictions are not applied.
+ *
+ * solution() and solutionWeight() are those of the best route, and routes() has every
+ * accepted route, the best first, as lists of vertex ids like Router.shortestPath.
+ */
+public class AlternativeRoutes implements ShortestPathsSolver<Long> {
+
+    /** How much longer than the best route an alternative may be, as a fraction of it. */
+    static final double STRETCH = 0.25;
+    /** How much of the best route's weight an alternative may share with earlier routes. */
+    static final double SHARING = 0.8;
+    /** The fraction of the best route's weight around v that must be a shortest path. */
+    static final double LOCAL_OPTIMALITY = 0.25;
+
+    /**
+     * The most candidates tried per query. They are tried best first, and building each
+     * route takes time in its length, so the long tail of poor candidates is cut off.
+     */
+    static final int MAX_CANDIDATES = 256;
+
+    /**
+     * The most searches for local optimality per query. Most candidates that need one fail
+     * it, so past this many the rest are not worth the time.
+     */
+    static final int MAX_LOCAL_SEARCHES = 32;
+
+    /** The kind of queue the searches use, from the bearmaps.alternatives.queue system property. */
+    private static final QueueType QUEUE = QueueType.forQuery("alternatives");
+
+    /** Relative slack for comparing sums of weights added up in different orders. */
+    private static final double EPSILON = 1e-9;
+
+    private final CompactGraph compact;
+    private final double[] weights;
+    private final List<List<Long>> routes = new ArrayList<>();
+    private final List<Double> routeWeights = new ArrayList<>();
+    private SolverOutcome outcome;
+    private int numStatesExplored;
+    private double explorationTime;
+    private final CancellationToken token;
+    /** Why the search stopped early, or null if it has not. */
+    private SolverOutcome stopReason;
+    private int searchesLeft = MAX_LOCAL_SEARCHES;
+    /** Turns great-circle distances into an A* heuristic for the weights. */
+    private final double weightPerMile;
+    private final double resolution;
+
+    /**
+     * Finds up to K routes from SRC to DEST in GRAPH, weighted by distance if PROFILE is null
+     * and otherwise by travel time under PROFILE when leaving at HOUR. Gives up with outcome
+     * TIMEOUT after TIMEOUT seconds.
+     */
+    public AlternativeRoutes(StreetMapGraph graph, long src, long dest, int k,
+                             SpeedProfile profile, int hour, double timeout) {
+        this(graph, src, dest, k, profile, hour, CancellationToken.withTimeout(timeout));
+    }
+
+    /**
+     * Finds up to K routes like the constructor above, until TOKEN says to stop. If it does
+     * once the best route is known, the outcome is still SOLVED unless it was cancelled,
+     * with the alternatives accepted so far.
+     */
+    public AlternativeRoutes(StreetMapGraph graph, long src, long dest, int k,
+                             SpeedProfile profile, int hour, CancellationToken token) {
+        this.compact = graph.compactGraph();
+        this.weights = graph.edgeWeights(profile, hour);
+        this.weightPerMile = graph.weightPerMile(profile, hour);
+        this.resolution = graph.queueResolution(profile, hour);
+        this.token = token;
+        long startTime = System.nanoTime();
+        int source = compact.index(src);
+        int target = compact.index(dest);
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else if (source == target) {
+            routes.add(new ArrayList<>(Collections.singletonList(src)));
+            routeWeights.add(0.0);
+            outcome = SolverOutcome.SOLVED;
+        } else {
+            outcome = search(source, target, k);
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    private SolverOutcome search(int source, int target, int k) {
+        Tree forward = new Tree(source, true);
+        if (!forward.grow(Double.POSITIVE_INFINITY, target)) {
+            return stopReason;
+        }
+        if (!forward.settled[target]) {
+            return SolverOutcome.UNSOLVABLE;
+        }
+        double best = forward.dist[target];
+        double bound = best * (1 + STRETCH);
+        Tree backward = new Tree(target, false);
+        if (!forward.grow(bound, -1) || !backward.grow(bound, -1)) {
+            return stopReason;
+        }
+
+        int n = compact.vertexCount();
+        boolean[] onRoute = new boolean[n];
+        boolean[] usedEdges = new boolean[compact.edgeCount()];
+        accept(forward.edges(target), best, onRoute, usedEdges);
+
+        /* How much of the tree path to each vertex lies on the best route, so most candidates
+           that share too much of it are dropped without building their routes. */
+        double[] sharedForward = forward.sharedWith(usedEdges);
+        double[] sharedBackward = backward.sharedWith(usedEdges);
+        /* A plateau is a path in both trees, and the route through each of its vertices is
+           the same, so only its first vertex is a candidate. Routes with long plateaus are
+           tried first, since a route is a shortest path along its plateau and a little past
+           either end, which often makes it locally optimal without a search. */
+        double[] plateau = new double[n];
+        List<Integer> candidates = new ArrayList<>();
+        for (int v = 0; v < n; v++) {
+            if (forward.settled[v] && backward.settled[v] && !onRoute[v]
+                    && !forward.onPlateau(v, backward)
+                    && forward.dist[v] + backward.dist[v] <= bound
+                    && sharedForward[v] + sharedBackward[v] <= SHARING * best) {
+                plateau[v] = forward.plateauLength(v, backward);
+                candidates.add(v);
+            }
+        }
+        candidates.sort((v, w) -> Double.compare(
+                forward.dist[v] + backward.dist[v] - plateau[v],
+                forward.dist[w] + backward.dist[w] - plateau[w]));
+
+        int[] seen = new int[n];
+        int stamp = 0;
+        for (int v : candidates) {
+            if (routes.size() >= k || stamp == MAX_CANDIDATES) {
+                break;
+            }
+            if (stopReason != null) {
+                break;
+            }
+            if (onRoute[v]) {
+                continue;
+            }
+            List<Integer> edges = forward.edges(v);
+            int via = edges.size();
+            edges.addAll(backward.edges(v));
+
+            stamp += 1;
+            boolean simple = true;
+            seen[source] = stamp;
+            double shared = 0;
+            for (int e : edges) {
+                int head = compact.head(e);
+                if (seen[head] == stamp) {
+                    simple = false;
+                    break;
+                }
+                seen[head] = stamp;
+                if (usedEdges[e]) {
+                    shared += weights[e];
+                }
+            }
+            if (simple && shared <= SHARING * best
+                    && isLocallyOptimal(edges, via, LOCAL_OPTIMALITY * best, forward, backward)) {
+                accept(edges, forward.dist[v] + backward.dist[v], onRoute, usedEdges);
+            }
+        }
+        return stopReason == SolverOutcome.CANCELLED ? stopReason : SolverOutcome.SOLVED;
+    }
+
+    /** Adds the route along EDGES, of weight WEIGHT, and marks its vertices and edges. */
+    private void accept(List<Integer> edges, double weight, boolean[] onRoute,
+                        boolean[] usedEdges) {
+        List<Long> route = new ArrayList<>();
+        int first = compact.tail(edges.get(0));
+        route.add(compact.id(first));
+        onRoute[first] = true;
+        for (int e : edges) {
+            route.add(compact.id(compact.head(e)));
+            onRoute[compact.head(e)] = true;
+            usedEdges[e] = true;
+        }
+        routes.add(route);
+        routeWeights.add(weight);
+    }
+
+    /**
+     * Returns whether the route along EDGES, which passes its via vertex after the first VIA
+     * edges, is a shortest path from the vertex at least T before the via vertex to the vertex
+     * at least T after it, or from the ends of the route if they are closer. Both halves are
+     * shortest paths already, being tree paths, so only the whole needs checking, and that
+     * takes an A* search, bounded by the route's length, only if neither tree shows it is a
+     * shortest path. Once MAX_LOCAL_SEARCHES searches are used up, routes that need one fail.
+     */
+    private boolean isLocallyOptimal(List<Integer> edges, int via, double t, Tree forward,
+                                     Tree backward) {
+        int from = via;
+        double before = 0;
+        while (from > 0 && before < t) {
+            from -= 1;
+            before += weights[edges.get(from)];
+        }
+        int to = via;
+        double after = 0;
+        while (to < edges.size() && after < t) {
+            after += weights[edges.get(to)];
+            to += 1;
+        }
+        if (from == via || to == via) {
+            return true;
+        }
+        double length = before + after;
+        double bound = length * (1 - EPSILON);
+        int start = compact.tail(edges.get(from));
+        int goal = compact.head(edges.get(to - 1));
+        /* No path from start to goal is shorter than the difference of their distances from
+           the source, or to the destination. */
+        if (forward.settled[goal] && forward.dist[goal] - forward.dist[start] >= bound
+                || backward.settled[start]
+                && backward.dist[start] - backward.dist[goal] >= bound) {
+            return true;
+        }
+        if (searchesLeft == 0) {
+            return false;
+        }
+        searchesLeft -= 1;
+        PriorityQueue<Integer> pq = QUEUE.create(resolution);
+        Map<Integer, Double> distTo = new HashMap<>();
+        pq.insert(start, 0);
+        distTo.put(start, 0.0);
+        while (pq.size() > 0) {
+            int v = pq.poll();
+            double d = distTo.get(v);
+            if (shouldStop()) {
+                return false;
+            }
+            if (v == goal) {
+                return d >= bound;
+            }
+            for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                int w = compact.head(e);
+                double dw = d + weights[e];
+                double priority = dw + weightPerMile * StreetMapGraph.distance(compact.lon(w),
+                        compact.lon(goal), compact.lat(w), compact.lat(goal));
+                if (priority < bound && (!distTo.containsKey(w) || dw < distTo.get(w))) {
+                    distTo.put(w, dw);
+                    if (pq.contains(w)) {
+                        pq.changePriority(w, priority);
+                    } else {
+                        pq.insert(w, priority);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts a settled vertex and asks the token whether to stop every CHECK_INTERVAL of
+     * them, keeping its answer in stopReason.
+     */
+    private boolean shouldStop() {
+        numStatesExplored += 1;
+        if (stopReason == null && numStatesExplored % CancellationToken.CHECK_INTERVAL == 0) {
+            stopReason = token.stopReason();
+        }
+        return stopReason != null;
+    }
+
+    /**
+     * A shortest path tree grown from a root, forward along edges from a source or backward
+     * along them into a destination, over the dense vertex ids of the CompactGraph.
+     */
+    private class Tree {
+        private final boolean forward;
+        private final double[] dist;
+        /** The tree edge at each vertex: into it when forward, out of it when backward. */
+        private final int[] parent;
+        private final boolean[] settled;
+        /** The settled vertices in the order they were settled, parents before children. */
+        private final int[] order;
+        private int settledCount;
+        private final PriorityQueue<Integer> pq = QUEUE.create(resolution);
+
+        Tree(int root, boolean forward) {
+            this.forward = forward;
+            int n = compact.vertexCount();
+            dist = new double[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            parent = new int[n];
+            Arrays.fill(parent, -1);
+            settled = new boolean[n];
+            order = new int[n];
+            dist[root] = 0;
+            pq.insert(root, 0);
+        }
+
+        /**
+         * Settles vertices until the next one is farther than BOUND or STOP has been settled,
+         * and returns false if the token said to stop first. Can be called again with a
+         * larger bound to grow the tree further.
+         */
+        boolean grow(double bound, int stop) {
+            while (pq.size() > 0 && dist[pq.peek()] <= bound) {
+                if (shouldStop()) {
+                    return false;
+                }
+                int v = pq.poll();
+                settled[v] = true;
+                order[settledCount++] = v;
+                if (forward) {
+                    for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                        relax(e, compact.head(e), dist[v] + weights[e]);
+                    }
+                } else {
+                    for (int i = compact.firstInEdge(v); i < compact.firstInEdge(v + 1); i++) {
+                        int e = compact.inEdge(i);
+                        relax(e, compact.tail(e), dist[v] + weights[e]);
+                    }
+                }
+                if (v == stop) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        private void relax(int e, int w, double d) {
+            if (settled[w] || d >= dist[w] || d == Double.POSITIVE_INFINITY) {
+                return;
+            }
+            dist[w] = d;
+            parent[w] = e;
+            if (pq.contains(w)) {
+                pq.changePriority(w, d);
+            } else {
+                pq.insert(w, d);
+            }
+        }
+
+        /**
+         * Returns whether V is on a plateau of this forward tree and the BACKWARD tree past
+         * its first vertex: whether the edge into V of this tree is also the edge out of its
+         * tail of the backward tree. The route through any vertex of a plateau is the same,
+         * so only the first one needs to be a candidate.
+         */
+        boolean onPlateau(int v, Tree backward) {
+            int e = parent[v];
+            return e >= 0 && backward.parent[compact.tail(e)] == e;
+        }
+
+        /**
+         * Returns the weight of the plateau of this forward tree and the BACKWARD tree that
+         * starts at V: how far the backward tree path from V runs along this tree.
+         */
+        double plateauLength(int v, Tree backward) {
+            double length = 0;
+            for (int e = backward.parent[v]; e >= 0 && parent[compact.head(e)] == e;
+                 e = backward.parent[v]) {
+                length += weights[e];
+                v = compact.head(e);
+            }
+            return length;
+        }
+
+        /** Returns the tree edges between the root and V, in the order a route takes them. */
+        List<Integer> edges(int v) {
+            List<Integer> edges = new ArrayList<>();
+            for (int e = parent[v]; e >= 0; e = parent[v]) {
+                edges.add(e);
+                v = forward ? compact.tail(e) : compact.head(e);
+            }
+            if (forward) {
+                Collections.reverse(edges);
+            }
+            return edges;
+        }
+
+        /**
+         * Returns, for each settled vertex, the weight of the start of its tree path that runs
+         * along marked edges from the root: a lower bound on how much of the path a route
+         * along the marked edges shares.
+         */
+        double[] sharedWith(boolean[] marked) {
+            double[] shared = new double[dist.length];
+            for (int i = 0; i < settledCount; i++) {
+                int v = order[i];
+                int e = parent[v];
+                if (e < 0) {
+                    continue;
+                }
+                int p = forward ? compact.tail(e) : compact.head(e);
+                shared[v] = marked[e] && shared[p] == dist[p] ? dist[v] : shared[p];
+            }
+            return shared;
+        }
+    }
+
+    /** Returns every route found, the best first, as lists of vertex ids. */
+    public List<List<Long>> routes() {
+        return routes;
+    }
+
+    /** Returns the weight of each route in routes(), in miles or seconds. */
+    public List<Double> routeWeights() {
+        return routeWeights;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Long> solution() {
+        return routes.isEmpty() ? new ArrayList<>() : routes.get(0);
+    }
+
+    @Override
+    public double solutionWeight() {
+        return routeWeights.isEmpty() ? 0 : routeWeights.get(0);
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
@@ -0,0 +1,134 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.QueueType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An A* search over the CompactGraph of a StreetMapGraph that only follows edges whose arc
+ * flags allow the destination's region; see ArcFlags. It finds a route as good as
+ * AStarSolver's on the same weights while settling far fewer vertices once the search has
+ * left the source's region, in exchange for preprocessing the graph once per weighting.
+ * Like TravelTimeGraph, oneway tags and turn restrictions are not applied.
+ */
+public class ArcFlagSolver implements ShortestPathsSolver<Long> {
+
+    /** The kind of queue searches use, from the bearmaps.route.queue system property. */
+    private static final QueueType QUEUE = QueueType.forQuery("route");
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private final List<Long> solution = new ArrayList<>();
+    private int numStatesExplored;
+    private double explorationTime;
+
+    /**
+     * Finds the best route from SRC to DEST in GRAPH, weighted by distance if PROFILE is null
+     * and otherwise by travel time under PROFILE when leaving at HOUR. Gives up with outcome
+     * TIMEOUT after TIMEOUT seconds.
+     */
+    public ArcFlagSolver(StreetMapGraph graph, long src, long dest, SpeedProfile profile,
+                         int hour, double timeout) {
+        this(graph, src, dest, profile, hour, CancellationToken.withTimeout(timeout));
+    }
+
+    /** Finds the best route like the constructor above, until TOKEN says to stop. */
+    public ArcFlagSolver(StreetMapGraph graph, long src, long dest, SpeedProfile profile,
+                         int hour, CancellationToken token) {
+        long startTime = System.nanoTime();
+        CompactGraph compact = graph.compactGraph();
+        double[] weights = graph.edgeWeights(profile, hour);
+        double weightPerMile = graph.weightPerMile(profile, hour);
+        ArcFlags flags = graph.arcFlags(profile, hour);
+        double resolution = graph.queueResolution(profile, hour);
+        int source = compact.index(src);
+        int target = compact.index(dest);
+        outcome = SolverOutcome.UNSOLVABLE;
+        if (source < 0 || target < 0) {
+            explorationTime = (System.nanoTime() - startTime) / 1e9;
+            return;
+        }
+        int region = flags.region(target);
+
+        PriorityQueue<Integer> pq = QUEUE.create(resolution);
+        Map<Integer, Double> distTo = new HashMap<>();
+        Map<Integer, Integer> edgeTo = new HashMap<>();
+        pq.insert(source, 0);
+        distTo.put(source, 0.0);
+        while (pq.size() > 0) {
+            int v = pq.poll();
+            numStatesExplored += 1;
+            if (v == target) {
+                outcome = SolverOutcome.SOLVED;
+                solutionWeight = distTo.get(v);
+                for (int w = target; w != source; w = compact.tail(edgeTo.get(w))) {
+                    solution.add(compact.id(w));
+                }
+                solution.add(src);
+                Collections.reverse(solution);
+                break;
+            }
+            if (numStatesExplored % CancellationToken.CHECK_INTERVAL == 0) {
+                SolverOutcome stop = token.stopReason();
+                if (stop != null) {
+                    outcome = stop;
+                    break;
+                }
+            }
+            double d = distTo.get(v);
+            for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                if (!flags.allows(e, region)) {
+                    continue;
+                }
+                int w = compact.head(e);
+                double dw = d + weights[e];
+                if (dw == Double.POSITIVE_INFINITY || distTo.containsKey(w) && dw >= distTo.get(w)) {
+                    continue;
+                }
+                distTo.put(w, dw);
+                edgeTo.put(w, e);
+                double priority = dw + weightPerMile * StreetMapGraph.distance(compact.lon(w),
+                        compact.lon(target), compact.lat(w), compact.lat(target));
+                if (pq.contains(w)) {
+                    pq.changePriority(w, priority);
+                } else {
+                    pq.insert(w, priority);
+                }
+            }
+        }
+        explorationTime = (System.nanoTime() - startTime) / 1e9;
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Long> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
@@ -0,0 +1,432 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Arc flags for the edges of a StreetMapGraph under one weighting, which let a search skip
+ * edges that cannot be on a best route into the destination's region.
+ *
+ * The vertices are split into regions by a KD-tree over their projected coordinates: each
+ * cell is cut in two at the median of its longer side until there are regionCount() cells.
+ * Edge e gets the flag of region R if it lies inside R or on a best route to some vertex of
+ * R, which holds if it is on a best route to one of R's boundary vertices, those with an edge
+ * in from another region. One backward search from each boundary vertex finds those edges.
+ * A search for a destination in R then only follows edges flagged for R, and still finds a
+ * best route.
+ *
+ * The flags of an edge are the bits of one long, indexed by edge id like the arrays of
+ * CompactGraph, so there are at most MAX_REGIONS regions. Finding the flags takes a search
+ * per boundary vertex, so they are kept in a file under the directory named by the
+ * bearmaps.arcflags.dir system property if it is set, and read back instead of found again
+ * when the graph and weights have not changed.
+ */
+public class ArcFlags {
+
+    /** The most regions there can be, one per bit of a long. */
+    public static final int MAX_REGIONS = Long.SIZE;
+
+    /** The number of regions, from the bearmaps.arcflags.regions system property. */
+    public static final int REGIONS = Math.min(MAX_REGIONS,
+            Integer.getInteger("bearmaps.arcflags.regions", 32));
+
+    /** The directory flag files are kept in, or null to not keep them. */
+    private static final String DIRECTORY = System.getProperty("bearmaps.arcflags.dir");
+
+    /** The first int of a flag file, and the version of its format. */
+    private static final int MAGIC = 0x41524346;
+    private static final int VERSION = 1;
+
+    /** How far a sum of weights may be off a distance and still count as equal to it. */
+    private static final double EPSILON = 1e-9;
+
+    private final int regionCount;
+    private final int[] regions;
+    private final long[] flags;
+    private final long fingerprint;
+
+    private ArcFlags(int regionCount, int[] regions, long[] flags, long fingerprint) {
+        this.regionCount = regionCount;
+        this.regions = regions;
+        this.flags = flags;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Finds the flags of GRAPH's edges for REGION_COUNT regions, weighted by distance if
+     * PROFILE is null and otherwise by travel time under PROFILE when leaving at HOUR. The
+     * searches are split among as many threads as there are processors.
+     */
+    public static ArcFlags compute(StreetMapGraph graph, SpeedProfile profile, int hour,
+                                   int regionCount) {
+        if (regionCount < 1 || regionCount > MAX_REGIONS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_REGIONS
+                    + " regions are supported, not " + regionCount);
+        }
+        CompactGraph compact = graph.compactGraph();
+        double[] weights = graph.edgeWeights(profile, hour);
+        int[] regions = partition(compact, regionCount);
+        long[] flags = new long[compact.edgeCount()];
+        for (int e = 0; e < flags.length; e++) {
+            if (regions[compact.tail(e)] == regions[compact.head(e)]) {
+                flags[e] = 1L << regions[compact.head(e)];
+            }
+        }
+
+        List<Integer> boundary = new ArrayList<>();
+        for (int v = 0; v < compact.vertexCount(); v++) {
+            for (int i = compact.firstInEdge(v); i < compact.firstInEdge(v + 1); i++) {
+                if (regions[compact.tail(compact.inEdge(i))] != regions[v]) {
+                    boundary.add(v);
+                    break;
+                }
+            }
+        }
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                boundary.size()));
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "arc-flags-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<long[]>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                tasks.add(executor.submit(() -> {
+                    BoundarySearch search = new BoundarySearch(compact, weights, regions);
+                    for (int i = first; i < boundary.size(); i += threads) {
+                        search.run(boundary.get(i));
+                    }
+                    return search.flags;
+                }));
+            }
+            for (Future<long[]> task : tasks) {
+                long[] found = task.get();
+                for (int e = 0; e < flags.length; e++) {
+                    flags[e] |= found[e];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while finding arc flags", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not find arc flags", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return new ArcFlags(regionCount, regions, flags, fingerprint(compact, weights));
+    }
+
+    /**
+     * Returns the flags for GRAPH weighted as in compute, with REGIONS regions: read from the
+     * flag file for the weighting KEY if there is one for this graph and these weights, and
+     * otherwise found and written to that file.
+     */
+    static ArcFlags load(StreetMapGraph graph, SpeedProfile profile, int hour, String key) {
+        Path path = DIRECTORY == null ? null : Paths.get(DIRECTORY,
+                "arcflags" + (key.isEmpty() ? "" : "-" + key.replaceAll("[^A-Za-z0-9_-]", "_"))
+                        + ".bin");
+        if (path != null) {
+            try {
+                ArcFlags flags = read(path, graph, profile, hour);
+                if (flags != null && flags.regionCount == REGIONS) {
+                    return flags;
+                }
+            } catch (IOException e) {
+                System.out.println("Could not read arc flags from " + path + ": " + e);
+            }
+        }
+        ArcFlags flags = compute(graph, profile, hour, REGIONS);
+        if (path != null) {
+            try {
+                flags.write(path);
+            } catch (IOException e) {
+                System.out.println("Could not write arc flags to " + path + ": " + e);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Writes these flags to PATH, replacing any file there only once the whole file is
+     * written, so that a server reading it never sees half of it.
+     */
+    public void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(regionCount);
+                out.writeInt(regions.length);
+                out.writeInt(flags.length);
+                for (int region : regions) {
+                    out.writeByte(region);
+                }
+                for (long f : flags) {
+                    out.writeLong(f);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the flags written to PATH, or returns null if there is no file there or it was
+     * written for another graph or other weights than GRAPH weighted as in compute.
+     */
+    public static ArcFlags read(Path path, StreetMapGraph graph, SpeedProfile profile, int hour)
+            throws IOException {
+        CompactGraph compact = graph.compactGraph();
+        long expected = fingerprint(compact, graph.edgeWeights(profile, hour));
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != expected) {
+                return null;
+            }
+            int regionCount = in.readInt();
+            if (in.readInt() != compact.vertexCount() || in.readInt() != compact.edgeCount()) {
+                return null;
+            }
+            int[] regions = new int[compact.vertexCount()];
+            for (int v = 0; v < regions.length; v++) {
+                regions[v] = in.readUnsignedByte();
+            }
+            long[] flags = new long[compact.edgeCount()];
+            for (int e = 0; e < flags.length; e++) {
+                flags[e] = in.readLong();
+            }
+            return new ArcFlags(regionCount, regions, flags, expected);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public int regionCount() {
+        return regionCount;
+    }
+
+    /** Returns the region of dense vertex V. */
+    public int region(int v) {
+        return regions[v];
+    }
+
+    /** Returns whether edge E may be on a best route to a vertex of REGION. */
+    public boolean allows(int e, int region) {
+        return (flags[e] & (1L << region)) != 0;
+    }
+
+    /** Returns the flags of edge E, with bit R set if E may be on a best route into region R. */
+    public long flags(int e) {
+        return flags[e];
+    }
+
+    /** Returns a hash of GRAPH's vertices and edges and their WEIGHTS, to tell flag files apart. */
+    private static long fingerprint(CompactGraph graph, double[] weights) {
+        long hash = graph.vertexCount() * 31L + graph.edgeCount();
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            hash = hash * 31 + graph.id(v);
+        }
+        for (int e = 0; e < graph.edgeCount(); e++) {
+            hash = (hash * 31 + graph.head(e)) * 31 + Double.doubleToLongBits(weights[e]);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the region of each vertex of GRAPH, splitting REGION_COUNT regions of about the
+     * same number of vertices by a KD-tree over their projected coordinates.
+     */
+    private static int[] partition(CompactGraph graph, int regionCount) {
+        int n = graph.vertexCount();
+        double meanLat = 0;
+        for (int v = 0; v < n; v++) {
+            meanLat += graph.lat(v) / n;
+        }
+        /* Scale longitudes so a degree east is as long as a degree north near the graph. */
+        double lonScale = Math.cos(Math.toRadians(meanLat));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v++) {
+            x[v] = graph.lon(v) * lonScale;
+            y[v] = graph.lat(v);
+            order[v] = v;
+        }
+        int[] regions = new int[n];
+        split(order, 0, n, 0, regionCount, x, y, regions);
+        return regions;
+    }
+
+    /**
+     * Assigns the vertices ORDER[LO] to ORDER[HI - 1] to the COUNT regions from FIRST on,
+     * cutting them across their longer side so that each half gets vertices in proportion to
+     * its number of regions.
+     */
+    private static void split(Integer[] order, int lo, int hi, int first, int count,
+                              double[] x, double[] y, int[] regions) {
+        if (count == 1 || hi - lo <= 1) {
+            for (int i = lo; i < hi; i++) {
+                regions[order[i]] = first;
+            }
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            minX = Math.min(minX, x[order[i]]);
+            maxX = Math.max(maxX, x[order[i]]);
+            minY = Math.min(minY, y[order[i]]);
+            maxY = Math.max(maxY, y[order[i]]);
+        }
+        double[] axis = maxX - minX >= maxY - minY ? x : y;
+        Arrays.sort(order, lo, hi, (v, w) -> Double.compare(axis[v], axis[w]));
+        int left = count / 2;
+        int mid = lo + (int) ((long) (hi - lo) * left / count);
+        split(order, lo, mid, first, left, x, y, regions);
+        split(order, mid, hi, first + left, count - left, x, y, regions);
+    }
+
+    /**
+     * A Dijkstra search backward from one boundary vertex at a time, which flags every edge
+     * on a best route into it with the vertex's region. Its arrays are reused from one
+     * boundary vertex to the next, resetting only the entries the last search touched.
+     *
+     * Every boundary vertex searches the whole graph, so rather than a MinHeapPQ, whose
+     * boxed items and position map dominate a search this size, the queue is a binary heap
+     * of vertex and distance in two arrays. A vertex whose distance drops is pushed again
+     * and its stale entries are skipped when popped.
+     */
+    private static class BoundarySearch {
+        private final CompactGraph graph;
+        private final double[] weights;
+        private final int[] regions;
+        private final double[] dist;
+        private final boolean[] settled;
+        private final List<Integer> touched = new ArrayList<>();
+        /** The flags found by every search this one has run. */
+        private final long[] flags;
+        private int[] heapVertices = new int[64];
+        private double[] heapKeys = new double[64];
+        private int heapSize;
+
+        BoundarySearch(CompactGraph graph, double[] weights, int[] regions) {
+            this.graph = graph;
+            this.weights = weights;
+            this.regions = regions;
+            this.dist = new double[graph.vertexCount()];
+            this.settled = new boolean[graph.vertexCount()];
+            this.flags = new long[graph.edgeCount()];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        }
+
+        /** Flags the edges on best routes into boundary vertex B. */
+        void run(int b) {
+            long flag = 1L << regions[b];
+            dist[b] = 0;
+            touched.add(b);
+            push(b, 0);
+            while (heapSize > 0) {
+                int v = pop();
+                if (settled[v]) {
+                    continue;
+                }
+                settled[v] = true;
+                for (int i = graph.firstInEdge(v); i < graph.firstInEdge(v + 1); i++) {
+                    int e = graph.inEdge(i);
+                    int u = graph.tail(e);
+                    double d = dist[v] + weights[e];
+                    if (settled[u] || d >= dist[u]) {
+                        continue;
+                    }
+                    if (dist[u] == Double.POSITIVE_INFINITY) {
+                        touched.add(u);
+                    }
+                    dist[u] = d;
+                    push(u, d);
+                }
+            }
+
+            /* Flag every edge that is tight, not just the tree edges, so that each best
+               route survives however ties are broken. */
+            for (int v : touched) {
+                for (int i = graph.firstInEdge(v); i < graph.firstInEdge(v + 1); i++) {
+                    int e = graph.inEdge(i);
+                    int u = graph.tail(e);
+                    if (dist[u] < Double.POSITIVE_INFINITY
+                            && dist[v] + weights[e] <= dist[u] + EPSILON * Math.max(1, dist[u])) {
+                        flags[e] |= flag;
+                    }
+                }
+            }
+            for (int v : touched) {
+                dist[v] = Double.POSITIVE_INFINITY;
+                settled[v] = false;
+            }
+            touched.clear();
+        }
+
+        private void push(int v, double key) {
+            if (heapSize == heapVertices.length) {
+                heapVertices = Arrays.copyOf(heapVertices, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0 && heapKeys[(i - 1) / 2] > key) {
+                heapVertices[i] = heapVertices[(i - 1) / 2];
+                heapKeys[i] = heapKeys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heapVertices[i] = v;
+            heapKeys[i] = key;
+        }
+
+        private int pop() {
+            int top = heapVertices[0];
+            heapSize -= 1;
+            int v = heapVertices[heapSize];
+            double key = heapKeys[heapSize];
+            int i = 0;
+            while (2 * i + 1 < heapSize) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                    child += 1;
+                }
+                if (heapKeys[child] >= key) {
+                    break;
+                }
+                heapVertices[i] = heapVertices[child];
+                heapKeys[i] = heapKeys[child];
+                i = child;
+            }
+            heapVertices[i] = v;
+            heapKeys[i] = key;
+            return top;
+        }
+    }
+}
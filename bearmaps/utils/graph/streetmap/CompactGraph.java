@@ -0,0 +1,249 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The vertices and edges of a StreetMapGraph in flat arrays, for algorithms that keep
+ * per-vertex or per-edge state and would otherwise need a hash map entry for each. Vertices
+ * get dense ids from 0 to vertexCount() - 1 in order of their OSM ids, and the edges out of
+ * vertex v are the edge ids from firstEdge(v) up to firstEdge(v + 1), in compressed sparse
+ * row form. The edges into v are indexed the same way, by inEdge(i) for i from firstInEdge(v)
+ * up to firstInEdge(v + 1), for searches that run backwards from a destination. Get one from
+ * StreetMapGraph.compactGraph, which makes it once per graph.
+ *
+ * Each vertex is also labelled with its strongly connected component, found by Tarjan's
+ * algorithm when the graph is made, so that a route between vertices of different components
+ * can be known not to exist without searching. Components are those of the edges here, on
+ * which every way can be taken both ways; routes that obey oneway tags or avoid some edges
+ * may still not exist between vertices of the same component.
+ */
+public class CompactGraph {
+
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final int[] firstEdge;
+    private final int[] tails;
+    private final int[] heads;
+    private final StreetEdge[] edges;
+    private final int[] firstInEdge;
+    private final int[] inEdges;
+    private final int[] componentIds;
+    private final int[] componentSizes;
+    private final int largestComponent;
+
+    CompactGraph(StreetMapGraph graph) {
+        List<Node> nodes = graph.getNodes();
+        int n = nodes.size();
+        ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nodes.get(i).id();
+        }
+        Arrays.sort(ids);
+        lons = new double[n];
+        lats = new double[n];
+        firstEdge = new int[n + 1];
+        StreetEdge[][] out = new StreetEdge[n][];
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            lons[v] = graph.lon(ids[v]);
+            lats[v] = graph.lat(ids[v]);
+            List<WeightedEdge<Long>> neighbors = graph.neighbors(ids[v]);
+            out[v] = neighbors.toArray(new StreetEdge[0]);
+            Arrays.sort(out[v], Comparator.comparingLong((StreetEdge e) -> e.to())
+                    .thenComparingLong(StreetEdge::wayId));
+            m += out[v].length;
+        }
+        tails = new int[m];
+        heads = new int[m];
+        edges = new StreetEdge[m];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            firstEdge[v] = e;
+            for (StreetEdge edge : out[v]) {
+                tails[e] = v;
+                heads[e] = index(edge.to());
+                edges[e] = edge;
+                e++;
+            }
+        }
+        firstEdge[n] = e;
+        firstInEdge = new int[n + 1];
+        for (int i = 0; i < m; i++) {
+            firstInEdge[heads[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            firstInEdge[v + 1] += firstInEdge[v];
+        }
+        inEdges = new int[m];
+        int[] next = Arrays.copyOf(firstInEdge, n);
+        for (int i = 0; i < m; i++) {
+            inEdges[next[heads[i]]++] = i;
+        }
+
+        componentIds = new int[n];
+        int count = labelComponents();
+        componentSizes = new int[count];
+        for (int v = 0; v < n; v++) {
+            componentSizes[componentIds[v]]++;
+        }
+        int largest = 0;
+        for (int c = 1; c < count; c++) {
+            if (componentSizes[c] > componentSizes[largest]) {
+                largest = c;
+            }
+        }
+        largestComponent = largest;
+    }
+
+    /**
+     * Labels each vertex with its strongly connected component in componentIds, and returns
+     * the number of components. Tarjan's algorithm, with the recursion kept on an explicit
+     * stack of vertices and the next edge of each to follow, since a long road can make the
+     * depth first search as deep as the graph is large.
+     */
+    private int labelComponents() {
+        int n = ids.length;
+        int[] order = new int[n];
+        Arrays.fill(order, -1);
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callVertices = new int[n];
+        int[] callEdges = new int[n];
+        int stackSize = 0;
+        int visited = 0;
+        int count = 0;
+        for (int s = 0; s < n; s++) {
+            if (order[s] >= 0) {
+                continue;
+            }
+            order[s] = low[s] = visited++;
+            stack[stackSize++] = s;
+            onStack[s] = true;
+            callVertices[0] = s;
+            callEdges[0] = firstEdge[s];
+            int depth = 1;
+            while (depth > 0) {
+                int v = callVertices[depth - 1];
+                if (callEdges[depth - 1] < firstEdge[v + 1]) {
+                    int w = heads[callEdges[depth - 1]++];
+                    if (order[w] < 0) {
+                        order[w] = low[w] = visited++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callVertices[depth] = w;
+                        callEdges[depth] = firstEdge[w];
+                        depth += 1;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+                depth -= 1;
+                if (low[v] == order[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        componentIds[w] = count;
+                    } while (w != v);
+                    count += 1;
+                }
+                if (depth > 0) {
+                    int u = callVertices[depth - 1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+            }
+        }
+        return count;
+    }
+
+    public int vertexCount() {
+        return ids.length;
+    }
+
+    public int edgeCount() {
+        return edges.length;
+    }
+
+    /** Returns the dense id of the vertex with OSM id ID, or -1 if it is not in the graph. */
+    public int index(long id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -1;
+    }
+
+    /** Returns the OSM id of dense vertex V. */
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    /** Returns the id of the first edge out of V; the edges out of V end at firstEdge(V + 1). */
+    public int firstEdge(int v) {
+        return firstEdge[v];
+    }
+
+    /**
+     * Returns the index of the first edge into V for inEdge; the edges into V end at
+     * firstInEdge(V + 1).
+     */
+    public int firstInEdge(int v) {
+        return firstInEdge[v];
+    }
+
+    /** Returns the edge id of the I-th edge into a vertex, counting the edges into all of them. */
+    public int inEdge(int i) {
+        return inEdges[i];
+    }
+
+    /** Returns the dense id of the vertex edge E leaves. */
+    public int tail(int e) {
+        return tails[e];
+    }
+
+    /** Returns the dense id of the vertex edge E enters. */
+    public int head(int e) {
+        return heads[e];
+    }
+
+    /** Returns the length of edge E in miles. */
+    public double weight(int e) {
+        return edges[e].weight();
+    }
+
+    /** Returns the strongly connected component of dense vertex V, from 0 to componentCount(). */
+    public int component(int v) {
+        return componentIds[v];
+    }
+
+    public int componentCount() {
+        return componentSizes.length;
+    }
+
+    /** Returns the number of vertices in component C. */
+    public int componentSize(int c) {
+        return componentSizes[c];
+    }
+
+    /** Returns the component with the most vertices. */
+    public int largestComponent() {
+        return largestComponent;
+    }
+
+    /** Returns edge E with its attributes. */
+    public StreetEdge edge(int e) {
+        return edges[e];
+    }
+}
@@ -0,0 +1,251 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.QueueType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The cost of the best route between every pair of a list of stops on a StreetMapGraph, for
+ * ordering the stops. Each stop gets one search, which runs until every other stop is
+ * settled, instead of one search per pair. Each search keeps the part of its shortest path
+ * tree that reaches the other stops, so the route between any two stops can be read back
+ * afterwards without searching again.
+ *
+ * Weights are those of StreetMapGraph.edgeWeights; oneway tags and turn restrictions are not
+ * applied.
+ */
+public class CostMatrix {
+
+    /** The kind of queue the searches use, from the bearmaps.matrix.queue system property. */
+    private static final QueueType QUEUE = QueueType.forQuery("matrix");
+
+    private final CompactGraph compact;
+    private final double[] weights;
+    private final double resolution;
+    private final int[] stops;
+    private final double[][] costs;
+    /** For each stop, the previous vertex of each vertex on its best routes to the others. */
+    private final List<Map<Integer, Integer>> legTrees;
+    private final CancellationToken token;
+    /** Why the searches stopped early, or null if they did not. */
+    private volatile SolverOutcome stopReason;
+
+    /**
+     * Finds the costs between STOPS, given as vertex ids of GRAPH, weighted by distance if
+     * PROFILE is null and otherwise by travel time under PROFILE when leaving at HOUR. The
+     * searches are split among THREADS tasks run on EXECUTOR, and all stop once TOKEN says
+     * to, in which case outcome() says why and the costs must not be used.
+     */
+    public CostMatrix(StreetMapGraph graph, long[] stops, SpeedProfile profile, int hour,
+                      ExecutorService executor, int threads, CancellationToken token) {
+        this.compact = graph.compactGraph();
+        this.token = token;
+        this.weights = graph.edgeWeights(profile, hour);
+        this.resolution = graph.queueResolution(profile, hour);
+        this.stops = new int[stops.length];
+        for (int i = 0; i < stops.length; i++) {
+            this.stops[i] = compact.index(stops[i]);
+            if (this.stops[i] < 0) {
+                throw new IllegalArgumentException("Stop " + stops[i] + " is not in the graph");
+            }
+        }
+        this.costs = new double[stops.length][];
+        this.legTrees = new ArrayList<>(Collections.nCopies(stops.length, null));
+
+        List<Future<?>> tasks = new ArrayList<>();
+        int tasksToRun = Math.max(1, Math.min(threads, stops.length));
+        for (int t = 0; t < tasksToRun; t++) {
+            int first = t;
+            tasks.add(executor.submit(() -> {
+                Search search = new Search();
+                for (int i = first; i < stops.length && stopReason == null; i += tasksToRun) {
+                    search.run(i);
+                }
+            }));
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while finding costs", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not find costs", e.getCause());
+        }
+    }
+
+    /**
+     * Returns SOLVED if every search finished, whether or not every stop could be reached,
+     * and otherwise TIMEOUT or CANCELLED, as the token said.
+     */
+    public SolverOutcome outcome() {
+        return stopReason == null ? SolverOutcome.SOLVED : stopReason;
+    }
+
+    /** Returns the number of stops. */
+    public int size() {
+        return stops.length;
+    }
+
+    /** Returns the cost of the best route from stop I to stop J, or infinity if there is none. */
+    public double cost(int i, int j) {
+        return costs[i][j];
+    }
+
+    /** Returns the costs between all stops, indexed by the stops' positions. */
+    public double[][] costs() {
+        return costs;
+    }
+
+    /**
+     * Returns the best route from stop I to stop J as a list of vertex ids, like
+     * Router.shortestPath, or an empty list if there is none.
+     */
+    public List<Long> leg(int i, int j) {
+        List<Long> leg = new ArrayList<>();
+        if (costs[i][j] == Double.POSITIVE_INFINITY) {
+            return leg;
+        }
+        Map<Integer, Integer> tree = legTrees.get(i);
+        for (int v = stops[j]; v != stops[i]; v = tree.get(v)) {
+            leg.add(compact.id(v));
+        }
+        leg.add(compact.id(stops[i]));
+        Collections.reverse(leg);
+        return leg;
+    }
+
+    /**
+     * Returns the route visiting the stops in ORDER, back to the first stop at the end if
+     * ROUND_TRIP, with the legs between them joined. Returns an empty list if some stop in
+     * the order cannot be reached from the one before it.
+     */
+    public List<Long> route(int[] order, boolean roundTrip) {
+        List<Long> route = new ArrayList<>();
+        route.add(compact.id(stops[order[0]]));
+        int legs = roundTrip ? order.length : order.length - 1;
+        for (int k = 0; k < legs; k++) {
+            List<Long> leg = leg(order[k], order[(k + 1) % order.length]);
+            if (leg.isEmpty()) {
+                return new ArrayList<>();
+            }
+            route.addAll(leg.subList(1, leg.size()));
+        }
+        return route;
+    }
+
+    /**
+     * A Dijkstra search over dense vertex ids whose arrays are reused from one stop to the
+     * next, resetting only the entries the last search touched.
+     */
+    private class Search {
+        private final double[] dist = new double[compact.vertexCount()];
+        private final int[] parent = new int[compact.vertexCount()];
+        private final boolean[] settled = new boolean[compact.vertexCount()];
+        private final boolean[] isStop = new boolean[compact.vertexCount()];
+        private final List<Integer> touched = new ArrayList<>();
+        /** The number of different vertices among the stops, since stops may share one. */
+        private int stopVertices;
+
+        Search() {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            for (int s : stops) {
+                if (!isStop[s]) {
+                    isStop[s] = true;
+                    stopVertices += 1;
+                }
+            }
+        }
+
+        /**
+         * Finds the costs from stop I to every stop and keeps the tree of routes to them,
+         * unless the token says to stop first.
+         */
+        void run(int i) {
+            int source = stops[i];
+            int remaining = stopVertices;
+            PriorityQueue<Integer> pq = QUEUE.create(resolution);
+            dist[source] = 0;
+            parent[source] = -1;
+            touched.add(source);
+            pq.insert(source, 0);
+            int explored = 0;
+            while (pq.size() > 0 && remaining > 0) {
+                explored += 1;
+                if (explored % CancellationToken.CHECK_INTERVAL == 0 && stop()) {
+                    reset();
+                    return;
+                }
+                int v = pq.poll();
+                settled[v] = true;
+                if (isStop[v]) {
+                    remaining -= 1;
+                }
+                for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                    int w = compact.head(e);
+                    double d = dist[v] + weights[e];
+                    if (settled[w] || d >= dist[w]) {
+                        continue;
+                    }
+                    if (dist[w] == Double.POSITIVE_INFINITY) {
+                        touched.add(w);
+                    }
+                    dist[w] = d;
+                    parent[w] = v;
+                    if (pq.contains(w)) {
+                        pq.changePriority(w, d);
+                    } else {
+                        pq.insert(w, d);
+                    }
+                }
+            }
+
+            double[] row = new double[stops.length];
+            Map<Integer, Integer> tree = new HashMap<>();
+            for (int j = 0; j < stops.length; j++) {
+                int v = stops[j];
+                row[j] = settled[v] ? dist[v] : Double.POSITIVE_INFINITY;
+                if (!settled[v]) {
+                    continue;
+                }
+                while (v != source && !tree.containsKey(v)) {
+                    tree.put(v, parent[v]);
+                    v = parent[v];
+                }
+            }
+            costs[i] = row;
+            legTrees.set(i, tree);
+            reset();
+        }
+
+        /** Returns whether to stop, recording the token's reason for every task to see. */
+        private boolean stop() {
+            SolverOutcome reason = stopReason != null ? stopReason : token.stopReason();
+            if (reason != null) {
+                stopReason = reason;
+            }
+            return reason != null;
+        }
+
+        /** Clears the entries the last search touched. */
+        private void reset() {
+            for (int v : touched) {
+                dist[v] = Double.POSITIVE_INFINITY;
+                settled[v] = false;
+            }
+            touched.clear();
+        }
+    }
+}
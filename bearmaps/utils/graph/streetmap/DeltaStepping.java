@@ -0,0 +1,240 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the weight of the best route from one vertex to every other vertex of a
+ * StreetMapGraph on many cores, for analytics jobs that need one-to-all distances from
+ * thousands of sources. Uses delta-stepping: vertices are kept in buckets of width delta by
+ * tentative distance, and all vertices of the lowest nonempty bucket are relaxed at once on
+ * a ForkJoinPool rather than one at a time as in Dijkstra. Light edges, no heavier than
+ * delta, may put vertices back into the same bucket, so they are relaxed until the bucket
+ * stays empty; heavy edges can only reach later buckets, so they are relaxed once after.
+ *
+ * Distances live in an AtomicLongArray of the bits of doubles, lowered by compare-and-set.
+ * The bits of nonnegative doubles order like the doubles do, so no thread ever raises a
+ * distance another lowered. Weights are those of StreetMapGraph.edgeWeights; oneway tags and
+ * turn restrictions are not applied.
+ */
+public class DeltaStepping {
+
+    /** Frontiers smaller than this are relaxed by one task rather than split. */
+    private static final int SPLIT_THRESHOLD = 256;
+
+    /** The default bucket width as a multiple of the mean finite edge weight. */
+    private static final double DELTA_PER_MEAN_WEIGHT = 3;
+
+    private static final long INFINITY_BITS = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+
+    private final CompactGraph compact;
+    private final double[] weights;
+    private final ForkJoinPool pool;
+    private final double delta;
+
+    /**
+     * Prepares searches of GRAPH weighted by distance if PROFILE is null and otherwise by
+     * travel time under PROFILE when leaving at HOUR, run on the common ForkJoinPool with
+     * buckets a few edges wide.
+     */
+    public DeltaStepping(StreetMapGraph graph, SpeedProfile profile, int hour) {
+        this(graph, profile, hour, ForkJoinPool.commonPool(), 0);
+    }
+
+    /**
+     * Prepares searches like the constructor above, run on POOL with buckets DELTA wide, in
+     * miles or seconds, or a few edges wide if DELTA is 0. Wider buckets relax more vertices
+     * at once but relax some of them more than once.
+     */
+    public DeltaStepping(StreetMapGraph graph, SpeedProfile profile, int hour, ForkJoinPool pool,
+                         double delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("Bucket width must not be negative: " + delta);
+        }
+        this.compact = graph.compactGraph();
+        this.weights = graph.edgeWeights(profile, hour);
+        this.pool = pool;
+        this.delta = delta > 0 ? delta : defaultDelta(weights);
+    }
+
+    private static double defaultDelta(double[] weights) {
+        double sum = 0;
+        int count = 0;
+        for (double w : weights) {
+            if (w < Double.POSITIVE_INFINITY) {
+                sum += w;
+                count += 1;
+            }
+        }
+        return count == 0 || sum == 0 ? 1 : sum / count * DELTA_PER_MEAN_WEIGHT;
+    }
+
+    /** Returns the bucket width in use. */
+    public double delta() {
+        return delta;
+    }
+
+    /**
+     * Returns the weight of the best route from SOURCE to every vertex, indexed by the dense
+     * vertex ids of StreetMapGraph.compactGraph, and infinite for vertices it cannot reach.
+     * Several sources may be searched at once from different threads.
+     */
+    public double[] distances(long source) {
+        int s = compact.index(source);
+        if (s < 0) {
+            throw new IllegalArgumentException("Vertex " + source + " is not in the graph");
+        }
+        int n = compact.vertexCount();
+        AtomicLongArray dist = new AtomicLongArray(n);
+        for (int v = 0; v < n; v++) {
+            dist.set(v, INFINITY_BITS);
+        }
+        dist.set(s, Double.doubleToLongBits(0));
+        List<IntList> buckets = new ArrayList<>();
+        add(buckets, 0, s);
+        /* The bucket each vertex was last taken from, so each is relaxed once per round. */
+        int[] takenFrom = new int[n];
+        Arrays.fill(takenFrom, -1);
+        int[] round = new int[n];
+        int rounds = 0;
+
+        for (int i = 0; i < buckets.size(); i++) {
+            IntList settled = new IntList();
+            while (buckets.get(i) != null && buckets.get(i).size > 0) {
+                IntList bucket = buckets.get(i);
+                buckets.set(i, null);
+                rounds += 1;
+                IntList frontier = new IntList();
+                for (int k = 0; k < bucket.size; k++) {
+                    int v = bucket.items[k];
+                    /* Skip stale entries, whose vertex has since moved to an earlier bucket
+                       or was already taken this round. */
+                    if (round[v] == rounds || bucketOf(dist, v) != i) {
+                        continue;
+                    }
+                    round[v] = rounds;
+                    frontier.add(v);
+                    if (takenFrom[v] != i) {
+                        takenFrom[v] = i;
+                        settled.add(v);
+                    }
+                }
+                distribute(buckets, pool.invoke(new Relax(dist, frontier, 0, frontier.size, true)),
+                        dist);
+            }
+            if (settled.size > 0) {
+                distribute(buckets, pool.invoke(new Relax(dist, settled, 0, settled.size, false)),
+                        dist);
+            }
+        }
+
+        double[] result = new double[n];
+        for (int v = 0; v < n; v++) {
+            result[v] = Double.longBitsToDouble(dist.get(v));
+        }
+        return result;
+    }
+
+    /** Returns the bucket of V's tentative distance. */
+    private int bucketOf(AtomicLongArray dist, int v) {
+        return (int) (Double.longBitsToDouble(dist.get(v)) / delta);
+    }
+
+    /** Puts each vertex of IMPROVED into the bucket of its distance now. */
+    private void distribute(List<IntList> buckets, IntList improved, AtomicLongArray dist) {
+        for (int k = 0; k < improved.size; k++) {
+            int v = improved.items[k];
+            add(buckets, bucketOf(dist, v), v);
+        }
+    }
+
+    private static void add(List<IntList> buckets, int i, int v) {
+        while (buckets.size() <= i) {
+            buckets.add(null);
+        }
+        if (buckets.get(i) == null) {
+            buckets.set(i, new IntList());
+        }
+        buckets.get(i).add(v);
+    }
+
+    /**
+     * Relaxes the light or the heavy edges out of the vertices VERTICES[LO] to VERTICES[HI -
+     * 1], splitting them among subtasks, and returns the vertices whose distance it lowered.
+     */
+    private class Relax extends RecursiveTask<IntList> {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicLongArray dist;
+        private final IntList vertices;
+        private final int lo;
+        private final int hi;
+        private final boolean light;
+
+        Relax(AtomicLongArray dist, IntList vertices, int lo, int hi, boolean light) {
+            this.dist = dist;
+            this.vertices = vertices;
+            this.lo = lo;
+            this.hi = hi;
+            this.light = light;
+        }
+
+        @Override
+        protected IntList compute() {
+            if (hi - lo > SPLIT_THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                Relax left = new Relax(dist, vertices, lo, mid, light);
+                left.fork();
+                IntList improved = new Relax(dist, vertices, mid, hi, light).compute();
+                improved.addAll(left.join());
+                return improved;
+            }
+            IntList improved = new IntList();
+            for (int k = lo; k < hi; k++) {
+                int v = vertices.items[k];
+                double d = Double.longBitsToDouble(dist.get(v));
+                for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                    if ((weights[e] <= delta) != light) {
+                        continue;
+                    }
+                    int w = compact.head(e);
+                    long candidate = Double.doubleToLongBits(d + weights[e]);
+                    long current = dist.get(w);
+                    while (candidate < current) {
+                        if (dist.compareAndSet(w, current, candidate)) {
+                            improved.add(w);
+                            break;
+                        }
+                        current = dist.get(w);
+                    }
+                }
+            }
+            return improved;
+        }
+    }
+
+    /** A growable list of ints, to keep buckets and frontiers without boxing. */
+    private static class IntList {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = v;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > items.length) {
+                items = Arrays.copyOf(items, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.items, 0, items, size, other.size);
+            size += other.size;
+        }
+    }
+}
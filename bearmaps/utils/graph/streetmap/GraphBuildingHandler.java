@@ -27,24 +27,14 @@ import java.util.*;
  *  @author Alan Yao, Maurice Lee, with minor modifications by Lucas Pan for HW4, Spring 2019
  */
 public class GraphBuildingHandler extends DefaultHandler {
-    /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
-     */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
     private String activeState = "";
     private Node activeNode = null;
-    private boolean validWay = false;
+    private long wayID = 0;
     private List<Long> nodePath = new ArrayList<>();
+    private final WayTags wayTags = new WayTags();
+    private final RestrictionBuilder restriction = new RestrictionBuilder();
     private final StreetMapGraph g;
 
-    private String wayName = "";
-
     public GraphBuildingHandler(StreetMapGraph g) {
         this.g = g;
     }
@@ -79,6 +69,7 @@ public class GraphBuildingHandler extends DefaultHandler {
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
             activeState = "way";
+            wayID = Long.parseLong(attributes.getValue("id"));
 //            System.out.println("Beginning a way...");
         } else if (activeState.equals("way") && qName.equals("nd")) {
             /* While looking at a way, we found a <nd...> tag. */
@@ -86,20 +77,20 @@ public class GraphBuildingHandler extends DefaultHandler {
             nodePath.add(Long.parseLong(attributes.getValue("ref")));
         } else if (activeState.equals("way") && qName.equals("tag")) {
             /* While looking at a way, we found a <tag...> tag. */
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
-            if (k.equals("highway")) {
-                //System.out.println("Highway type: " + v);
-                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
-            } else if (k.equals("name")) {
-                //System.out.println("Way Name: " + v);
-                wayName = v;
-            }
+            wayTags.set(attributes.getValue("k"), attributes.getValue("v"));
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
 //            System.out.println("Node's name: " + attributes.getValue("v"));
             activeNode.setName(attributes.getValue("v"));
+        } else if (qName.equals("relation")) {
+            /* We encountered a new <relation...> tag, which may be a turn restriction. */
+            activeState = "relation";
+        } else if (activeState.equals("relation") && qName.equals("member")) {
+            restriction.member(attributes.getValue("type"),
+                    Long.parseLong(attributes.getValue("ref")), attributes.getValue("role"));
+        } else if (activeState.equals("relation") && qName.equals("tag")) {
+            restriction.tag(attributes.getValue("k"), attributes.getValue("v"));
         }
     }
 
@@ -118,13 +109,12 @@ public class GraphBuildingHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            if (validWay) {
-                for (int i = 0; i < nodePath.size() - 1; i++) {
-                    long fromID = nodePath.get(i);
-                    long toID = nodePath.get(i + 1);
-                    g.addWeightedEdge(fromID, toID, wayName);
-                    g.addWeightedEdge(toID, fromID, wayName);
+            if (wayTags.routable()) {
+                long[] nodeIDs = new long[nodePath.size()];
+                for (int i = 0; i < nodeIDs.length; i++) {
+                    nodeIDs[i] = nodePath.get(i);
                 }
+                g.addWay(wayTags.toWay(wayID, nodeIDs));
             }
             clearStates();
         } else if (qName.equals("node")) {
@@ -132,14 +122,21 @@ public class GraphBuildingHandler extends DefaultHandler {
                 g.addNode(activeNode);
             }
             clearStates();
+        } else if (qName.equals("relation")) {
+            TurnRestriction r = restriction.build();
+            if (r != null) {
+                g.addRestriction(r);
+            }
+            clearStates();
         }
     }
 
     private void clearStates() {
         activeState = "";
         activeNode = null;
-        validWay = false;
-        nodePath = new ArrayList<>();
-        wayName = "";
+        wayID = 0;
+        nodePath.clear();
+        wayTags.reset();
+        restriction.reset();
     }
 }
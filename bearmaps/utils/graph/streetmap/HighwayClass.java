@@ -0,0 +1,61 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The kinds of road kept for routing, by the value of their OSM highway tag, each with the
+ * speed a car is assumed to travel at on it when the way has no maxspeed tag.
+ *
+ * Only non-service roads are kept; this prevents going on pedestrian streets as much as
+ * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
+ * roads, but in practice we walk all over them with such impunity that we forget cars can
+ * actually drive on them.
+ * See <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>.
+ */
+public enum HighwayClass {
+    MOTORWAY("motorway", 65),
+    TRUNK("trunk", 55),
+    PRIMARY("primary", 40),
+    SECONDARY("secondary", 35),
+    TERTIARY("tertiary", 30),
+    UNCLASSIFIED("unclassified", 25),
+    RESIDENTIAL("residential", 25),
+    LIVING_STREET("living_street", 10),
+    MOTORWAY_LINK("motorway_link", 45),
+    TRUNK_LINK("trunk_link", 40),
+    PRIMARY_LINK("primary_link", 30),
+    SECONDARY_LINK("secondary_link", 30),
+    TERTIARY_LINK("tertiary_link", 25);
+
+    private static final Map<String, HighwayClass> BY_TAG = new HashMap<>();
+
+    static {
+        for (HighwayClass c : values()) {
+            BY_TAG.put(c.tag, c);
+        }
+    }
+
+    private final String tag;
+    private final double defaultSpeedMph;
+
+    HighwayClass(String tag, double defaultSpeedMph) {
+        this.tag = tag;
+        this.defaultSpeedMph = defaultSpeedMph;
+    }
+
+    /** Returns the class with the given highway tag value, or null if it is not kept. */
+    public static HighwayClass fromTag(String tag) {
+        return tag == null ? null : BY_TAG.get(tag);
+    }
+
+    /** Returns the value of the highway tag for this class. */
+    public String tag() {
+        return tag;
+    }
+
+    /** Returns the speed a car is assumed to travel at on this class of road, in mph. */
+    public double defaultSpeedMph() {
+        return defaultSpeedMph;
+    }
+}
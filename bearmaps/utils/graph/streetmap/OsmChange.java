@@ -0,0 +1,161 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The net effect of an OSM change file (osmChange XML, usually ending in .osc or .osc.gz) on
+ * the nodes and ways a StreetMapGraph is built from. Creates and modifies are both upserts,
+ * and only the last action on each id counts. A way is only upserted if it is still one of
+ * the HighwayClasses; a way modified into anything else is treated as deleted, since it no
+ * longer belongs in the graph. Relations are ignored.
+ *
+ * See <a href="https://wiki.openstreetmap.org/wiki/OsmChange">the osmChange format</a>.
+ */
+public class OsmChange {
+
+    private final Map<Long, Node> nodes = new LinkedHashMap<>();
+    private final Set<Long> deletedNodes = new HashSet<>();
+    private final Map<Long, Way> ways = new LinkedHashMap<>();
+    private final Set<Long> deletedWays = new HashSet<>();
+
+    private OsmChange() {
+    }
+
+    /** Reads the change file FILENAME, which is gunzipped first if it ends in .gz. */
+    public static OsmChange read(String filename) throws IOException {
+        OsmChange change = new OsmChange();
+        try (InputStream in = open(filename)) {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, change.new Handler());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse " + filename, e);
+        }
+        return change;
+    }
+
+    private static InputStream open(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        return filename.endsWith(".gz") ? new GZIPInputStream(in) : in;
+    }
+
+    /** Returns the created or modified nodes, by id. */
+    public Map<Long, Node> nodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /** Returns the ids of the deleted nodes. */
+    public Set<Long> deletedNodes() {
+        return Collections.unmodifiableSet(deletedNodes);
+    }
+
+    /** Returns the created or modified ways that are still routable, by id. */
+    public Map<Long, Way> ways() {
+        return Collections.unmodifiableMap(ways);
+    }
+
+    /** Returns the ids of the deleted ways, including ways modified into non-routable ones. */
+    public Set<Long> deletedWays() {
+        return Collections.unmodifiableSet(deletedWays);
+    }
+
+    /** Returns true if this change has no effect on nodes or ways. */
+    public boolean isEmpty() {
+        return nodes.isEmpty() && deletedNodes.isEmpty() && ways.isEmpty() && deletedWays.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OsmChange: %d nodes upserted, %d deleted; %d ways upserted, %d deleted",
+                nodes.size(), deletedNodes.size(), ways.size(), deletedWays.size());
+    }
+
+    /**
+     * Collects the elements of the create, modify and delete blocks in document order, in the
+     * same way GraphBuildingHandler collects the elements of a full file.
+     */
+    private class Handler extends DefaultHandler {
+        private boolean deleting = false;
+        private Node activeNode = null;
+        private boolean inWay = false;
+        private long wayID = 0;
+        private final List<Long> nodePath = new ArrayList<>();
+        private final WayTags wayTags = new WayTags();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (qName) {
+                case "create":
+                case "modify":
+                    deleting = false;
+                    break;
+                case "delete":
+                    deleting = true;
+                    break;
+                case "node":
+                    long id = Long.parseLong(attributes.getValue("id"));
+                    if (deleting) {
+                        nodes.remove(id);
+                        deletedNodes.add(id);
+                    } else {
+                        activeNode = Node.of(id, Double.parseDouble(attributes.getValue("lat")),
+                                Double.parseDouble(attributes.getValue("lon")));
+                    }
+                    break;
+                case "way":
+                    inWay = true;
+                    wayID = Long.parseLong(attributes.getValue("id"));
+                    break;
+                case "nd":
+                    if (inWay) {
+                        nodePath.add(Long.parseLong(attributes.getValue("ref")));
+                    }
+                    break;
+                case "tag":
+                    String k = attributes.getValue("k");
+                    String v = attributes.getValue("v");
+                    if (inWay) {
+                        wayTags.set(k, v);
+                    } else if (activeNode != null && k.equals("name")) {
+                        activeNode.setName(v);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals("node") && activeNode != null) {
+                deletedNodes.remove(activeNode.id());
+                nodes.put(activeNode.id(), activeNode);
+                activeNode = null;
+            } else if (qName.equals("way")) {
+                if (wayTags.routable() && !deleting) {
+                    long[] nodeIDs = new long[nodePath.size()];
+                    for (int i = 0; i < nodeIDs.length; i++) {
+                        nodeIDs[i] = nodePath.get(i);
+                    }
+                    deletedWays.remove(wayID);
+                    ways.put(wayID, wayTags.toWay(wayID, nodeIDs));
+                } else {
+                    ways.remove(wayID);
+                    deletedWays.add(wayID);
+                }
+                inWay = false;
+                nodePath.clear();
+                wayTags.reset();
+            }
+        }
+    }
+}
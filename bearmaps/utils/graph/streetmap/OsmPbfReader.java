@@ -0,0 +1,464 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads OSM PBF files into a StreetMapGraph. See
+ * <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">the PBF format</a>.
+ *
+ * The calling thread reads the file blob by blob; each data blob is inflated and decoded into
+ * a batch of elements on a pool with one thread per core, and the batches are added to
+ * the graph in file order, so nodes are still added before the ways that use them. Nodes,
+ * dense nodes, ways and restriction relations are decoded with the same rules as
+ * GraphBuildingHandler; other relations are dropped.
+ */
+class OsmPbfReader {
+
+    /** Limits from the format specification. */
+    private static final int MAX_HEADER_SIZE = 64 * 1024, MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /** Required features of a file that this reader understands. */
+    private static final Set<String> SUPPORTED_FEATURES = Set.of("OsmSchema-V0.6", "DenseNodes");
+
+    private static final double NANODEGREES = 1e9;
+
+    private OsmPbfReader() {
+    }
+
+    /** Reads the OSM PBF file FILENAME into G. */
+    static void read(String filename, StreetMapGraph g) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-pbf-decode");
+            t.setDaemon(true);
+            return t;
+        });
+        /* Decoded batches waiting to be added, oldest first; bounded to keep memory flat. */
+        Deque<Future<List<Object>>> pending = new ArrayDeque<>();
+        int maxPending = 2 * threads;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid blob header size " + headerSize);
+                }
+                byte[] header = new byte[headerSize];
+                in.readFully(header);
+                String type = null;
+                int dataSize = -1;
+                ProtoReader blobHeader = new ProtoReader(header, 0, headerSize);
+                for (int field; (field = blobHeader.nextField()) != -1; ) {
+                    if (field == 1) {
+                        type = blobHeader.readString();
+                    } else if (field == 3) {
+                        dataSize = (int) blobHeader.readVarint();
+                    } else {
+                        blobHeader.skip();
+                    }
+                }
+                if (dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid blob size " + dataSize);
+                }
+                byte[] blob = new byte[dataSize];
+                in.readFully(blob);
+
+                if ("OSMHeader".equals(type)) {
+                    checkFeatures(uncompress(blob));
+                } else if ("OSMData".equals(type)) {
+                    pending.add(pool.submit(() -> decodeBlock(uncompress(blob))));
+                    while (pending.size() >= maxPending) {
+                        add(pending.poll().get(), g);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                add(pending.poll().get(), g);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not decode " + filename, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + filename, e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void add(List<Object> batch, StreetMapGraph g) {
+        for (Object element : batch) {
+            if (element instanceof Node) {
+                g.addNode((Node) element);
+            } else if (element instanceof Way) {
+                g.addWay((Way) element);
+            } else {
+                g.addRestriction((TurnRestriction) element);
+            }
+        }
+    }
+
+    /** Returns the uncompressed contents of a Blob message. */
+    private static byte[] uncompress(byte[] blob) throws IOException {
+        ProtoReader reader = new ProtoReader(blob, 0, blob.length);
+        int rawSize = -1;
+        byte[] raw = null;
+        byte[] zlib = null;
+        for (int field; (field = reader.nextField()) != -1; ) {
+            switch (field) {
+                case 1:
+                    raw = reader.readBytes();
+                    break;
+                case 2:
+                    rawSize = (int) reader.readVarint();
+                    break;
+                case 3:
+                    zlib = reader.readBytes();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported blob compression (field " + field + ")");
+                default:
+                    reader.skip();
+            }
+        }
+        if (raw != null) {
+            return raw;
+        }
+        if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Blob has no data");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib);
+            byte[] data = new byte[rawSize];
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int inflated = inflater.inflate(data, n, rawSize - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != rawSize) {
+                throw new IOException("Blob inflated to " + n + " bytes, expected " + rawSize);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt blob", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Checks that the HeaderBlock requires no features this reader does not support. */
+    private static void checkFeatures(byte[] headerBlock) throws IOException {
+        ProtoReader reader = new ProtoReader(headerBlock, 0, headerBlock.length);
+        for (int field; (field = reader.nextField()) != -1; ) {
+            if (field == 4) {
+                String feature = reader.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                reader.skip();
+            }
+        }
+    }
+
+    /** Decodes a PrimitiveBlock into the Nodes and kept Ways it holds, in order. */
+    private static List<Object> decodeBlock(byte[] data) throws IOException {
+        ProtoReader block = new ProtoReader(data, 0, data.length);
+        List<String> strings = new ArrayList<>();
+        List<ProtoReader> groups = new ArrayList<>();
+        long granularity = 100, latOffset = 0, lonOffset = 0;
+        for (int field; (field = block.nextField()) != -1; ) {
+            switch (field) {
+                case 1:
+                    ProtoReader table = block.readMessage();
+                    for (int f; (f = table.nextField()) != -1; ) {
+                        if (f == 1) {
+                            strings.add(table.readString());
+                        } else {
+                            table.skip();
+                        }
+                    }
+                    break;
+                case 2:
+                    groups.add(block.readMessage());
+                    break;
+                case 17:
+                    granularity = block.readVarint();
+                    break;
+                case 19:
+                    latOffset = block.readVarint();
+                    break;
+                case 20:
+                    lonOffset = block.readVarint();
+                    break;
+                default:
+                    block.skip();
+            }
+        }
+
+        Coordinates coordinates = new Coordinates(granularity, latOffset, lonOffset);
+        int nameKey = strings.indexOf("name");
+        List<Object> elements = new ArrayList<>();
+        for (ProtoReader group : groups) {
+            for (int field; (field = group.nextField()) != -1; ) {
+                switch (field) {
+                    case 1:
+                        elements.add(decodeNode(group.readMessage(), strings, nameKey, coordinates));
+                        break;
+                    case 2:
+                        decodeDenseNodes(group.readMessage(), strings, nameKey, coordinates, elements);
+                        break;
+                    case 3:
+                        Way way = decodeWay(group.readMessage(), strings);
+                        if (way != null) {
+                            elements.add(way);
+                        }
+                        break;
+                    case 4:
+                        TurnRestriction restriction = decodeRelation(group.readMessage(), strings);
+                        if (restriction != null) {
+                            elements.add(restriction);
+                        }
+                        break;
+                    default:
+                        group.skip();
+                }
+            }
+        }
+        return elements;
+    }
+
+    private static Node decodeNode(ProtoReader reader, List<String> strings, int nameKey,
+                                   Coordinates coordinates) throws IOException {
+        long id = 0, lat = 0, lon = 0;
+        ProtoReader keys = null, vals = null;
+        for (int field; (field = reader.nextField()) != -1; ) {
+            switch (field) {
+                case 1:
+                    id = reader.readSignedVarint();
+                    break;
+                case 2:
+                    keys = reader.readMessage();
+                    break;
+                case 3:
+                    vals = reader.readMessage();
+                    break;
+                case 8:
+                    lat = reader.readSignedVarint();
+                    break;
+                case 9:
+                    lon = reader.readSignedVarint();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        Node node = Node.of(id, coordinates.lat(lat), coordinates.lon(lon));
+        if (keys != null && vals != null) {
+            while (keys.hasRemaining() && vals.hasRemaining()) {
+                int key = (int) keys.readVarint();
+                int val = (int) vals.readVarint();
+                if (key == nameKey) {
+                    node.setName(strings.get(val));
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Decodes a DenseNodes message, whose ids and coordinates are delta coded packed arrays
+     * and whose tags are a single packed array of key and value string indices, with each
+     * node's tags ended by a 0.
+     */
+    private static void decodeDenseNodes(ProtoReader reader, List<String> strings, int nameKey,
+                                         Coordinates coordinates, List<Object> elements)
+            throws IOException {
+        ProtoReader ids = null, lats = null, lons = null, keysVals = null;
+        for (int field; (field = reader.nextField()) != -1; ) {
+            switch (field) {
+                case 1:
+                    ids = reader.readMessage();
+                    break;
+                case 8:
+                    lats = reader.readMessage();
+                    break;
+                case 9:
+                    lons = reader.readMessage();
+                    break;
+                case 10:
+                    keysVals = reader.readMessage();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        if (ids == null || lats == null || lons == null) {
+            return;
+        }
+        long id = 0, lat = 0, lon = 0;
+        while (ids.hasRemaining()) {
+            id += ids.readSignedVarint();
+            lat += lats.readSignedVarint();
+            lon += lons.readSignedVarint();
+            Node node = Node.of(id, coordinates.lat(lat), coordinates.lon(lon));
+            if (keysVals != null) {
+                while (keysVals.hasRemaining()) {
+                    int key = (int) keysVals.readVarint();
+                    if (key == 0) {
+                        break;
+                    }
+                    int val = (int) keysVals.readVarint();
+                    if (key == nameKey) {
+                        node.setName(strings.get(val));
+                    }
+                }
+            }
+            elements.add(node);
+        }
+    }
+
+    /** Decodes a Way, or returns null if it is not a kind of road that is kept. */
+    private static Way decodeWay(ProtoReader reader, List<String> strings) throws IOException {
+        long id = 0;
+        ProtoReader keys = null, vals = null, refs = null;
+        for (int field; (field = reader.nextField()) != -1; ) {
+            switch (field) {
+                case 1:
+                    id = reader.readVarint();
+                    break;
+                case 2:
+                    keys = reader.readMessage();
+                    break;
+                case 3:
+                    vals = reader.readMessage();
+                    break;
+                case 8:
+                    refs = reader.readMessage();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        WayTags tags = new WayTags();
+        if (keys != null && vals != null) {
+            while (keys.hasRemaining() && vals.hasRemaining()) {
+                int key = (int) keys.readVarint();
+                int val = (int) vals.readVarint();
+                tags.set(strings.get(key), strings.get(val));
+            }
+        }
+        if (!tags.routable()) {
+            return null;
+        }
+        long[] nodeIds = new long[16];
+        int n = 0;
+        long ref = 0;
+        while (refs != null && refs.hasRemaining()) {
+            ref += refs.readSignedVarint();
+            if (n == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, n * 2);
+            }
+            nodeIds[n++] = ref;
+        }
+        return tags.toWay(id, Arrays.copyOf(nodeIds, n));
+    }
+
+    /** Member types of a Relation. */
+    private static final String[] MEMBER_TYPES = {"node", "way", "relation"};
+
+    /** Decodes a Relation, or returns null if it is not a turn restriction via a node. */
+    private static TurnRestriction decodeRelation(ProtoReader reader, List<String> strings)
+            throws IOException {
+        ProtoReader keys = null, vals = null, roles = null, members = null, types = null;
+        for (int field; (field = reader.nextField()) != -1; ) {
+            switch (field) {
+                case 2:
+                    keys = reader.readMessage();
+                    break;
+                case 3:
+                    vals = reader.readMessage();
+                    break;
+                case 8:
+                    roles = reader.readMessage();
+                    break;
+                case 9:
+                    members = reader.readMessage();
+                    break;
+                case 10:
+                    types = reader.readMessage();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        RestrictionBuilder restriction = new RestrictionBuilder();
+        if (keys != null && vals != null) {
+            while (keys.hasRemaining() && vals.hasRemaining()) {
+                restriction.tag(strings.get((int) keys.readVarint()),
+                        strings.get((int) vals.readVarint()));
+            }
+        }
+        long ref = 0;
+        while (roles != null && members != null && types != null && roles.hasRemaining()
+                && members.hasRemaining() && types.hasRemaining()) {
+            String role = strings.get((int) roles.readVarint());
+            ref += members.readSignedVarint();
+            int type = (int) types.readVarint();
+            if (type >= 0 && type < MEMBER_TYPES.length) {
+                restriction.member(MEMBER_TYPES[type], ref, role);
+            }
+        }
+        return restriction.build();
+    }
+
+    /** Converts the coordinates of a block to degrees. */
+    private static class Coordinates {
+        private final long granularity, latOffset, lonOffset;
+
+        Coordinates(long granularity, long latOffset, long lonOffset) {
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+        }
+
+        /* Dividing the exact number of nanodegrees rounds once, like parsing the decimal would. */
+        double lat(long lat) {
+            return (latOffset + granularity * lat) / NANODEGREES;
+        }
+
+        double lon(long lon) {
+            return (lonOffset + granularity * lon) / NANODEGREES;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the PBF encoding of a small crossroads reads into the same graph as its XML.
+ * The PBF file holds its first six nodes as DenseNodes in a zlib compressed block with a
+ * granularity of 1000 and offsets, and the rest as a plain Node, the ways and the relations
+ * in an uncompressed block; ids, node refs and relation members are delta coded out of order.
+ */
+public class OsmPbfReaderTest {
+
+    private static final String XML = "bearmaps/bench/data/crossroads.osm.xml";
+    private static final String PBF = "bearmaps/bench/data/crossroads.osm.pbf";
+
+    @Test
+    public void testSameGraphAsXml() {
+        StreetMapGraph xml = new StreetMapGraph(XML);
+        StreetMapGraph pbf = new StreetMapGraph(PBF);
+        assertFalse(pbf.getAllNodes().isEmpty());
+        assertEquals(xml, pbf);
+
+        List<Node> xmlNodes = sorted(xml.getAllNodes());
+        List<Node> pbfNodes = sorted(pbf.getAllNodes());
+        assertEquals(xmlNodes.size(), pbfNodes.size());
+        for (int i = 0; i < xmlNodes.size(); i++) {
+            Node expected = xmlNodes.get(i);
+            Node actual = pbfNodes.get(i);
+            assertEquals(expected.id(), actual.id());
+            assertEquals(expected.lat(), actual.lat(), 0);
+            assertEquals(expected.lon(), actual.lon(), 0);
+            assertEquals(expected.name(), actual.name());
+        }
+
+        assertEquals(xml.ways().size(), pbf.ways().size());
+        for (int i = 0; i < xml.ways().size(); i++) {
+            Way expected = xml.ways().get(i);
+            Way actual = pbf.ways().get(i);
+            assertEquals(expected.id(), actual.id());
+            assertArrayEquals(expected.nodeIds(), actual.nodeIds());
+            assertEquals(expected.name(), actual.name());
+            assertEquals(expected.highway(), actual.highway());
+            assertEquals(expected.maxspeed(), actual.maxspeed(), 0);
+            assertEquals(expected.oneway(), actual.oneway());
+        }
+
+        assertEquals(2, pbf.restrictions().size());
+        assertEquals(xml.restrictions().size(), pbf.restrictions().size());
+        for (int i = 0; i < xml.restrictions().size(); i++) {
+            TurnRestriction expected = xml.restrictions().get(i);
+            TurnRestriction actual = pbf.restrictions().get(i);
+            assertEquals(expected.fromWay(), actual.fromWay());
+            assertEquals(expected.viaNode(), actual.viaNode());
+            assertEquals(expected.toWay(), actual.toWay());
+            assertEquals(expected.isOnly(), actual.isOnly());
+        }
+    }
+
+    private static List<Node> sorted(List<Node> nodes) {
+        List<Node> copy = new ArrayList<>(nodes);
+        copy.sort(Comparator.comparingLong(Node::id));
+        return copy;
+    }
+}
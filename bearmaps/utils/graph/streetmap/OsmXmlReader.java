@@ -0,0 +1,248 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads OSM XML into a StreetMapGraph in three pipelined stages connected by bounded queues:
+ * one thread reads the file into reusable blocks, a second tokenizes the blocks with
+ * OsmXmlTokenizer and turns elements into batches of Nodes, Ways and TurnRestrictions, and the
+ * calling thread adds the batches to the graph. Each stage only waits on the next when its
+ * queue is full, so disk reads, parsing and graph building overlap.
+ *
+ * Produces the same graph as GraphBuildingHandler: nodes keep their name tag, ways are kept
+ * only if their highway tag is one of the HighwayClasses, and restriction relations become
+ * TurnRestrictions.
+ */
+class OsmXmlReader {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    /** Blocks in flight between the reading and parsing stages, including the one being parsed. */
+    private static final int BLOCKS = 8;
+
+    /** Elements per batch, and batches in flight between the parsing and building stages. */
+    private static final int BATCH_SIZE = 4096, BATCHES = 16;
+
+    /** How often blocked stages check whether the pipeline was abandoned. */
+    private static final long POLL_MILLIS = 100;
+
+    private static final OsmXmlTokenizer.Block END_OF_FILE = new OsmXmlTokenizer.Block(0);
+    private static final List<Object> END_OF_BATCHES = new ArrayList<>();
+
+    private final BlockingQueue<OsmXmlTokenizer.Block> freeBlocks = new ArrayBlockingQueue<>(BLOCKS);
+    private final BlockingQueue<OsmXmlTokenizer.Block> fullBlocks = new ArrayBlockingQueue<>(BLOCKS);
+    private final BlockingQueue<List<Object>> batches = new ArrayBlockingQueue<>(BATCHES);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean abandoned;
+
+    private OsmXmlReader() {
+        for (int i = 0; i < BLOCKS; i++) {
+            freeBlocks.add(new OsmXmlTokenizer.Block(BLOCK_SIZE));
+        }
+    }
+
+    /** Reads the OSM XML file FILENAME into G. */
+    static void read(String filename, StreetMapGraph g) throws IOException {
+        new OsmXmlReader().run(filename, g);
+    }
+
+    private void run(String filename, StreetMapGraph g) throws IOException {
+        InputStream in = new FileInputStream(filename);
+        Thread reader = new Thread(() -> readBlocks(in), "osm-read");
+        Thread parser = new Thread(this::parseBlocks, "osm-parse");
+        reader.setDaemon(true);
+        parser.setDaemon(true);
+        reader.start();
+        parser.start();
+        try {
+            while (true) {
+                List<Object> batch = take(batches);
+                if (batch == END_OF_BATCHES) {
+                    break;
+                }
+                for (Object element : batch) {
+                    if (element instanceof Node) {
+                        g.addNode((Node) element);
+                    } else if (element instanceof Way) {
+                        g.addWay((Way) element);
+                    } else {
+                        g.addRestriction((TurnRestriction) element);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            if (failure.get() == null) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + filename, e);
+            }
+        } finally {
+            abandoned = true;
+            in.close();
+        }
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException("Could not read " + filename, t);
+        }
+    }
+
+    /** Stage one: reads the file into free blocks. */
+    private void readBlocks(InputStream in) {
+        try {
+            while (true) {
+                OsmXmlTokenizer.Block block = take(freeBlocks);
+                int n = in.read(block.data, 0, block.data.length);
+                if (n < 0) {
+                    put(fullBlocks, END_OF_FILE);
+                    return;
+                }
+                block.length = n;
+                put(fullBlocks, block);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            fail(e);
+            offerQuietly(fullBlocks, END_OF_FILE);
+        }
+    }
+
+    /** Stage two: tokenizes full blocks into batches of Nodes and Ways. */
+    private void parseBlocks() {
+        OsmXmlTokenizer tokens = new OsmXmlTokenizer(new OsmXmlTokenizer.BlockSource() {
+            @Override
+            public OsmXmlTokenizer.Block next() throws IOException {
+                try {
+                    OsmXmlTokenizer.Block block = take(fullBlocks);
+                    return block == END_OF_FILE ? null : block;
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void recycle(OsmXmlTokenizer.Block block) {
+                freeBlocks.offer(block);
+            }
+        });
+
+        List<Object> batch = new ArrayList<>(BATCH_SIZE);
+        Node activeNode = null;
+        long wayID = 0;
+        long[] nodePath = new long[64];
+        int pathLength = 0;
+        boolean inWay = false;
+        WayTags wayTags = new WayTags();
+        boolean inRelation = false;
+        RestrictionBuilder restriction = new RestrictionBuilder();
+        try {
+            int event;
+            while ((event = tokens.next()) != OsmXmlTokenizer.END_OF_FILE) {
+                int element = tokens.element();
+                if (event == OsmXmlTokenizer.START) {
+                    if (element == OsmXmlTokenizer.NODE) {
+                        activeNode = Node.of(tokens.longValue(OsmXmlTokenizer.ID),
+                                tokens.doubleValue(OsmXmlTokenizer.LAT),
+                                tokens.doubleValue(OsmXmlTokenizer.LON));
+                    } else if (element == OsmXmlTokenizer.WAY) {
+                        inWay = true;
+                        wayID = tokens.longValue(OsmXmlTokenizer.ID);
+                    } else if (inWay && element == OsmXmlTokenizer.ND) {
+                        if (pathLength == nodePath.length) {
+                            nodePath = Arrays.copyOf(nodePath, pathLength * 2);
+                        }
+                        nodePath[pathLength++] = tokens.longValue(OsmXmlTokenizer.REF);
+                    } else if (element == OsmXmlTokenizer.RELATION) {
+                        inRelation = true;
+                    } else if (inRelation && element == OsmXmlTokenizer.MEMBER) {
+                        restriction.member(tokens.stringValue(OsmXmlTokenizer.TYPE),
+                                tokens.longValue(OsmXmlTokenizer.REF),
+                                tokens.stringValue(OsmXmlTokenizer.ROLE));
+                    } else if (element == OsmXmlTokenizer.TAG) {
+                        if (inRelation) {
+                            restriction.tag(tokens.stringValue(OsmXmlTokenizer.K),
+                                    tokens.stringValue(OsmXmlTokenizer.V));
+                        } else if (inWay) {
+                            for (String key : WayTags.KEYS) {
+                                if (tokens.valueEquals(OsmXmlTokenizer.K, key)) {
+                                    wayTags.set(key, tokens.stringValue(OsmXmlTokenizer.V));
+                                    break;
+                                }
+                            }
+                        } else if (activeNode != null && tokens.valueEquals(OsmXmlTokenizer.K, "name")) {
+                            activeNode.setName(tokens.stringValue(OsmXmlTokenizer.V));
+                        }
+                    }
+                } else if (element == OsmXmlTokenizer.NODE && activeNode != null) {
+                    batch.add(activeNode);
+                    activeNode = null;
+                } else if (element == OsmXmlTokenizer.WAY) {
+                    if (wayTags.routable()) {
+                        batch.add(wayTags.toWay(wayID, Arrays.copyOf(nodePath, pathLength)));
+                    }
+                    inWay = false;
+                    pathLength = 0;
+                    wayTags.reset();
+                } else if (element == OsmXmlTokenizer.RELATION) {
+                    TurnRestriction r = restriction.build();
+                    if (r != null) {
+                        batch.add(r);
+                    }
+                    inRelation = false;
+                    restriction.reset();
+                } else {
+                    continue;
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    put(batches, batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            put(batches, batch);
+            put(batches, END_OF_BATCHES);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            fail(e);
+            offerQuietly(batches, END_OF_BATCHES);
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure.compareAndSet(null, t);
+        abandoned = true;
+    }
+
+    /** Takes from QUEUE, giving up once the pipeline is abandoned. */
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        while (true) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+            if (abandoned) {
+                throw new InterruptedException("OSM pipeline abandoned");
+            }
+        }
+    }
+
+    /** Puts into QUEUE, giving up once the pipeline is abandoned. */
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (abandoned) {
+                throw new InterruptedException("OSM pipeline abandoned");
+            }
+        }
+    }
+
+    private static <T> void offerQuietly(BlockingQueue<T> queue, T item) {
+        queue.clear();
+        queue.offer(item);
+    }
+}
@@ -0,0 +1,458 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A byte-level pull tokenizer for OSM XML. It reports the start and end of every element, with
+ * the element and attribute names already matched against the few names OSM files use, and
+ * lets callers parse attribute values straight from the raw bytes, so reading a node or an nd
+ * reference allocates nothing.
+ *
+ * This is not a general XML parser: it skips the prolog, comments, doctype and text content,
+ * and does not check that the document is well formed. Attribute values may use the five
+ * predefined entities and numeric character references.
+ */
+class OsmXmlTokenizer {
+
+    /** Supplies the bytes of the file in blocks, and takes back blocks that were used up. */
+    interface BlockSource {
+        /** Returns the next block, or null at the end of the file. */
+        Block next() throws IOException;
+
+        /** Hands back a block that will not be read again. */
+        void recycle(Block block);
+    }
+
+    /** A chunk of the file. */
+    static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int capacity) {
+            data = new byte[capacity];
+        }
+    }
+
+    /** Events returned by next(). */
+    static final int END_OF_FILE = 0, START = 1, END = 2;
+
+    /** Element names. */
+    static final int OTHER = 0, NODE = 1, WAY = 2, ND = 3, TAG = 4, RELATION = 5, MEMBER = 6;
+
+    /** Attribute names. */
+    static final int ID = 1, LAT = 2, LON = 3, REF = 4, K = 5, V = 6, TYPE = 7, ROLE = 8;
+
+    private static final byte[][] ELEMENT_NAMES = bytes("", "node", "way", "nd", "tag", "relation",
+            "member");
+    private static final byte[][] ATTRIBUTE_NAMES = bytes("", "id", "lat", "lon", "ref", "k", "v",
+            "type", "role");
+
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final BlockSource source;
+    private Block block;
+    private byte[] buf = new byte[0];
+    private int pos, limit;
+
+    /** A byte that was read and then pushed back, or -1. */
+    private int pushedBack = -1;
+
+    private int element;
+    private boolean pendingEnd;
+    private byte[] name = new byte[64];
+    private int nameLength;
+
+    /** The attributes of the current element: name, and value as a slice of values. */
+    private int attributeCount;
+    private int[] attributeNames = new int[8];
+    private int[] valueStarts = new int[8];
+    private int[] valueLengths = new int[8];
+    private byte[] values = new byte[256];
+    private int valuesLength;
+
+    OsmXmlTokenizer(BlockSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Advances to the start or end of the next element. Self-closing elements are reported as
+     * a START followed by an END.
+     * @return START, END or END_OF_FILE.
+     */
+    int next() throws IOException {
+        if (pendingEnd) {
+            pendingEnd = false;
+            attributeCount = 0;
+            return END;
+        }
+        while (true) {
+            int c;
+            do {
+                c = read();
+                if (c < 0) {
+                    return END_OF_FILE;
+                }
+            } while (c != '<');
+            c = read();
+            if (c == '?') {
+                skipPast('?', '>');
+            } else if (c == '!') {
+                c = read();
+                if (c == '-') {
+                    read();
+                    skipPast('-', '-');
+                    skipPast('>');
+                } else {
+                    skipPast('>');
+                }
+            } else if (c == '/') {
+                element = readName(read());
+                skipPast('>');
+                attributeCount = 0;
+                return END;
+            } else if (c >= 0) {
+                element = readName(c);
+                readAttributes();
+                return START;
+            } else {
+                return END_OF_FILE;
+            }
+        }
+    }
+
+    /** Returns the name of the current element, one of OTHER or the element names above. */
+    int element() {
+        return element;
+    }
+
+    /** Returns whether the current element has the given attribute. */
+    boolean has(int attribute) {
+        return indexOf(attribute) >= 0;
+    }
+
+    /** Returns the value of the given attribute as a long. */
+    long longValue(int attribute) {
+        int i = checkedIndexOf(attribute);
+        int p = valueStarts[i];
+        int end = p + valueLengths[i];
+        boolean negative = p < end && values[p] == '-';
+        if (negative) {
+            p += 1;
+        }
+        if (p == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        long result = 0;
+        for (; p < end; p++) {
+            int digit = values[p] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(stringValue(attribute));
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Returns the value of the given attribute as a double. Plain decimals with up to 15
+     * significant digits, which covers OSM coordinates, are converted exactly without building
+     * a String; anything else falls back to Double.parseDouble.
+     */
+    double doubleValue(int attribute) {
+        int i = checkedIndexOf(attribute);
+        int p = valueStarts[i];
+        int end = p + valueLengths[i];
+        boolean negative = p < end && values[p] == '-';
+        if (negative) {
+            p += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean sawDigit = false;
+        for (; p < end; p++) {
+            int c = values[p];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits += 1;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits += 1;
+                }
+            } else {
+                return Double.parseDouble(stringValue(attribute));
+            }
+        }
+        if (!sawDigit || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(stringValue(attribute));
+        }
+        double result = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -result : result;
+    }
+
+    /** Returns the value of the given attribute with entities decoded. */
+    String stringValue(int attribute) {
+        int i = checkedIndexOf(attribute);
+        int start = valueStarts[i];
+        int end = start + valueLengths[i];
+        int amp = start;
+        while (amp < end && values[amp] != '&') {
+            amp += 1;
+        }
+        if (amp == end) {
+            return new String(values, start, end - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(new String(values, start, amp - start, StandardCharsets.UTF_8));
+        int p = amp;
+        while (p < end) {
+            int semicolon = p;
+            while (semicolon < end && values[semicolon] != ';') {
+                semicolon += 1;
+            }
+            String entity = new String(values, p + 1, Math.max(0, semicolon - p - 1),
+                    StandardCharsets.US_ASCII);
+            sb.append(decodeEntity(entity));
+            p = Math.min(end, semicolon + 1);
+            int next = p;
+            while (next < end && values[next] != '&') {
+                next += 1;
+            }
+            sb.append(new String(values, p, next - p, StandardCharsets.UTF_8));
+            p = next;
+        }
+        return sb.toString();
+    }
+
+    /** Returns whether the value of the given attribute is exactly the ASCII string EXPECTED. */
+    boolean valueEquals(int attribute, String expected) {
+        int i = indexOf(attribute);
+        if (i < 0 || valueLengths[i] != expected.length()) {
+            return false;
+        }
+        int start = valueStarts[i];
+        for (int j = 0; j < valueLengths[i]; j++) {
+            if (values[start + j] != expected.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeEntity(String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            default:
+                try {
+                    if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                        return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+                    } else if (entity.startsWith("#")) {
+                        return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+                    }
+                } catch (IllegalArgumentException e) {
+                    /* Fall through and keep the entity as it was written. */
+                }
+                return "&" + entity + ";";
+        }
+    }
+
+    private int indexOf(int attribute) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeNames[i] == attribute) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int checkedIndexOf(int attribute) {
+        int i = indexOf(attribute);
+        if (i < 0) {
+            throw new IllegalStateException("Missing attribute "
+                    + new String(ATTRIBUTE_NAMES[attribute], StandardCharsets.US_ASCII));
+        }
+        return i;
+    }
+
+    /** Reads the rest of the attributes of a start tag, up to and including its '>'. */
+    private void readAttributes() throws IOException {
+        attributeCount = 0;
+        valuesLength = 0;
+        int c = read();
+        while (true) {
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            if (c == '>' || c < 0) {
+                return;
+            }
+            if (c == '/') {
+                skipPast('>');
+                pendingEnd = true;
+                return;
+            }
+            int attribute = readAttributeName(c);
+            c = read();
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            if (c != '=') {
+                continue;
+            }
+            c = read();
+            while (isWhitespace(c)) {
+                c = read();
+            }
+            int quote = c;
+            if (attributeCount == attributeNames.length) {
+                attributeNames = Arrays.copyOf(attributeNames, attributeCount * 2);
+                valueStarts = Arrays.copyOf(valueStarts, attributeCount * 2);
+                valueLengths = Arrays.copyOf(valueLengths, attributeCount * 2);
+            }
+            int start = valuesLength;
+            while ((c = read()) != quote && c >= 0) {
+                if (valuesLength == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[valuesLength++] = (byte) c;
+            }
+            attributeNames[attributeCount] = attribute;
+            valueStarts[attributeCount] = start;
+            valueLengths[attributeCount] = valuesLength - start;
+            attributeCount += 1;
+            c = read();
+        }
+    }
+
+    /** Reads an element name whose first byte is C, leaving the byte after it unread. */
+    private int readName(int c) throws IOException {
+        nameLength = 0;
+        while (c >= 0 && !isWhitespace(c) && c != '>' && c != '/') {
+            appendName(c);
+            c = read();
+        }
+        pushedBack = c;
+        return match(ELEMENT_NAMES);
+    }
+
+    /** Reads an attribute name whose first byte is C, leaving the byte after it unread. */
+    private int readAttributeName(int c) throws IOException {
+        nameLength = 0;
+        while (c >= 0 && !isWhitespace(c) && c != '=') {
+            appendName(c);
+            c = read();
+        }
+        pushedBack = c;
+        return match(ATTRIBUTE_NAMES);
+    }
+
+    private void appendName(int c) {
+        if (nameLength == name.length) {
+            name = Arrays.copyOf(name, name.length * 2);
+        }
+        name[nameLength++] = (byte) c;
+    }
+
+    private int match(byte[][] names) {
+        for (int i = 1; i < names.length; i++) {
+            byte[] candidate = names[i];
+            if (candidate.length == nameLength) {
+                int j = 0;
+                while (j < nameLength && candidate[j] == name[j]) {
+                    j += 1;
+                }
+                if (j == nameLength) {
+                    return i;
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    /** Skips past the next occurrence of C. */
+    private void skipPast(int c) throws IOException {
+        int b;
+        do {
+            b = read();
+        } while (b != c && b >= 0);
+    }
+
+    /** Skips past the next occurrence of C1 followed directly by C2. */
+    private void skipPast(int c1, int c2) throws IOException {
+        int previous = -1;
+        int b;
+        while ((b = read()) >= 0) {
+            if (previous == c1 && b == c2) {
+                return;
+            }
+            previous = b;
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /** Returns the next byte, or -1 at the end of the file. */
+    private int read() throws IOException {
+        if (pushedBack >= 0) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (block != null) {
+            source.recycle(block);
+            block = null;
+        }
+        Block next;
+        do {
+            next = source.next();
+            if (next == null) {
+                return false;
+            }
+        } while (next.length == 0);
+        block = next;
+        buf = next.data;
+        pos = 0;
+        limit = next.length;
+        return true;
+    }
+
+    private static byte[][] bytes(String... strings) {
+        byte[][] result = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            result[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return result;
+    }
+}
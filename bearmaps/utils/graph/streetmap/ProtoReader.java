@@ -0,0 +1,115 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads protocol buffer wire format from a slice of a byte array, for the few messages of the
+ * OSM PBF format. Messages are read field by field with nextField(), and fields are read with
+ * the method matching their declared type; length-delimited fields, including packed repeated
+ * fields, are read as sub-readers over the same array so nothing is copied.
+ */
+class ProtoReader {
+
+    static final int VARINT = 0, FIXED64 = 1, LENGTH_DELIMITED = 2, FIXED32 = 5;
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+    private int wireType;
+
+    ProtoReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /** Returns whether there is anything left to read. */
+    boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    /** Reads the next field key and returns its field number, or -1 at the end. */
+    int nextField() throws IOException {
+        if (pos >= limit) {
+            return -1;
+        }
+        long key = readVarint();
+        wireType = (int) (key & 7);
+        return (int) (key >>> 3);
+    }
+
+    /** Skips the value of the field whose key was just read. */
+    void skip() throws IOException {
+        switch (wireType) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED64:
+                advance(8);
+                break;
+            case LENGTH_DELIMITED:
+                advance((int) readVarint());
+                break;
+            case FIXED32:
+                advance(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + wireType);
+        }
+    }
+
+    long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IOException("Truncated varint");
+            }
+            byte b = buf[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Reads a zigzag encoded sint32 or sint64. */
+    long readSignedVarint() throws IOException {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Reads a length-delimited field as a reader over its bytes. */
+    ProtoReader readMessage() throws IOException {
+        int length = (int) readVarint();
+        int start = pos;
+        advance(length);
+        return new ProtoReader(buf, start, length);
+    }
+
+    /** Reads a length-delimited field into a new array. */
+    byte[] readBytes() throws IOException {
+        int length = (int) readVarint();
+        int start = pos;
+        advance(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, start, bytes, 0, length);
+        return bytes;
+    }
+
+    /** Reads a length-delimited field as a UTF-8 string. */
+    String readString() throws IOException {
+        int length = (int) readVarint();
+        int start = pos;
+        advance(length);
+        return new String(buf, start, length, StandardCharsets.UTF_8);
+    }
+
+    private void advance(int n) throws IOException {
+        if (n < 0 || n > limit - pos) {
+            throw new IOException("Truncated message");
+        }
+        pos += n;
+    }
+}
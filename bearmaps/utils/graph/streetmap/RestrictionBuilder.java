@@ -0,0 +1,75 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * Collects the members and tags of a relation while a reader walks through them, and turns
+ * the relation into a TurnRestriction once it ends, if it is a restriction from a way via a
+ * node to a way. Relations of other types, and restrictions via ways, are dropped. Readers
+ * keep one instance and reset it after each relation.
+ */
+class RestrictionBuilder {
+
+    private boolean restriction;
+    private String kind;
+    private long fromWay = -1;
+    private long viaNode = -1;
+    private long toWay = -1;
+    private boolean viaWay;
+
+    /** Records a member of type TYPE ("node", "way" or "relation") with id REF and ROLE. */
+    void member(String type, long ref, String role) {
+        boolean way = "way".equals(type);
+        switch (role) {
+            case "from":
+                if (way && fromWay == -1) {
+                    fromWay = ref;
+                }
+                break;
+            case "to":
+                if (way && toWay == -1) {
+                    toWay = ref;
+                }
+                break;
+            case "via":
+                if ("node".equals(type)) {
+                    viaNode = ref;
+                } else {
+                    viaWay = true;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Keeps the tag K=V if it says what kind of relation this is. */
+    void tag(String k, String v) {
+        if (k.equals("type")) {
+            restriction = v.equals("restriction");
+        } else if (k.equals("restriction")) {
+            kind = v;
+        }
+    }
+
+    /** Returns the restriction described since the last reset, or null if there is none. */
+    TurnRestriction build() {
+        if (!restriction || kind == null || viaWay || fromWay == -1 || viaNode == -1
+                || toWay == -1) {
+            return null;
+        }
+        if (kind.startsWith("no_")) {
+            return new TurnRestriction(fromWay, viaNode, toWay, false);
+        } else if (kind.startsWith("only_")) {
+            return new TurnRestriction(fromWay, viaNode, toWay, true);
+        }
+        return null;
+    }
+
+    void reset() {
+        restriction = false;
+        kind = null;
+        fromWay = -1;
+        viaNode = -1;
+        toWay = -1;
+        viaWay = false;
+    }
+}
@@ -0,0 +1,202 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How fast a kind of traveller goes on each class of road, used to weight edges by travel
+ * time instead of distance. A profile has a speed for every HighwayClass, may let maxspeed
+ * tags override it, may cap all speeds, and may scale the speeds of each class by a factor
+ * for every hour of the day to model traffic. Hours whose factors are all the same share one
+ * bucket, so a StreetMapGraph only needs one set of travel time weights per bucket.
+ *
+ * Besides the built-in "car" and "bicycle" profiles, a profile NAME can be loaded from the
+ * properties file named by the bearmaps.speed.profile.NAME system property, with these keys:
+ * <pre>
+ * speed.residential = 20            # mph for a highway class; 0 to avoid it entirely
+ * maxspeed = false                  # whether maxspeed tags replace the class speed (true)
+ * cap = 15                          # the highest speed in mph (none)
+ * hourly.primary = 1,1,...,0.5,...  # 24 factors for a class, from midnight
+ * hourly.default = 1,1,...          # factors for the classes without their own
+ * </pre>
+ */
+public class SpeedProfile {
+
+    public static final int HOURS_PER_DAY = 24;
+
+    private static final String PROFILE_PROPERTY_PREFIX = "bearmaps.speed.profile.";
+    private static final Map<String, SpeedProfile> PROFILES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final double[] speeds;
+    private final boolean useMaxspeed;
+    private final double cap;
+    /** Speed factors indexed by bucket and then HighwayClass ordinal. */
+    private final double[][] factors;
+    private final int[] bucketOfHour;
+
+    private SpeedProfile(String name, double[] speeds, boolean useMaxspeed, double cap,
+                         double[][] hourlyFactors) {
+        this.name = name;
+        this.speeds = speeds;
+        this.useMaxspeed = useMaxspeed;
+        this.cap = cap;
+        this.bucketOfHour = new int[HOURS_PER_DAY];
+        Map<String, Integer> buckets = new HashMap<>();
+        double[][] byBucket = new double[HOURS_PER_DAY][];
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            double[] column = new double[speeds.length];
+            for (int c = 0; c < speeds.length; c++) {
+                column[c] = hourlyFactors[c][hour];
+            }
+            Integer bucket = buckets.putIfAbsent(Arrays.toString(column), buckets.size());
+            if (bucket == null) {
+                bucket = buckets.size() - 1;
+                byBucket[bucket] = column;
+            }
+            bucketOfHour[hour] = bucket;
+        }
+        this.factors = Arrays.copyOf(byBucket, buckets.size());
+    }
+
+    /**
+     * Returns the profile called NAME: a built-in one, or one loaded from the file named by
+     * the bearmaps.speed.profile.NAME system property. Returns null if there is neither.
+     */
+    public static SpeedProfile named(String name) {
+        SpeedProfile profile = PROFILES.get(name);
+        if (profile != null) {
+            return profile;
+        }
+        switch (name) {
+            case "car":
+                profile = fromProperties(name, new Properties());
+                break;
+            case "bicycle":
+                profile = fromProperties(name, bicycleProperties());
+                break;
+            default:
+                String path = System.getProperty(PROFILE_PROPERTY_PREFIX + name);
+                if (path == null) {
+                    return null;
+                }
+                Properties properties = new Properties();
+                try (InputStream in = new FileInputStream(path)) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not read speed profile " + path, e);
+                }
+                profile = fromProperties(name, properties);
+        }
+        SpeedProfile existing = PROFILES.putIfAbsent(name, profile);
+        return existing != null ? existing : profile;
+    }
+
+    /** Returns the car profile: the default speed of each class, or the speed limit. */
+    public static SpeedProfile car() {
+        return named("car");
+    }
+
+    /**
+     * Creates a profile from PROPERTIES, in the format described above. Missing keys take
+     * the values of the car profile.
+     * @throws IllegalArgumentException If a value is not a number, or an hourly row does not
+     *                                  have 24 factors.
+     */
+    public static SpeedProfile fromProperties(String name, Properties properties) {
+        HighwayClass[] classes = HighwayClass.values();
+        double[] speeds = new double[classes.length];
+        double[][] hourly = new double[classes.length][];
+        double[] defaultHourly = parseHourly(properties.getProperty("hourly.default"));
+        for (HighwayClass c : classes) {
+            String speed = properties.getProperty("speed." + c.tag());
+            speeds[c.ordinal()] = speed == null ? c.defaultSpeedMph() : parseSpeed(speed);
+            double[] row = parseHourly(properties.getProperty("hourly." + c.tag()));
+            hourly[c.ordinal()] = row != null ? row : defaultHourly;
+            if (hourly[c.ordinal()] == null) {
+                hourly[c.ordinal()] = new double[HOURS_PER_DAY];
+                Arrays.fill(hourly[c.ordinal()], 1.0);
+            }
+        }
+        boolean useMaxspeed = !"false".equals(properties.getProperty("maxspeed"));
+        String cap = properties.getProperty("cap");
+        return new SpeedProfile(name, speeds, useMaxspeed,
+                cap == null ? Double.POSITIVE_INFINITY : parseSpeed(cap), hourly);
+    }
+
+    private static Properties bicycleProperties() {
+        Properties properties = new Properties();
+        for (HighwayClass c : HighwayClass.values()) {
+            properties.setProperty("speed." + c.tag(), "12");
+        }
+        for (HighwayClass c : new HighwayClass[]{HighwayClass.MOTORWAY, HighwayClass.MOTORWAY_LINK,
+                HighwayClass.TRUNK, HighwayClass.TRUNK_LINK}) {
+            properties.setProperty("speed." + c.tag(), "0");
+        }
+        properties.setProperty("maxspeed", "false");
+        return properties;
+    }
+
+    private static double parseSpeed(String value) {
+        double speed = Double.parseDouble(value.trim());
+        if (!(speed >= 0)) {
+            throw new IllegalArgumentException("Speeds must not be negative: " + value);
+        }
+        return speed;
+    }
+
+    private static double[] parseHourly(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(",");
+        if (parts.length != HOURS_PER_DAY) {
+            throw new IllegalArgumentException("Expected " + HOURS_PER_DAY + " hourly factors: "
+                    + value);
+        }
+        double[] row = new double[HOURS_PER_DAY];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = parseSpeed(parts[i]);
+        }
+        return row;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Returns the bucket of HOUR, an hour of the day from 0 to 23. */
+    public int bucket(int hour) {
+        return bucketOfHour[Math.floorMod(hour, HOURS_PER_DAY)];
+    }
+
+    /** Returns the number of distinct buckets the hours of the day fall into. */
+    public int buckets() {
+        return factors.length;
+    }
+
+    /** Returns the speed on edge E during the hours in BUCKET in mph, or 0 if it is avoided. */
+    double speedMph(StreetEdge e, int bucket) {
+        int c = e.highway().ordinal();
+        double speed = speeds[c];
+        if (speed == 0) {
+            return 0;
+        }
+        if (useMaxspeed && !Double.isNaN(e.maxspeed())) {
+            speed = e.maxspeed();
+        }
+        return Math.min(speed, cap) * factors[bucket][c];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,56 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeedProfileTest {
+
+    @Test
+    public void testParseMaxspeed() {
+        assertEquals(25, WayTags.parseMaxspeed("25 mph"), 1e-9);
+        assertEquals(50 / 1.609344, WayTags.parseMaxspeed("50"), 1e-9);
+        assertEquals(30 / 1.609344, WayTags.parseMaxspeed("30 km/h"), 1e-9);
+        assertTrue(Double.isNaN(WayTags.parseMaxspeed("none")));
+        assertTrue(Double.isNaN(WayTags.parseMaxspeed(null)));
+    }
+
+    @Test
+    public void testSpeeds() {
+        Way limited = new Way(1, new long[]{1, 2}, "", HighwayClass.PRIMARY, 20, 0);
+        Way unlimited = new Way(2, new long[]{1, 2}, "", HighwayClass.MOTORWAY, Double.NaN, 1);
+        StreetEdge limitedEdge = new StreetEdge(1, 2, 1, limited, false);
+        StreetEdge motorwayEdge = new StreetEdge(1, 2, 1, unlimited, false);
+
+        SpeedProfile car = SpeedProfile.car();
+        assertEquals(20, car.speedMph(limitedEdge, car.bucket(8)), 1e-9);
+        assertEquals(65, car.speedMph(motorwayEdge, car.bucket(8)), 1e-9);
+        assertEquals(1, car.buckets());
+
+        SpeedProfile bicycle = SpeedProfile.named("bicycle");
+        assertEquals(12, bicycle.speedMph(limitedEdge, 0), 1e-9);
+        assertEquals(0, bicycle.speedMph(motorwayEdge, 0), 1e-9);
+    }
+
+    @Test
+    public void testHourlyBuckets() {
+        Properties properties = new Properties();
+        properties.setProperty("cap", "50");
+        properties.setProperty("hourly.motorway",
+                "1,1,1,1,1,1,1,0.5,0.5,1,1,1,1,1,1,1,1,0.4,0.4,1,1,1,1,1");
+        SpeedProfile profile = SpeedProfile.fromProperties("commute", properties);
+        assertEquals(3, profile.buckets());
+        assertEquals(profile.bucket(7), profile.bucket(8));
+        assertEquals(profile.bucket(0), profile.bucket(23));
+        assertEquals(profile.bucket(0), profile.bucket(24));
+
+        Way motorway = new Way(1, new long[]{1, 2}, "", HighwayClass.MOTORWAY, Double.NaN, 1);
+        StreetEdge edge = new StreetEdge(1, 2, 1, motorway, false);
+        assertEquals(50, profile.speedMph(edge, profile.bucket(12)), 1e-9);
+        assertEquals(25, profile.speedMph(edge, profile.bucket(8)), 1e-9);
+        assertEquals(20, profile.speedMph(edge, profile.bucket(17)), 1e-9);
+    }
+}
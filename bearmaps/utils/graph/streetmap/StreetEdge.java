@@ -0,0 +1,75 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.WeightedEdge;
+
+/**
+ * An edge between consecutive nodes of a way, which keeps the attributes of the way that
+ * routing needs besides the name: its id, its highway class, its speed limit, and whether the
+ * edge goes against a one way way. Edges in both directions are kept for every way, so whether
+ * an edge may be travelled is up to the graph using it.
+ */
+public class StreetEdge extends WeightedEdge<Long> {
+    private static final byte ONEWAY = 1, AGAINST_ONEWAY = 2;
+
+    private final long wayId;
+    private final HighwayClass highway;
+    private final float maxspeed;
+    private final byte flags;
+
+    /**
+     * @param reverse Whether the edge goes from a later to an earlier node of WAY.
+     */
+    StreetEdge(long from, long to, double weight, Way way, boolean reverse) {
+        super(from, to, weight);
+        setName(way.name());
+        this.wayId = way.id();
+        this.highway = way.highway();
+        this.maxspeed = (float) way.maxspeed();
+        byte f = 0;
+        if (way.oneway() != 0) {
+            f |= ONEWAY;
+            if (reverse == (way.oneway() > 0)) {
+                f |= AGAINST_ONEWAY;
+            }
+        }
+        this.flags = f;
+    }
+
+    private StreetEdge(StreetEdge edge, double weight) {
+        super(edge.from(), edge.to(), weight);
+        setName(edge.getName());
+        this.wayId = edge.wayId;
+        this.highway = edge.highway;
+        this.maxspeed = edge.maxspeed;
+        this.flags = edge.flags;
+    }
+
+    /** Returns a copy of this edge with a different weight. */
+    public StreetEdge withWeight(double weight) {
+        return new StreetEdge(this, weight);
+    }
+
+    /** Returns the id of the way this edge is on. */
+    public long wayId() {
+        return wayId;
+    }
+
+    public HighwayClass highway() {
+        return highway;
+    }
+
+    /** Returns the speed limit in mph, or NaN if there is none. */
+    public double maxspeed() {
+        return maxspeed;
+    }
+
+    /** Returns true if the way this edge is on can only be travelled in one direction. */
+    public boolean isOneway() {
+        return (flags & ONEWAY) != 0;
+    }
+
+    /** Returns true if this edge goes against the direction of a one way way. */
+    public boolean isAgainstOneway() {
+        return (flags & AGAINST_ONEWAY) != 0;
+    }
+}
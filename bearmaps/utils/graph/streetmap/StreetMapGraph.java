@@ -11,21 +11,164 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 public class StreetMapGraph implements AStarGraph<Long> {
+    /** System property choosing the OSM XML reader, "pipeline" (the default) or "sax". */
+    private static final String OSM_PARSER_PROPERTY = "bearmaps.osm.parser";
+
+    private static final double SECONDS_PER_HOUR = 3600;
+
+    /** The length monotone priority queues round route weights to, about half a foot. */
+    private static final double QUEUE_RESOLUTION_MILES = 1e-4;
+
+    /** The daemon thread arc flags are found or read on, one weighting at a time. */
+    private static final ExecutorService ARC_FLAG_LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "arc-flags-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
     private Map<Long, Node> nodes = new HashMap<>();
     private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
     private List<Node> allNodes;
+    private List<Way> ways = new ArrayList<>();
+    private List<TurnRestriction> restrictions = new ArrayList<>();
+
+    /** Travel time views of this graph, by profile name and bucket, made on first use. */
+    private final Map<String, TravelTimeGraph> travelTimeGraphs = new ConcurrentHashMap<>();
+
+    /** Turn restricted views of this graph, keyed like travelTimeGraphs, made on first use. */
+    private final Map<String, TurnRestrictedGraph> turnRestrictedGraphs = new ConcurrentHashMap<>();
+
+    /** Edge weights indexed by CompactGraph edge id, keyed like travelTimeGraphs. */
+    private final Map<String, double[]> edgeWeights = new ConcurrentHashMap<>();
+
+    /** The least weight per mile of any edge, keyed like travelTimeGraphs. */
+    private final Map<String, Double> weightsPerMile = new ConcurrentHashMap<>();
+
+    /** Arc flags for route searches, keyed like travelTimeGraphs, once found or read. */
+    private final Map<String, ArcFlags> arcFlags = new ConcurrentHashMap<>();
+
+    /**
+     * How to find the arc flags of each weighting they were asked for, given the graph to
+     * find them for, keyed like travelTimeGraphs.
+     */
+    private final Map<String, Function<StreetMapGraph, ArcFlags>> arcFlagWeightings =
+            new ConcurrentHashMap<>();
+
+    private volatile CompactGraph compactGraph;
+
+    /** Vertices whose node or edges may differ from the graph this one was derived from. */
+    private Set<Long> touched = Collections.emptySet();
 
     private StreetMapGraph() {
         allNodes = new ArrayList<>();
     }
 
     public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
+        StreetMapGraph smg = filename.endsWith(".pbf")
+                ? StreetMapGraph.readFromPBF(filename) : StreetMapGraph.readFromXML(filename);
         this.nodes = smg.nodes;
         this.allNodes = smg.allNodes;
         this.neighbors = smg.neighbors;
+        this.ways = smg.ways;
+        this.restrictions = smg.restrictions;
+    }
+
+    /**
+     * Creates the graph that results from applying CHANGE to BASE, without modifying BASE, so
+     * that readers of BASE are unaffected. Only the edge sets of touched vertices are rebuilt:
+     * those of upserted and deleted nodes, their old neighbors, and the nodes along the old and
+     * new versions of changed ways. Every other vertex shares its node and edge set with BASE.
+     * Vertices left without edges are removed, as when reading a file.
+     */
+    protected StreetMapGraph(StreetMapGraph base, OsmChange change) {
+        Map<Long, Node> all = new HashMap<>();
+        for (Node n : base.allNodes) {
+            all.put(n.id(), n);
+        }
+        Map<Long, Way> waysByID = new LinkedHashMap<>();
+        for (Way w : base.ways) {
+            waysByID.put(w.id(), w);
+        }
+
+        Set<Long> touched = new HashSet<>();
+        for (long id : change.deletedNodes()) {
+            touchNode(base, id, touched);
+            all.remove(id);
+        }
+        for (Node n : change.nodes().values()) {
+            touchNode(base, n.id(), touched);
+            all.put(n.id(), n);
+        }
+        for (long id : change.deletedWays()) {
+            touchWay(waysByID.remove(id), touched);
+        }
+        for (Way w : change.ways().values()) {
+            touchWay(waysByID.put(w.id(), w), touched);
+            touchWay(w, touched);
+        }
+
+        Map<Long, Set<WeightedEdge<Long>>> rebuilt = new HashMap<>();
+        for (Way w : waysByID.values()) {
+            long[] nodeIDs = w.nodeIds();
+            for (int i = 0; i < nodeIDs.length - 1; i++) {
+                Node from = all.get(nodeIDs[i]);
+                Node to = all.get(nodeIDs[i + 1]);
+                if (from == null || to == null) {
+                    continue;
+                }
+                if (touched.contains(from.id())) {
+                    rebuilt.computeIfAbsent(from.id(), k -> new HashSet<>())
+                            .add(streetEdge(from, to, w, false));
+                }
+                if (touched.contains(to.id())) {
+                    rebuilt.computeIfAbsent(to.id(), k -> new HashSet<>())
+                            .add(streetEdge(to, from, w, true));
+                }
+            }
+        }
+
+        this.nodes = new HashMap<>(base.nodes);
+        this.neighbors = new HashMap<>(base.neighbors);
+        for (long id : touched) {
+            Set<WeightedEdge<Long>> edges = rebuilt.get(id);
+            if (edges == null) {
+                nodes.remove(id);
+                neighbors.remove(id);
+            } else {
+                nodes.put(id, all.get(id));
+                neighbors.put(id, edges);
+            }
+        }
+        this.allNodes = new ArrayList<>(all.values());
+        this.ways = new ArrayList<>(waysByID.values());
+        this.restrictions = base.restrictions;
+        this.touched = Collections.unmodifiableSet(touched);
+    }
+
+    /** Adds node ID and its neighbors in BASE to TOUCHED. */
+    private static void touchNode(StreetMapGraph base, long id, Set<Long> touched) {
+        touched.add(id);
+        Set<WeightedEdge<Long>> edges = base.neighbors.get(id);
+        if (edges != null) {
+            for (WeightedEdge<Long> e : edges) {
+                touched.add(e.to());
+            }
+        }
+    }
+
+    /** Adds the nodes along WAY, if any, to TOUCHED. */
+    private static void touchWay(Way way, Set<Long> touched) {
+        if (way != null) {
+            for (long id : way.nodeIds()) {
+                touched.add(id);
+            }
+        }
     }
 
     /**
@@ -43,6 +186,205 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return incidentList;
     }
 
+    /**
+     * Returns this graph weighted by travel time under PROFILE when leaving at HOUR, an hour
+     * of the day from 0 to 23. The weights are computed the first time they are needed for
+     * the profile and the hour's bucket, and shared by every later route.
+     */
+    public TravelTimeGraph travelTimeGraph(SpeedProfile profile, int hour) {
+        int bucket = profile.bucket(hour);
+        return travelTimeGraphs.computeIfAbsent(profile.name() + "@" + bucket,
+                k -> new TravelTimeGraph(this, profile, bucket));
+    }
+
+    /**
+     * Returns this graph with oneway tags and turn restrictions applied, weighted by distance
+     * if PROFILE is null and otherwise by travel time under PROFILE when leaving at HOUR. Made
+     * the first time it is needed for the weighting, like travelTimeGraph.
+     */
+    public TurnRestrictedGraph turnRestrictedGraph(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        return turnRestrictedGraphs.computeIfAbsent(key,
+                k -> new TurnRestrictedGraph(this, profile, bucket));
+    }
+
+    /**
+     * Returns the weight of each edge of compactGraph(), by edge id: its length if PROFILE is
+     * null, and otherwise the seconds it takes under PROFILE when leaving at HOUR, or infinity
+     * if the profile avoids it. Like travelTimeGraph, oneway tags are not applied. Computed the
+     * first time they are needed for the weighting.
+     */
+    double[] edgeWeights(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        return edgeWeights.computeIfAbsent(key, k -> {
+            CompactGraph compact = compactGraph();
+            double[] weights = new double[compact.edgeCount()];
+            for (int e = 0; e < weights.length; e++) {
+                StreetEdge edge = compact.edge(e);
+                double speed = profile == null ? 1 : profile.speedMph(edge, bucket);
+                weights[e] = speed == 0 ? Double.POSITIVE_INFINITY
+                        : profile == null ? edge.weight() : edge.weight() / speed * SECONDS_PER_HOUR;
+            }
+            return weights;
+        });
+    }
+
+    /**
+     * Returns the least weight of any edge of edgeWeights(PROFILE, HOUR) per mile of its
+     * length, which turns great-circle distances into an A* heuristic for those weights.
+     */
+    double weightPerMile(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        return weightsPerMile.computeIfAbsent(key, k -> {
+            CompactGraph compact = compactGraph();
+            double[] weights = edgeWeights(profile, hour);
+            double least = Double.POSITIVE_INFINITY;
+            for (int e = 0; e < weights.length; e++) {
+                double miles = compact.weight(e);
+                if (miles > 0) {
+                    least = Math.min(least, weights[e] / miles);
+                }
+            }
+            return least == Double.POSITIVE_INFINITY ? 0 : least;
+        });
+    }
+
+    /**
+     * Returns the resolution monotone priority queues should round the weights of
+     * edgeWeights(PROFILE, HOUR) to: the weight of QUEUE_RESOLUTION_MILES on the fastest
+     * edge, so keys are fine enough to bucket every edge apart and coarse enough that a
+     * DialPQ has few empty buckets to walk.
+     */
+    public double queueResolution(SpeedProfile profile, int hour) {
+        double perMile = weightPerMile(profile, hour);
+        return QUEUE_RESOLUTION_MILES * (perMile > 0 ? perMile : 1);
+    }
+
+    /**
+     * Returns the arc flags of this graph weighted by distance if PROFILE is null and
+     * otherwise by travel time under PROFILE when leaving at HOUR, with ArcFlags.REGIONS
+     * regions. They are read from the flag file for the weighting if it is kept and up to
+     * date, and otherwise found the first time they are needed, which takes a while; the
+     * calling thread waits for them. Request threads use readyArcFlags instead.
+     */
+    public ArcFlags arcFlags(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        return arcFlags.computeIfAbsent(key, k -> ArcFlags.load(this, profile, hour, k));
+    }
+
+    /**
+     * Returns the arc flags weighted as in arcFlags(PROFILE, HOUR) if they are ready, and
+     * otherwise starts finding them in the background, as prepareArcFlags does, and returns
+     * null. Never waits for the flags.
+     */
+    public ArcFlags readyArcFlags(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        ArcFlags flags = arcFlags.get(key);
+        if (flags == null) {
+            prepareArcFlags(profile, hour);
+        }
+        return flags;
+    }
+
+    /**
+     * Starts finding the arc flags weighted as in arcFlags(PROFILE, HOUR) on a background
+     * thread, unless they are ready or already being found. If finding them fails, the next
+     * call starts over.
+     */
+    public void prepareArcFlags(SpeedProfile profile, int hour) {
+        int bucket = profile == null ? 0 : profile.bucket(hour);
+        String key = profile == null ? "" : profile.name() + "@" + bucket;
+        Function<StreetMapGraph, ArcFlags> find = g -> g.arcFlags(profile, hour);
+        if (arcFlagWeightings.putIfAbsent(key, find) != null) {
+            return;
+        }
+        ARC_FLAG_LOADER.execute(() -> {
+            try {
+                find.apply(this);
+            } catch (RuntimeException e) {
+                arcFlagWeightings.remove(key);
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Finds the arc flags of this graph for every weighting they were asked for on PREVIOUS,
+     * waiting for them, so that this graph can replace PREVIOUS with its flags ready. A
+     * weighting whose flags cannot be found is left to be asked for again.
+     */
+    public void findArcFlagsOf(StreetMapGraph previous) {
+        for (Map.Entry<String, Function<StreetMapGraph, ArcFlags>> weighting
+                : previous.arcFlagWeightings.entrySet()) {
+            if (arcFlagWeightings.putIfAbsent(weighting.getKey(), weighting.getValue()) != null) {
+                continue;
+            }
+            try {
+                weighting.getValue().apply(this);
+            } catch (RuntimeException e) {
+                arcFlagWeightings.remove(weighting.getKey());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns whether V and W are in the same strongly connected component, which a route
+     * between them needs. False if either is not a vertex of this graph.
+     */
+    public boolean connected(long v, long w) {
+        CompactGraph compact = compactGraph();
+        int i = compact.index(v);
+        int j = compact.index(w);
+        return i >= 0 && j >= 0 && compact.component(i) == compact.component(j);
+    }
+
+    /** Returns whether V is a vertex of the component with the most vertices. */
+    public boolean inLargestComponent(long v) {
+        CompactGraph compact = compactGraph();
+        int i = compact.index(v);
+        return i >= 0 && compact.component(i) == compact.largestComponent();
+    }
+
+    /** Returns the vertices and edges of this graph in arrays indexed by dense vertex ids. */
+    public CompactGraph compactGraph() {
+        CompactGraph compact = compactGraph;
+        if (compact == null) {
+            synchronized (this) {
+                compact = compactGraph;
+                if (compact == null) {
+                    compact = new CompactGraph(this);
+                    compactGraph = compact;
+                }
+            }
+        }
+        return compact;
+    }
+
+    /**
+     * Returns the shortest edge from FROM to TO, or null if there is none. Only looks at the
+     * edges of FROM, of which there are a handful, and does not copy them as neighbors() does,
+     * so it is cheap enough to call for every step of a route.
+     */
+    public WeightedEdge<Long> edge(long from, long to) {
+        Set<WeightedEdge<Long>> edges = neighbors.get(from);
+        if (edges == null) {
+            return null;
+        }
+        WeightedEdge<Long> best = null;
+        for (WeightedEdge<Long> e : edges) {
+            if (e.to() == to && (best == null || e.weight() < best.weight())) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
     /**
      * Returns the great-circle distance between S and GOAL. Assumes
      * S and GOAL exist in this graph.
@@ -69,18 +411,42 @@ public class StreetMapGraph implements AStarGraph<Long> {
 
     /**
      * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
+     * file. Assumes file is correctly formatted. The file is read with the pipelined
+     * OsmXmlReader, or with a single SAX pass if the bearmaps.osm.parser system property
+     * is "sax".
      */
     private static StreetMapGraph readFromXML(String filename) {
+        StreetMapGraph smg = new StreetMapGraph();
+        if ("sax".equals(System.getProperty(OSM_PARSER_PROPERTY))) {
+            try (FileInputStream inputStream = new FileInputStream(new File(filename))) {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                SAXParser saxParser = factory.newSAXParser();
+                GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
+                saxParser.parse(inputStream, gbh);
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            try {
+                OsmXmlReader.read(filename, smg);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        smg.allNodes = new ArrayList<>(smg.nodes.values());
+        smg.clean();
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns a graph from an OSM PBF file, decoding its blocks
+     * in parallel.
+     */
+    private static StreetMapGraph readFromPBF(String filename) {
         StreetMapGraph smg = new StreetMapGraph();
         try {
-            File inputFile = new File(filename);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
-            saxParser.parse(inputStream, gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+            OsmPbfReader.read(filename, smg);
+        } catch (IOException e) {
             e.printStackTrace();
         }
         smg.allNodes = new ArrayList<>(smg.nodes.values());
@@ -96,22 +462,41 @@ public class StreetMapGraph implements AStarGraph<Long> {
         }
     }
 
-    /** Adds an edge to this graph, if FROMID and TOID are in this graph. Does
-     *  not add additional edge if edge already exists.
+    /** Adds an edge along WAY to this graph, if FROMID and TOID are in this graph. Does
+     *  not add additional edge if edge already exists. REVERSE tells whether the edge goes
+     *  against the order of the way's nodes.
      **/
-    void addWeightedEdge(long fromID, long toID, String name) {
+    void addWeightedEdge(long fromID, long toID, Way way, boolean reverse) {
         if (nodes.containsKey(fromID) && nodes.containsKey(toID)) {
-            Node from = nodes.get(fromID);
-            Node to = nodes.get(toID);
-            double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
-
             Set<WeightedEdge<Long>> edgeSet = neighbors.get(fromID);
-            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(from.id(), to.id(), weight);
-            weightedEdge.setName(name);
-            edgeSet.add(weightedEdge);
+            edgeSet.add(streetEdge(nodes.get(fromID), nodes.get(toID), way, reverse));
         }
     }
 
+    /** Returns a new edge along WAY from FROM to TO, weighted by the distance between them. */
+    private static StreetEdge streetEdge(Node from, Node to, Way way, boolean reverse) {
+        double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
+        return new StreetEdge(from.id(), to.id(), weight, way, reverse);
+    }
+
+    /** Adds a turn restriction to this graph. */
+    void addRestriction(TurnRestriction restriction) {
+        restrictions.add(restriction);
+    }
+
+    /**
+     * Adds a way to this graph, along with an edge in each direction between every pair of
+     * consecutive nodes on it.
+     **/
+    void addWay(Way way) {
+        long[] nodeIDs = way.nodeIds();
+        for (int i = 0; i < nodeIDs.length - 1; i++) {
+            addWeightedEdge(nodeIDs[i], nodeIDs[i + 1], way, false);
+            addWeightedEdge(nodeIDs[i + 1], nodeIDs[i], way, true);
+        }
+        ways.add(way);
+    }
+
     /** 
      * Removes vertices with 0 out-degree from graph. Note that this will   
      * cause issues if edges are not bidirectional. 
@@ -191,7 +576,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
+    static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -203,6 +588,14 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return 3963 * c;
     }
 
+    /**
+     * Returns true if V is a vertex of this graph.
+     * @param v The id of the vertex.
+     */
+    public boolean contains(long v) {
+        return nodes.containsKey(v);
+    }
+
     /**
      * Gets the longitude of a vertex.
      * @param v The id of the vertex.
@@ -239,6 +632,20 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return nodes.get(v).name();
     }
 
+    /** Returns the node of vertex V, or null if V is not a vertex of this graph. */
+    protected Node node(long v) {
+        return nodes.get(v);
+    }
+
+    /**
+     * Returns the vertices whose node or edges may differ from the graph this graph was
+     * derived from with StreetMapGraph(StreetMapGraph, OsmChange), including removed ones.
+     * Empty for graphs read from a file.
+     */
+    protected Set<Long> touchedVertices() {
+        return touched;
+    }
+
     protected List<Node> getNodes() {
         List<Node> nodes = new ArrayList<>();
         for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
@@ -247,6 +654,16 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return nodes;
     }
 
+    /** Returns the ways this graph's edges were built from. */
+    public List<Way> ways() {
+        return Collections.unmodifiableList(ways);
+    }
+
+    /** Returns the turn restrictions read with this graph. */
+    public List<TurnRestriction> restrictions() {
+        return Collections.unmodifiableList(restrictions);
+    }
+
     protected List<Node> getAllNodes() {    
         return new ArrayList<>(allNodes);   
     }
@@ -0,0 +1,79 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A view of a StreetMapGraph whose edges are weighted by the seconds it takes to travel them
+ * under a SpeedProfile at some hours of the day. The weights are computed once, when the view
+ * is created; get views from StreetMapGraph.travelTimeGraph so that they are shared.
+ *
+ * The A* heuristic is the great-circle distance at the fastest speed of any edge, which never
+ * overestimates the travel time, so A* still finds the fastest route.
+ */
+public class TravelTimeGraph implements AStarGraph<Long> {
+
+    private static final double SECONDS_PER_HOUR = 3600;
+
+    private final StreetMapGraph graph;
+    private final SpeedProfile profile;
+    private final int bucket;
+    private final Map<Long, List<WeightedEdge<Long>>> adjacency = new HashMap<>();
+    private final double maxSpeedMph;
+
+    TravelTimeGraph(StreetMapGraph graph, SpeedProfile profile, int bucket) {
+        this.graph = graph;
+        this.profile = profile;
+        this.bucket = bucket;
+        double maxSpeed = 0;
+        for (Node n : graph.getNodes()) {
+            List<WeightedEdge<Long>> edges = new ArrayList<>();
+            for (WeightedEdge<Long> e : graph.neighbors(n.id())) {
+                StreetEdge street = (StreetEdge) e;
+                double speed = profile.speedMph(street, bucket);
+                if (speed > 0) {
+                    edges.add(street.withWeight(e.weight() / speed * SECONDS_PER_HOUR));
+                    maxSpeed = Math.max(maxSpeed, speed);
+                }
+            }
+            adjacency.put(n.id(), edges);
+        }
+        this.maxSpeedMph = maxSpeed;
+    }
+
+    /** Returns the edges out of V, weighted in seconds. Edges the profile avoids are left out. */
+    @Override
+    public List<WeightedEdge<Long>> neighbors(Long v) {
+        List<WeightedEdge<Long>> edges = adjacency.get(v);
+        return edges == null ? Collections.emptyList() : Collections.unmodifiableList(edges);
+    }
+
+    /** Returns the seconds it takes to cover the great-circle distance at the top speed. */
+    @Override
+    public double estimatedDistanceToGoal(Long s, Long goal) {
+        if (maxSpeedMph == 0) {
+            return 0;
+        }
+        return graph.estimatedDistanceToGoal(s, goal) / maxSpeedMph * SECONDS_PER_HOUR;
+    }
+
+    /** Returns the graph this is a view of. */
+    public StreetMapGraph graph() {
+        return graph;
+    }
+
+    public SpeedProfile profile() {
+        return profile;
+    }
+
+    /** Returns the SpeedProfile bucket of the hours this view is for. */
+    public int bucket() {
+        return bucket;
+    }
+}
@@ -0,0 +1,155 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.CancellationToken;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routes on a StreetMapGraph that never go the wrong way down a one way way, and never make
+ * a turn that a turn restriction forbids. Whether a turn is allowed depends on the edge the
+ * route arrived on, so searches are edge based: a search state is the edge just travelled,
+ * and its neighbors are the edges out of its head that may be turned onto. The states are
+ * the edge ids of the graph's CompactGraph, so the expanded graph is never built; the only
+ * extra data is the weight of each edge and a TurnTable for each node with restrictions.
+ *
+ * Get one from StreetMapGraph.turnRestrictedGraph, which makes it once per weighting.
+ */
+public class TurnRestrictedGraph {
+
+    /** The state before the first edge, at the start vertex. */
+    private static final long START = -2;
+    /** The state after the last edge, which every edge into the destination leads to. */
+    private static final long SINK = -1;
+
+    private static final double SECONDS_PER_HOUR = 3600;
+
+    private final StreetMapGraph graph;
+    private final CompactGraph compact;
+    private final double[] weights;
+    private final TurnTable[] turns;
+    /** Converts miles to the units of the weights, for the A* heuristic. */
+    private final double weightPerMile;
+
+    /**
+     * @param profile The speed profile to weight edges with, or null to weight by distance.
+     * @param bucket The bucket of the profile's hours to use.
+     */
+    TurnRestrictedGraph(StreetMapGraph graph, SpeedProfile profile, int bucket) {
+        this.graph = graph;
+        this.compact = graph.compactGraph();
+        this.weights = new double[compact.edgeCount()];
+        double maxSpeed = 0;
+        for (int e = 0; e < weights.length; e++) {
+            StreetEdge edge = compact.edge(e);
+            double speed = profile == null ? 1 : profile.speedMph(edge, bucket);
+            if (edge.isAgainstOneway() || speed == 0) {
+                weights[e] = Double.POSITIVE_INFINITY;
+            } else {
+                weights[e] = profile == null ? edge.weight()
+                        : edge.weight() / speed * SECONDS_PER_HOUR;
+                maxSpeed = Math.max(maxSpeed, speed);
+            }
+        }
+        this.weightPerMile = profile == null ? 1
+                : maxSpeed == 0 ? 0 : SECONDS_PER_HOUR / maxSpeed;
+        this.turns = new TurnTable[compact.vertexCount()];
+        for (TurnRestriction r : graph.restrictions()) {
+            int via = compact.index(r.viaNode());
+            if (via >= 0) {
+                if (turns[via] == null) {
+                    turns[via] = new TurnTable();
+                }
+                turns[via].add(r);
+            }
+        }
+    }
+
+    /**
+     * Returns the best allowed route from SRC to DEST as a list of vertex ids, or an empty
+     * list if there is none or it was not found within TIMEOUT seconds.
+     */
+    public List<Long> shortestPath(long src, long dest, double timeout) {
+        return shortestPath(src, dest, CancellationToken.withTimeout(timeout));
+    }
+
+    /**
+     * Returns the best allowed route from SRC to DEST as a list of vertex ids, or an empty
+     * list if there is none or TOKEN stopped the search first.
+     */
+    public List<Long> shortestPath(long src, long dest, CancellationToken token) {
+        int source = compact.index(src);
+        int target = compact.index(dest);
+        if (source < 0 || target < 0) {
+            return new ArrayList<>();
+        }
+        if (source == target) {
+            return new ArrayList<>(Collections.singletonList(src));
+        }
+        AStarSolver<Long> solver = new AStarSolver<>(new Search(source, target), START, SINK,
+                token);
+        List<Long> route = new ArrayList<>();
+        if (solver.outcome() != SolverOutcome.SOLVED) {
+            return route;
+        }
+        route.add(src);
+        for (long state : solver.solution()) {
+            if (state >= 0) {
+                route.add(compact.id(compact.head((int) state)));
+            }
+        }
+        return route;
+    }
+
+    /** The edge based graph of one search, whose goal is the SINK state. */
+    private class Search implements AStarGraph<Long> {
+        private final int source;
+        private final int target;
+        private final long targetId;
+
+        Search(int source, int target) {
+            this.source = source;
+            this.target = target;
+            this.targetId = compact.id(target);
+        }
+
+        @Override
+        public List<WeightedEdge<Long>> neighbors(Long state) {
+            List<WeightedEdge<Long>> next = new ArrayList<>();
+            if (state == SINK) {
+                return next;
+            }
+            int v = state == START ? source : compact.head(state.intValue());
+            if (v == target) {
+                next.add(new WeightedEdge<>(state, SINK, 0));
+                return next;
+            }
+            TurnTable table = state == START ? null : turns[v];
+            long fromWay = state == START ? -1 : compact.edge(state.intValue()).wayId();
+            for (int e = compact.firstEdge(v); e < compact.firstEdge(v + 1); e++) {
+                double w = weights[e];
+                if (table != null) {
+                    w += table.cost(fromWay, compact.edge(e).wayId());
+                }
+                if (w != Double.POSITIVE_INFINITY) {
+                    next.add(new WeightedEdge<>(state, (long) e, w));
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(Long state, Long goal) {
+            if (state == SINK) {
+                return 0;
+            }
+            int v = state == START ? source : compact.head(state.intValue());
+            return graph.estimatedDistanceToGoal(compact.id(v), targetId) * weightPerMile;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * A turn restriction parsed from an OSM restriction relation whose via member is a node:
+ * arriving at the via node on the from way, either the turn onto the to way is forbidden
+ * (no_left_turn, no_u_turn, ...), or it is the only turn allowed (only_straight_on, ...).
+ * See <a href="https://wiki.openstreetmap.org/wiki/Relation:restriction">restrictions</a>.
+ */
+public class TurnRestriction {
+    private final long fromWay;
+    private final long viaNode;
+    private final long toWay;
+    private final boolean only;
+
+    public TurnRestriction(long fromWay, long viaNode, long toWay, boolean only) {
+        this.fromWay = fromWay;
+        this.viaNode = viaNode;
+        this.toWay = toWay;
+        this.only = only;
+    }
+
+    public long fromWay() {
+        return fromWay;
+    }
+
+    public long viaNode() {
+        return viaNode;
+    }
+
+    public long toWay() {
+        return toWay;
+    }
+
+    /** Returns true for only_* restrictions, and false for no_* restrictions. */
+    public boolean isOnly() {
+        return only;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TurnRestriction %s from way %d via node %d to way %d",
+                only ? "only" : "no", fromWay, viaNode, toWay);
+    }
+}
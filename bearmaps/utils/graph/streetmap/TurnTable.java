@@ -0,0 +1,45 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.Arrays;
+
+/**
+ * The turn restrictions at one node, as parallel arrays of from and to way ids. Nodes only
+ * have a handful of restrictions, so looking one up is a short scan.
+ */
+class TurnTable {
+    private long[] fromWays = new long[0];
+    private long[] toWays = new long[0];
+    private boolean[] only = new boolean[0];
+
+    void add(TurnRestriction restriction) {
+        int n = fromWays.length;
+        fromWays = Arrays.copyOf(fromWays, n + 1);
+        toWays = Arrays.copyOf(toWays, n + 1);
+        only = Arrays.copyOf(only, n + 1);
+        fromWays[n] = restriction.fromWay();
+        toWays[n] = restriction.toWay();
+        only[n] = restriction.isOnly();
+    }
+
+    /**
+     * Returns the cost of turning from way FROM onto way TO at this node: infinite if a no_*
+     * restriction forbids it, or if an only_* restriction from FROM names another way, and 0
+     * otherwise.
+     */
+    double cost(long from, long to) {
+        boolean hasOnly = false;
+        boolean onlyAllows = false;
+        for (int i = 0; i < fromWays.length; i++) {
+            if (fromWays[i] != from) {
+                continue;
+            }
+            if (only[i]) {
+                hasOnly = true;
+                onlyAllows |= toWays[i] == to;
+            } else if (toWays[i] == to) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return hasOnly && !onlyAllows ? Double.POSITIVE_INFINITY : 0;
+    }
+}
@@ -0,0 +1,30 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TurnTableTest {
+
+    private static final double FORBIDDEN = Double.POSITIVE_INFINITY;
+
+    @Test
+    public void testNoTurn() {
+        TurnTable table = new TurnTable();
+        table.add(new TurnRestriction(1, 100, 2, false));
+        assertEquals(FORBIDDEN, table.cost(1, 2), 0);
+        assertEquals(0, table.cost(1, 3), 0);
+        assertEquals(0, table.cost(2, 1), 0);
+    }
+
+    @Test
+    public void testOnlyTurn() {
+        TurnTable table = new TurnTable();
+        table.add(new TurnRestriction(1, 100, 1, true));
+        table.add(new TurnRestriction(1, 100, 4, true));
+        assertEquals(0, table.cost(1, 1), 0);
+        assertEquals(0, table.cost(1, 4), 0);
+        assertEquals(FORBIDDEN, table.cost(1, 2), 0);
+        assertEquals(0, table.cost(2, 3), 0);
+    }
+}
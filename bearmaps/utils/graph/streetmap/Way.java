@@ -0,0 +1,67 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * A way parsed from OSM data that was kept for routing, i.e. an ordered list of node ids
+ * along a road, plus the road's name, highway class, speed limit and direction of travel.
+ */
+public class Way {
+    private final long id;
+    private final long[] nodeIds;
+    private final String name;
+    private final HighwayClass highway;
+    private final double maxspeed;
+    private final int oneway;
+
+    /** Creates a two way road of class UNCLASSIFIED with no speed limit. */
+    public Way(long id, long[] nodeIds, String name) {
+        this(id, nodeIds, name, HighwayClass.UNCLASSIFIED, Double.NaN, 0);
+    }
+
+    /**
+     * @param highway The class of road.
+     * @param maxspeed The speed limit in mph, or NaN if there is none.
+     * @param oneway 1 if the way can only be travelled along its nodes, -1 if only against
+     *               them, and 0 if both ways.
+     */
+    public Way(long id, long[] nodeIds, String name, HighwayClass highway, double maxspeed,
+               int oneway) {
+        this.id = id;
+        this.nodeIds = nodeIds;
+        this.name = name;
+        this.highway = highway;
+        this.maxspeed = maxspeed;
+        this.oneway = oneway;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    /** Returns the ids of the nodes along this way, in order. Do not modify. */
+    public long[] nodeIds() {
+        return nodeIds;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public HighwayClass highway() {
+        return highway;
+    }
+
+    /** Returns the speed limit in mph, or NaN if the way has none. */
+    public double maxspeed() {
+        return maxspeed;
+    }
+
+    /** Returns 1 if this way is one way along its nodes, -1 if against them, and 0 if not. */
+    public int oneway() {
+        return oneway;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Way id: %d, name: %s, nodes: %d", id, name, nodeIds.length);
+    }
+}
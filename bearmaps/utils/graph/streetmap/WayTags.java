@@ -0,0 +1,109 @@
+package bearmaps.utils.graph.streetmap;
+
+/**
+ * Collects the tags of a way that matter for routing while a reader walks through them, and
+ * turns them into a Way once the way ends. Readers keep one instance and reset it after each
+ * way, so unrelated tags cost nothing but a comparison.
+ */
+class WayTags {
+
+    /** The tag keys this class keeps, for readers that can compare keys without decoding them. */
+    static final String[] KEYS = {"highway", "name", "maxspeed", "oneway", "junction"};
+
+    private HighwayClass highway;
+    private String name = "";
+    private String maxspeed;
+    private String oneway;
+    private String junction;
+
+    /** Keeps the tag K=V if K is one of KEYS. */
+    void set(String k, String v) {
+        switch (k) {
+            case "highway":
+                highway = HighwayClass.fromTag(v);
+                break;
+            case "name":
+                name = v;
+                break;
+            case "maxspeed":
+                maxspeed = v;
+                break;
+            case "oneway":
+                oneway = v;
+                break;
+            case "junction":
+                junction = v;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Returns true if the way is a kind of road that is kept for routing. */
+    boolean routable() {
+        return highway != null;
+    }
+
+    /** Returns the way with the given id and nodes and the tags seen since the last reset. */
+    Way toWay(long id, long[] nodeIds) {
+        return new Way(id, nodeIds, name, highway, parseMaxspeed(maxspeed), parseOneway());
+    }
+
+    void reset() {
+        highway = null;
+        name = "";
+        maxspeed = null;
+        oneway = null;
+        junction = null;
+    }
+
+    /**
+     * Returns the direction of travel allowed on the way: 1 along its nodes, -1 against them,
+     * or 0 for both. Motorways and roundabouts are one way unless tagged otherwise.
+     * See <a href="https://wiki.openstreetmap.org/wiki/Key:oneway">the oneway tag</a>.
+     */
+    private int parseOneway() {
+        if (oneway == null) {
+            return highway == HighwayClass.MOTORWAY || "roundabout".equals(junction) ? 1 : 0;
+        }
+        switch (oneway) {
+            case "yes":
+            case "true":
+            case "1":
+                return 1;
+            case "-1":
+            case "reverse":
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the speed limit in the maxspeed tag VALUE in mph, or NaN if there is none or it
+     * is not a number, as with "none" or "signals". Numbers are in km/h unless followed by mph.
+     * See <a href="https://wiki.openstreetmap.org/wiki/Key:maxspeed">the maxspeed tag</a>.
+     */
+    static double parseMaxspeed(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        int end = 0;
+        while (end < value.length()
+                && (Character.isDigit(value.charAt(end)) || value.charAt(end) == '.')) {
+            end++;
+        }
+        if (end == 0) {
+            return Double.NaN;
+        }
+        double speed;
+        try {
+            speed = Double.parseDouble(value.substring(0, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+        return value.indexOf("mph", end) >= 0 ? speed : speed / KILOMETERS_PER_MILE;
+    }
+
+    private static final double KILOMETERS_PER_MILE = 1.609344;
+}
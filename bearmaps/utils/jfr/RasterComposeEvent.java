@@ -0,0 +1,37 @@
+package bearmaps.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** JDK Flight Recorder event for building the image of one raster response. */
+@Name("bearmaps.RasterCompose")
+@Label("Raster Compose")
+@Category({"BearMaps", "Rastering"})
+@Description("Composing and encoding the image of a raster response")
+public class RasterComposeEvent extends Event {
+
+    @Label("Depth")
+    public int depth;
+
+    @Label("Tile Count")
+    public int tileCount;
+
+    @Label("Tile Cache Hits")
+    @Description("Number of tiles that were already decoded in the tile cache")
+    public int cacheHits;
+
+    @Label("Raster Cached")
+    @Description("Whether the whole encoded raster was served from the raster cache")
+    public boolean rasterCached;
+
+    @Label("Route Drawn")
+    public boolean routeDrawn;
+
+    @Label("Encode Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long encodeTime;
+}
@@ -0,0 +1,32 @@
+package bearmaps.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JDK Flight Recorder event for one shortest path search of an AStarSolver. */
+@Name("bearmaps.RouteSearch")
+@Label("Route Search")
+@Category({"BearMaps", "Routing"})
+@Description("A shortest path search between two vertices")
+public class RouteSearchEvent extends Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Target")
+    public String target;
+
+    @Label("Settled Vertices")
+    @Description("Number of vertices removed from the priority queue")
+    public int settled;
+
+    @Label("Queue High-Water Mark")
+    @Description("Largest size the priority queue reached")
+    public int queueHighWater;
+
+    @Label("Outcome")
+    public String outcome;
+}
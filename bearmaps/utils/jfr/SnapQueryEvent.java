@@ -0,0 +1,22 @@
+package bearmaps.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** JDK Flight Recorder event for snapping a coordinate to the closest vertex of the graph. */
+@Name("bearmaps.SnapQuery")
+@Label("Snap Query")
+@Category({"BearMaps", "Routing"})
+public class SnapQueryEvent extends Event {
+
+    @Label("Longitude")
+    public double lon;
+
+    @Label("Latitude")
+    public double lat;
+
+    @Label("Closest Vertex")
+    public long vertex;
+}
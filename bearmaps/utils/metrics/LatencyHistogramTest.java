@@ -0,0 +1,32 @@
+package bearmaps.utils.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverTheirValues() {
+        for (long v : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(LatencyHistogram.highestValueIn(bucket) >= v);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < v);
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(10000, h.count());
+        assertEquals(10_000_000, h.max());
+        assertEquals(5_000_000, h.valueAtQuantile(0.5), 5_000_000 / 16.0);
+        assertEquals(9_900_000, h.valueAtQuantile(0.99), 9_900_000 / 16.0);
+        assertEquals(10_000_000, h.valueAtQuantile(1.0));
+        assertEquals(0, new LatencyHistogram().valueAtQuantile(0.5));
+    }
+}
@@ -0,0 +1,135 @@
+package bearmaps.utils.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The process-wide registry of metrics. Metrics are identified by a name and optional labels,
+ * given as alternating label names and values, and are created on first use. Callers on hot
+ * paths should look their metrics up once and keep them in a field.
+ *
+ * Everything registered here is exposed in the Prometheus text format by prometheusText(),
+ * with histograms written as summaries in seconds.
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final Map<String, Map<String, LatencyHistogram>> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongAdder>> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongSupplier>> COUNTER_FUNCTIONS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, LongSupplier>> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /** Returns the latency histogram with the given name and labels. */
+    public static LatencyHistogram histogram(String name, String... labels) {
+        return family(HISTOGRAMS, name).computeIfAbsent(labelString(labels), k -> new LatencyHistogram());
+    }
+
+    /** Returns the counter with the given name and labels. */
+    public static LongAdder counter(String name, String... labels) {
+        return family(COUNTERS, name).computeIfAbsent(labelString(labels), k -> new LongAdder());
+    }
+
+    /**
+     * Registers a counter whose value is read from VALUE, for components that already keep
+     * their own counts. Replaces any earlier registration with the same name and labels.
+     */
+    public static void counter(String name, LongSupplier value, String... labels) {
+        family(COUNTER_FUNCTIONS, name).put(labelString(labels), value);
+    }
+
+    /**
+     * Registers a gauge whose value is read from VALUE. Replaces any earlier registration
+     * with the same name and labels.
+     */
+    public static void gauge(String name, LongSupplier value, String... labels) {
+        family(GAUGES, name).put(labelString(labels), value);
+    }
+
+    /** Returns every registered metric in the Prometheus text exposition format. */
+    public static String prometheusText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, LatencyHistogram>> family : sorted(HISTOGRAMS).entrySet()) {
+            String name = family.getKey();
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(family.getValue()).entrySet()) {
+                LatencyHistogram h = e.getValue();
+                for (double q : QUANTILES) {
+                    sb.append(name).append(withLabel(e.getKey(), "quantile", Double.toString(q)))
+                            .append(' ').append(h.valueAtQuantile(q) / NANOS_PER_SECOND).append('\n');
+                }
+                sb.append(name).append("_sum").append(e.getKey()).append(' ')
+                        .append(h.sum() / NANOS_PER_SECOND).append('\n');
+                sb.append(name).append("_count").append(e.getKey()).append(' ')
+                        .append(h.count()).append('\n');
+            }
+        }
+        for (Map.Entry<String, Map<String, LongAdder>> family : sorted(COUNTERS).entrySet()) {
+            sb.append("# TYPE ").append(family.getKey()).append(" counter\n");
+            for (Map.Entry<String, LongAdder> e : new TreeMap<>(family.getValue()).entrySet()) {
+                sb.append(family.getKey()).append(e.getKey()).append(' ')
+                        .append(e.getValue().sum()).append('\n');
+            }
+        }
+        appendFunctions(sb, COUNTER_FUNCTIONS, "counter");
+        appendFunctions(sb, GAUGES, "gauge");
+        return sb.toString();
+    }
+
+    private static void appendFunctions(StringBuilder sb, Map<String, Map<String, LongSupplier>> families,
+                                        String type) {
+        for (Map.Entry<String, Map<String, LongSupplier>> family : sorted(families).entrySet()) {
+            sb.append("# TYPE ").append(family.getKey()).append(' ').append(type).append('\n');
+            for (Map.Entry<String, LongSupplier> e : new TreeMap<>(family.getValue()).entrySet()) {
+                sb.append(family.getKey()).append(e.getKey()).append(' ')
+                        .append(e.getValue().getAsLong()).append('\n');
+            }
+        }
+    }
+
+    private static <V> Map<String, V> family(Map<String, Map<String, V>> families, String name) {
+        return families.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+    }
+
+    private static <V> TreeMap<String, V> sorted(Map<String, V> map) {
+        return new TreeMap<>(map);
+    }
+
+    /** Formats alternating label names and values as {a="1",b="2"}, or "" if there are none. */
+    private static String labelString(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs.");
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    /** Adds one more label to a formatted label string. */
+    private static String withLabel(String labelString, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        if (labelString.isEmpty()) {
+            return "{" + label + "}";
+        }
+        return labelString.substring(0, labelString.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
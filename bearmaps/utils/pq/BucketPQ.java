@@ -0,0 +1,183 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * The parts shared by the monotone priority queues, RadixHeapPQ and DialPQ. Each priority
+ * value is turned into a fixed-point key, a whole number of RESOLUTIONs, and items are kept
+ * in buckets by key. Within a bucket items are told apart by their exact priority values,
+ * so the queues poll in the same order as MinHeapPQ; the keys only decide how items are
+ * bucketed.
+ *
+ * The queues are monotone: they are fast when no item is inserted with a lower priority
+ * value than the item last polled, as in Dijkstra's algorithm and in A* with a consistent
+ * heuristic. An item that is lower anyway, as rounding in a heuristic can make it, gets the
+ * key of the item last polled, so it is still polled before any item it is lower than.
+ */
+abstract class BucketPQ<T> implements PriorityQueue<T> {
+
+    /** Keys above this are refused, so differences of keys never overflow. */
+    static final long MAX_KEY = 1L << 62;
+
+    /** The priority value of one unit of key. */
+    private final double resolution;
+
+    /** The key of the item last polled, which no item in the queue has less than. */
+    long last;
+
+    private final HashMap<T, Entry<T>> entries = new HashMap<>();
+
+    BucketPQ(double resolution) {
+        if (!(resolution > 0) || resolution == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        this.resolution = resolution;
+    }
+
+    /** Puts E into the bucket of its key. */
+    abstract void place(Entry<T> e);
+
+    /**
+     * Returns the bucket holding the item with the lowest priority value, which must exist.
+     * If POLLING, the queue may reorganize itself first, moving last up to that item's key.
+     */
+    abstract Bucket<T> lowest(boolean polling);
+
+    @Override
+    public T peek() {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        return lowest(false).min().item;
+    }
+
+    /* Inserts ITEM with priority value PRIORITYVALUE. If ITEM is already in the queue, throws
+       an IllegalArgumentException. */
+    @Override
+    public void insert(T item, double priorityValue) {
+        if (entries.containsKey(item)) {
+            throw new IllegalArgumentException("Item " + item + " is already in the queue");
+        }
+        Entry<T> e = new Entry<>(item, priorityValue, key(priorityValue));
+        entries.put(item, e);
+        place(e);
+    }
+
+    @Override
+    public T poll() {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Entry<T> e = lowest(true).min();
+        e.bucket.remove(e);
+        entries.remove(e.item);
+        return e.item;
+    }
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. If ITEM is not in the queue,
+       throws a NoSuchElementException. */
+    @Override
+    public void changePriority(T item, double priorityValue) {
+        Entry<T> e = entries.get(item);
+        if (e == null) {
+            throw new NoSuchElementException("Item " + item + " is not in the queue");
+        }
+        e.bucket.remove(e);
+        e.priorityValue = priorityValue;
+        e.key = key(priorityValue);
+        place(e);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    /** Returns the key of PRIORITYVALUE, or last if that is more. */
+    private long key(double priorityValue) {
+        double units = priorityValue / resolution;
+        if (Double.isNaN(units) || units >= MAX_KEY) {
+            throw new IllegalArgumentException("Priority value " + priorityValue
+                    + " is too large for a resolution of " + resolution);
+        }
+        return Math.max(Math.round(units), last);
+    }
+
+    /** An item, its priority value and key, and where it is kept. */
+    static class Entry<T> {
+        final T item;
+        double priorityValue;
+        long key;
+        Bucket<T> bucket;
+        int slot;
+
+        Entry(T item, double priorityValue, long key) {
+            this.item = item;
+            this.priorityValue = priorityValue;
+            this.key = key;
+        }
+    }
+
+    /** Returns an array of LENGTH empty bucket slots. */
+    @SuppressWarnings("unchecked")
+    static <T> Bucket<T>[] newBuckets(int length) {
+        return (Bucket<T>[]) new Bucket<?>[length];
+    }
+
+    /** An unordered bag of entries, each of which knows its slot so it can be removed. */
+    static class Bucket<T> {
+        @SuppressWarnings("unchecked")
+        private Entry<T>[] entries = (Entry<T>[]) new Entry<?>[4];
+        int size;
+
+        void add(Entry<T> e) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            e.bucket = this;
+            e.slot = size;
+            entries[size++] = e;
+        }
+
+        void remove(Entry<T> e) {
+            Entry<T> moved = entries[--size];
+            entries[e.slot] = moved;
+            moved.slot = e.slot;
+            entries[size] = null;
+            e.bucket = null;
+        }
+
+        Entry<T> get(int i) {
+            return entries[i];
+        }
+
+        /** Returns the entry with the lowest priority value, of which there must be one. */
+        Entry<T> min() {
+            Entry<T> min = entries[0];
+            for (int i = 1; i < size; i++) {
+                if (entries[i].priorityValue < min.priorityValue) {
+                    min = entries[i];
+                }
+            }
+            return min;
+        }
+
+        /** Returns the entry with the lowest key, of which there must be one. */
+        Entry<T> minKey() {
+            Entry<T> min = entries[0];
+            for (int i = 1; i < size; i++) {
+                if (entries[i].key < min.key) {
+                    min = entries[i];
+                }
+            }
+            return min;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package bearmaps.utils.pq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BucketPQTest {
+
+    private static final int NUM_OPERATIONS = 20000;
+
+    /** Returns one of each monotone queue, bucketing by RESOLUTION. */
+    private static List<PriorityQueue<Integer>> queues(double resolution) {
+        List<PriorityQueue<Integer>> queues = new ArrayList<>();
+        queues.add(new RadixHeapPQ<>(resolution));
+        queues.add(new DialPQ<>(resolution));
+        return queues;
+    }
+
+    /**
+     * Runs a random monotone workload, like the fringe of a Dijkstra search, on each queue
+     * and on a MinHeapPQ, and checks that they poll the same priority values in turn.
+     */
+    @Test
+    public void testPollsLikeMinHeap() {
+        for (double resolution : new double[]{1e-4, 0.01, 1}) {
+            for (PriorityQueue<Integer> pq : queues(resolution)) {
+                Random r = new Random(1);
+                MinHeapPQ<Integer> reference = new MinHeapPQ<>();
+                double[] priorities = new double[NUM_OPERATIONS];
+                double last = 0;
+                int next = 0;
+                for (int i = 0; i < NUM_OPERATIONS; i++) {
+                    int op = r.nextInt(4);
+                    if (op == 0 && pq.size() > 0) {
+                        assertEquals(priorities[reference.peek()], priorities[pq.peek()], 0);
+                        int polled = pq.poll();
+                        assertEquals(priorities[reference.poll()], priorities[polled], 0);
+                        assertFalse(pq.contains(polled));
+                        last = priorities[polled];
+                    } else if (op == 1 && next > 0) {
+                        int item = r.nextInt(next);
+                        if (pq.contains(item)) {
+                            priorities[item] = last + (priorities[item] - last) * r.nextDouble();
+                            pq.changePriority(item, priorities[item]);
+                            reference.changePriority(item, priorities[item]);
+                        }
+                    } else {
+                        priorities[next] = last + r.nextDouble() * 5;
+                        pq.insert(next, priorities[next]);
+                        reference.insert(next, priorities[next]);
+                        next += 1;
+                    }
+                    assertEquals(reference.size(), pq.size());
+                }
+                while (pq.size() > 0) {
+                    assertEquals(priorities[reference.poll()], priorities[pq.poll()], 0);
+                }
+                assertNull(pq.poll());
+                assertNull(pq.peek());
+            }
+        }
+    }
+
+    @Test
+    public void testLowerThanLastPolled() {
+        for (PriorityQueue<Integer> pq : queues(1)) {
+            pq.insert(1, 10);
+            pq.insert(2, 20);
+            assertEquals(1, (int) pq.poll());
+            pq.insert(3, 9.7);
+            pq.insert(4, 3);
+            assertEquals(4, (int) pq.poll());
+            assertEquals(3, (int) pq.poll());
+            assertEquals(2, (int) pq.poll());
+        }
+    }
+
+    @Test
+    public void testWideSpread() {
+        for (PriorityQueue<Integer> pq : queues(1e-3)) {
+            pq.insert(1, 1e4);
+            pq.insert(2, 0.5);
+            pq.insert(3, 3000);
+            assertTrue(pq.contains(3));
+            assertEquals(2, (int) pq.poll());
+            assertEquals(3, (int) pq.poll());
+            assertEquals(1, (int) pq.poll());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertTwice() {
+        PriorityQueue<String> pq = new RadixHeapPQ<>(1);
+        pq.insert("milk", 0);
+        pq.insert("milk", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfinitePriority() {
+        new DialPQ<String>(1).insert("milk", Double.POSITIVE_INFINITY);
+    }
+}
@@ -0,0 +1,82 @@
+package bearmaps.utils.pq;
+
+/**
+ * A monotone PriorityQueue backed by Dial's bucket queue; see BucketPQ for how priority
+ * values become keys and what monotone means. There is a bucket for each key from that of
+ * the item last polled up to the highest key in the queue, kept in a circular array that
+ * doubles when an item's key is past its end, and polling walks forward to the next
+ * nonempty bucket. That walk costs one step per unit of key, so the resolution should be
+ * coarse enough that the largest step between the priority values of a search spans a few
+ * thousand buckets at most; RadixHeapPQ has no such limit.
+ */
+public class DialPQ<T> extends BucketPQ<T> {
+
+    private static final int INITIAL_BUCKETS = 1024;
+
+    /** The most buckets, past which items are refused rather than fill the heap. */
+    private static final int MAX_BUCKETS = 1 << 24;
+
+    private Bucket<T>[] buckets;
+
+    /* Initializes an empty DialPQ whose keys are whole numbers of RESOLUTION. */
+    public DialPQ(double resolution) {
+        super(resolution);
+        buckets = newBuckets(INITIAL_BUCKETS);
+    }
+
+    @Override
+    void place(Entry<T> e) {
+        long span = e.key - last;
+        if (span >= buckets.length) {
+            grow(span);
+        }
+        bucket(e.key).add(e);
+    }
+
+    @Override
+    Bucket<T> lowest(boolean polling) {
+        long key = last;
+        while (buckets[index(key)] == null || buckets[index(key)].size == 0) {
+            key += 1;
+        }
+        if (polling) {
+            last = key;
+        }
+        return buckets[index(key)];
+    }
+
+    private int index(long key) {
+        return (int) (key & (buckets.length - 1));
+    }
+
+    /** Returns the bucket of KEY, making it if it has not been used yet. */
+    private Bucket<T> bucket(long key) {
+        int i = index(key);
+        if (buckets[i] == null) {
+            buckets[i] = new Bucket<>();
+        }
+        return buckets[i];
+    }
+
+    /** Doubles the buckets until there is one for every key up to last + SPAN. */
+    @SuppressWarnings("unchecked")
+    private void grow(long span) {
+        if (span >= MAX_BUCKETS) {
+            throw new IllegalArgumentException("Priority values span " + span
+                    + " buckets; use a coarser resolution or a RadixHeapPQ");
+        }
+        Bucket<T>[] old = buckets;
+        int length = old.length;
+        while (length <= span) {
+            length *= 2;
+        }
+        buckets = newBuckets(length);
+        for (Bucket<T> bucket : old) {
+            while (bucket != null && bucket.size > 0) {
+                Entry<T> e = bucket.get(bucket.size - 1);
+                bucket.remove(e);
+                bucket(e.key).add(e);
+            }
+        }
+    }
+}
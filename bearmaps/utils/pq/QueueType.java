@@ -0,0 +1,46 @@
+package bearmaps.utils.pq;
+
+/**
+ * The kinds of PriorityQueue a shortest path search can use. A binary heap takes any
+ * priority values; the monotone queues need a search that never inserts an item better than
+ * the one it last polled, as Dijkstra's algorithm and A* with a consistent heuristic do, and
+ * are usually faster for it.
+ */
+public enum QueueType {
+    /** MinHeapPQ. */
+    BINARY_HEAP,
+    /** RadixHeapPQ. */
+    RADIX_HEAP,
+    /** DialPQ. */
+    DIAL;
+
+    /**
+     * Returns an empty queue of this kind. Monotone queues bucket priority values by whole
+     * numbers of RESOLUTION, which a binary heap ignores.
+     */
+    public <T> PriorityQueue<T> create(double resolution) {
+        switch (this) {
+            case RADIX_HEAP:
+                return new RadixHeapPQ<>(resolution);
+            case DIAL:
+                return new DialPQ<>(resolution);
+            default:
+                return new MinHeapPQ<>();
+        }
+    }
+
+    /**
+     * Returns the kind of queue searches for QUERY should use, named by the
+     * bearmaps.QUERY.queue system property as "binary-heap" (the default), "radix-heap" or
+     * "dial".
+     */
+    public static QueueType forQuery(String query) {
+        String property = "bearmaps." + query + ".queue";
+        String name = System.getProperty(property, "binary-heap");
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown queue " + name + " in " + property, e);
+        }
+    }
+}
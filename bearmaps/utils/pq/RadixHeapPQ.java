@@ -0,0 +1,50 @@
+package bearmaps.utils.pq;
+
+/**
+ * A monotone PriorityQueue backed by a radix heap; see BucketPQ for how priority values
+ * become keys and what monotone means. Bucket 0 holds the items whose key is that of the
+ * item last polled, and bucket i > 0 those whose key first differs from it in bit i - 1, so
+ * an item only ever moves to lower buckets and is moved at most 63 times, however far apart
+ * the priority values are. Polling from an empty bucket 0 takes the next nonempty bucket and
+ * spreads its items over the buckets below it.
+ */
+public class RadixHeapPQ<T> extends BucketPQ<T> {
+
+    private final Bucket<T>[] buckets;
+
+    /* Initializes an empty RadixHeapPQ whose keys are whole numbers of RESOLUTION. */
+    public RadixHeapPQ(double resolution) {
+        super(resolution);
+        buckets = newBuckets(Long.SIZE);
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket<>();
+        }
+    }
+
+    @Override
+    void place(Entry<T> e) {
+        buckets[e.key == last ? 0 : Long.SIZE - Long.numberOfLeadingZeros(e.key ^ last)].add(e);
+    }
+
+    @Override
+    Bucket<T> lowest(boolean polling) {
+        if (buckets[0].size > 0) {
+            return buckets[0];
+        }
+        int i = 1;
+        while (buckets[i].size == 0) {
+            i += 1;
+        }
+        if (!polling) {
+            return buckets[i];
+        }
+        Bucket<T> bucket = buckets[i];
+        last = bucket.minKey().key;
+        while (bucket.size > 0) {
+            Entry<T> e = bucket.get(bucket.size - 1);
+            bucket.remove(e);
+            place(e);
+        }
+        return buckets[0];
+    }
+}
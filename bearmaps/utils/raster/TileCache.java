@@ -0,0 +1,113 @@
+package bearmaps.utils.raster;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least recently used cache of decoded tile images. Decoding a PNG tile is the
+ * slowest part of rastering, so every tile read by the rasterer goes through here.
+ * Tiles are decoded outside of the lock, so two threads missing on the same tile at the
+ * same time may both decode it; the second result simply replaces the first.
+ */
+public class TileCache {
+
+    private final String imgRoot;
+    private final int capacity;
+    private final Map<String, BufferedImage> tiles;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param imgRoot The folder the tile images are read from.
+     * @param capacity The maximum number of decoded tiles to keep.
+     */
+    public TileCache(String imgRoot, int capacity) {
+        this.imgRoot = imgRoot;
+        this.capacity = capacity;
+        this.tiles = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > TileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the decoded tile with the given file name, reading it from disk on a miss.
+     * @param tileName The file name of the tile, e.g. d3_x1_y2.png.
+     * @return The decoded tile, or null if it could not be read.
+     */
+    public BufferedImage get(String tileName) {
+        BufferedImage tile;
+        synchronized (tiles) {
+            tile = tiles.get(tileName);
+        }
+        if (tile != null) {
+            hits.incrementAndGet();
+            return tile;
+        }
+        misses.incrementAndGet();
+        tile = read(tileName, false);
+        if (tile != null) {
+            synchronized (tiles) {
+                tiles.put(tileName, tile);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Decodes and caches the given tile if it is not already cached. Does not count towards
+     * the hit and miss counters, and silently ignores tiles that do not exist.
+     * @param tileName The file name of the tile.
+     */
+    public void warm(String tileName) {
+        synchronized (tiles) {
+            if (tiles.containsKey(tileName)) {
+                return;
+            }
+        }
+        BufferedImage tile = read(tileName, true);
+        if (tile != null) {
+            synchronized (tiles) {
+                tiles.putIfAbsent(tileName, tile);
+            }
+        }
+    }
+
+    /** Returns true if the given tile is currently cached. */
+    public boolean contains(String tileName) {
+        synchronized (tiles) {
+            return tiles.containsKey(tileName);
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private BufferedImage read(String tileName, boolean quiet) {
+        try {
+            return ImageIO.read(new File(imgRoot + tileName));
+        } catch (IOException e) {
+            if (!quiet) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /** Returns the file name of the tile at the given depth and indices. */
+    public static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+}
@@ -0,0 +1,101 @@
+package bearmaps.utils.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms a TileCache in the background with the tiles a user is likely to need next: the ring
+ * of tiles just outside the last rastered grid, and the covering tiles one depth shallower
+ * and one depth deeper. Work runs on a small pool of low priority daemon threads with a
+ * bounded queue. Every new viewport makes all earlier prefetch jobs stale; stale jobs are
+ * dropped from the queue and running ones stop at the next tile.
+ */
+public class TilePrefetcher {
+
+    private final TileCache cache;
+    private final int maxDepth;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param cache The cache to warm.
+     * @param maxDepth The deepest depth tiles exist for.
+     * @param threads The number of prefetch threads.
+     * @param queueCapacity The maximum number of queued prefetch jobs.
+     */
+    public TilePrefetcher(TileCache cache, int maxDepth, int threads, int queueCapacity) {
+        this.cache = cache;
+        this.maxDepth = maxDepth;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new LowPriorityThreadFactory(),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Schedules a prefetch around the grid of tiles [ulx, lrx] x [uly, lry] at the given
+     * depth, replacing any prefetch that has not finished yet.
+     */
+    public void prefetch(int depth, int ulx, int uly, int lrx, int lry) {
+        long job = generation.incrementAndGet();
+        executor.getQueue().clear();
+        List<String> tiles = tilesAround(depth, ulx, uly, lrx, lry);
+        executor.execute(() -> {
+            for (String tile : tiles) {
+                if (generation.get() != job) {
+                    return;
+                }
+                cache.warm(tile);
+            }
+        });
+    }
+
+    /**
+     * Returns the tiles to prefetch for the given grid, most likely first: the surrounding
+     * ring, then the shallower depth, then the deeper depth.
+     */
+    List<String> tilesAround(int depth, int ulx, int uly, int lrx, int lry) {
+        List<String> tiles = new ArrayList<>();
+        int max = (1 << depth) - 1;
+        for (int y = uly - 1; y <= lry + 1; y++) {
+            for (int x = ulx - 1; x <= lrx + 1; x++) {
+                boolean onRing = y == uly - 1 || y == lry + 1 || x == ulx - 1 || x == lrx + 1;
+                if (onRing && x >= 0 && y >= 0 && x <= max && y <= max) {
+                    tiles.add(TileCache.tileName(depth, x, y));
+                }
+            }
+        }
+        if (depth > 0) {
+            addGrid(tiles, depth - 1, ulx / 2, uly / 2, lrx / 2, lry / 2);
+        }
+        if (depth < maxDepth) {
+            addGrid(tiles, depth + 1, ulx * 2, uly * 2, lrx * 2 + 1, lry * 2 + 1);
+        }
+        return tiles;
+    }
+
+    private static void addGrid(List<String> tiles, int depth, int ulx, int uly, int lrx, int lry) {
+        for (int y = uly; y <= lry; y++) {
+            for (int x = ulx; x <= lrx; x++) {
+                tiles.add(TileCache.tileName(depth, x, y));
+            }
+        }
+    }
+
+    private static class LowPriorityThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "tile-prefetch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }
+}
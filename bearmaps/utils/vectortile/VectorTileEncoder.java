@@ -0,0 +1,340 @@
+package bearmaps.utils.vectortile;
+
+import bearmaps.utils.PolylineSimplifier;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import bearmaps.utils.graph.streetmap.Way;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.*;
+
+/**
+ * Encodes the ways of a StreetMapGraph into compact binary vector tiles. Tiles use the same
+ * pyramid as the raster tiles: the root tile covers the ROOT_* bounding box in Constants and
+ * every depth splits each tile into four, so tile (depth, x, y) spans 1 / 2^depth of the root
+ * tile in each direction, with x growing east and y growing south.
+ *
+ * <p>All integers below are unsigned LEB128 varints, and coordinates are zigzag encoded. A
+ * tile is laid out as follows. <br>
+ * "BVT" and a version byte. <br>
+ * depth, x, y, extent. <br>
+ * the number of names, then for each name its UTF-8 length and bytes. <br>
+ * the number of ways, then for each way: the index of its name plus one (0 when it has no
+ * name), the number of parts, and for each part the number of points followed by the points
+ * as (dx, dy) deltas from the previous point. The delta cursor starts at (0, 0) for every
+ * tile and carries over between parts and ways. <br>
+ * Points are quantized to [0, extent) over the tile, with y growing down. Lines are clipped
+ * to a box slightly larger than the tile, so points may fall slightly outside the tile and
+ * lines join up across tile edges.
+ */
+public class VectorTileEncoder {
+
+    /** Number of quantized units along each side of a tile. */
+    public static final int EXTENT = 4096;
+
+    /**
+     * Deepest depth tiles can be requested at, three depths below the deepest raster tiles.
+     * A tile there is about 8 meters across, still enough to hold a piece of a street, and
+     * clients draw deeper zooms by scaling these tiles up.
+     */
+    public static final int MAX_DEPTH = 10;
+
+    private static final byte[] MAGIC = {'B', 'V', 'T', 1};
+
+    /** Ways are simplified so that no dropped point is more than this far off, in units. */
+    private static final double SIMPLIFY_TOLERANCE = EXTENT / (double) TILE_SIZE;
+
+    /** Lines are clipped to the tile grown by this fraction of it on every side. */
+    private static final double BUFFER = 1.0 / 16;
+
+    /** Depth of the uniform grid used to find the ways overlapping a tile. */
+    private static final int INDEX_DEPTH = 6;
+
+    private final StreetMapGraph graph;
+    private final List<Way> ways;
+    private final List<double[]> wayLons;
+    private final List<double[]> wayLats;
+    private final List<List<Integer>> cells;
+
+    /** Indexes the ways of the given graph. */
+    public VectorTileEncoder(StreetMapGraph graph) {
+        this.graph = graph;
+        this.ways = new ArrayList<>(graph.ways());
+        this.wayLons = new ArrayList<>(ways.size());
+        this.wayLats = new ArrayList<>(ways.size());
+        int cellsPerSide = 1 << INDEX_DEPTH;
+        this.cells = new ArrayList<>(cellsPerSide * cellsPerSide);
+        for (int i = 0; i < cellsPerSide * cellsPerSide; i++) {
+            cells.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < ways.size(); i++) {
+            long[] nodeIds = ways.get(i).nodeIds();
+            double[] lons = new double[nodeIds.length];
+            double[] lats = new double[nodeIds.length];
+            int n = 0;
+            for (long id : nodeIds) {
+                if (graph.contains(id)) {
+                    lons[n] = graph.lon(id);
+                    lats[n] = graph.lat(id);
+                    n += 1;
+                }
+            }
+            wayLons.add(Arrays.copyOf(lons, n));
+            wayLats.add(Arrays.copyOf(lats, n));
+            if (n < 2) {
+                continue;
+            }
+            double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+            for (int j = 0; j < n; j++) {
+                minLon = Math.min(minLon, lons[j]);
+                maxLon = Math.max(maxLon, lons[j]);
+                minLat = Math.min(minLat, lats[j]);
+                maxLat = Math.max(maxLat, lats[j]);
+            }
+            for (int y = cellY(maxLat); y <= cellY(minLat); y++) {
+                for (int x = cellX(minLon); x <= cellX(maxLon); x++) {
+                    cells.get(y * cellsPerSide + x).add(i);
+                }
+            }
+        }
+    }
+
+    /** Returns the graph this encoder was built from. */
+    public StreetMapGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Encodes the tile at the given position in the pyramid.
+     * @param depth The depth of the tile, in [0, MAX_DEPTH].
+     * @param x The column of the tile, in [0, 2^depth).
+     * @param y The row of the tile, in [0, 2^depth).
+     * @return The encoded tile.
+     */
+    public byte[] encode(int depth, int x, int y) {
+        double tileW = (ROOT_LRLON - ROOT_ULLON) / Math.pow(2, depth);
+        double tileH = (ROOT_ULLAT - ROOT_LRLAT) / Math.pow(2, depth);
+        double ullon = ROOT_ULLON + tileW * x;
+        double ullat = ROOT_ULLAT - tileH * y;
+        double minLon = ullon - tileW * BUFFER, maxLon = ullon + tileW * (1 + BUFFER);
+        double maxLat = ullat + tileH * BUFFER, minLat = ullat - tileH * (1 + BUFFER);
+
+        Map<String, Integer> nameIndex = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int wayCount = 0;
+        long[] cursor = new long[2];
+
+        for (int i : waysOverlapping(minLon, maxLon, minLat, maxLat)) {
+            double[] lons = wayLons.get(i);
+            double[] lats = wayLats.get(i);
+            List<double[][]> parts = clip(lons, lats, minLon, maxLon, minLat, maxLat);
+            if (parts.isEmpty()) {
+                continue;
+            }
+
+            ByteArrayOutputStream wayBytes = new ByteArrayOutputStream();
+            int partCount = 0;
+            for (double[][] part : parts) {
+                int n = part[0].length;
+                double[] qx = new double[n];
+                double[] qy = new double[n];
+                for (int j = 0; j < n; j++) {
+                    qx[j] = Math.round((part[0][j] - ullon) / tileW * EXTENT);
+                    qy[j] = Math.round((ullat - part[1][j]) / tileH * EXTENT);
+                }
+                int[] kept = dedupe(qx, qy, PolylineSimplifier.simplify(qx, qy, SIMPLIFY_TOLERANCE));
+                if (kept.length < 2) {
+                    continue;
+                }
+                partCount += 1;
+                writeVarint(wayBytes, kept.length);
+                for (int k : kept) {
+                    long px = (long) qx[k];
+                    long py = (long) qy[k];
+                    writeVarint(wayBytes, zigzag(px - cursor[0]));
+                    writeVarint(wayBytes, zigzag(py - cursor[1]));
+                    cursor[0] = px;
+                    cursor[1] = py;
+                }
+            }
+            if (partCount == 0) {
+                continue;
+            }
+
+            String name = ways.get(i).name();
+            int nameRef = 0;
+            if (name != null && !name.isEmpty()) {
+                Integer index = nameIndex.get(name);
+                if (index == null) {
+                    index = names.size();
+                    nameIndex.put(name, index);
+                    names.add(name);
+                }
+                nameRef = index + 1;
+            }
+            writeVarint(body, nameRef);
+            writeVarint(body, partCount);
+            body.write(wayBytes.toByteArray(), 0, wayBytes.size());
+            wayCount += 1;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 64);
+        out.write(MAGIC, 0, MAGIC.length);
+        writeVarint(out, depth);
+        writeVarint(out, x);
+        writeVarint(out, y);
+        writeVarint(out, EXTENT);
+        writeVarint(out, names.size());
+        for (String name : names) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+        writeVarint(out, wayCount);
+        out.write(body.toByteArray(), 0, body.size());
+        return out.toByteArray();
+    }
+
+    /** Returns the indices of the ways whose index cells overlap the given box, in order. */
+    private List<Integer> waysOverlapping(double minLon, double maxLon, double minLat, double maxLat) {
+        int cellsPerSide = 1 << INDEX_DEPTH;
+        BitSet found = new BitSet(ways.size());
+        for (int y = cellY(maxLat); y <= cellY(minLat); y++) {
+            for (int x = cellX(minLon); x <= cellX(maxLon); x++) {
+                for (int i : cells.get(y * cellsPerSide + x)) {
+                    found.set(i);
+                }
+            }
+        }
+        List<Integer> result = new ArrayList<>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static int cellX(double lon) {
+        int max = (1 << INDEX_DEPTH) - 1;
+        int x = (int) Math.floor((lon - ROOT_ULLON) / (ROOT_LRLON - ROOT_ULLON) * (max + 1));
+        return Math.max(0, Math.min(max, x));
+    }
+
+    private static int cellY(double lat) {
+        int max = (1 << INDEX_DEPTH) - 1;
+        int y = (int) Math.floor((ROOT_ULLAT - lat) / (ROOT_ULLAT - ROOT_LRLAT) * (max + 1));
+        return Math.max(0, Math.min(max, y));
+    }
+
+    /**
+     * Clips the line through the given points to the given box, and returns the pieces of it
+     * inside the box as {lons, lats} pairs of at least two points each. A segment that leaves
+     * the box ends its piece where it crosses the edge, so segments crossing the box with
+     * both ends outside of it are kept too.
+     */
+    private static List<double[][]> clip(double[] lons, double[] lats, double minLon,
+                                         double maxLon, double minLat, double maxLat) {
+        List<double[][]> parts = new ArrayList<>();
+        double[] partLons = new double[lons.length + 1];
+        double[] partLats = new double[lons.length + 1];
+        int n = 0;
+        double[] t = new double[2];
+        for (int j = 0; j + 1 < lons.length; j++) {
+            double dLon = lons[j + 1] - lons[j];
+            double dLat = lats[j + 1] - lats[j];
+            if (!clipSegment(lons[j], lats[j], dLon, dLat, minLon, maxLon, minLat, maxLat, t)) {
+                n = endPart(parts, partLons, partLats, n);
+                continue;
+            }
+            /* A piece carries on only where the last segment ended inside the box, at the
+               vertex this one starts from. */
+            if (n == 0 || t[0] > 0) {
+                n = endPart(parts, partLons, partLats, n);
+                partLons[n] = lons[j] + t[0] * dLon;
+                partLats[n] = lats[j] + t[0] * dLat;
+                n += 1;
+            }
+            partLons[n] = lons[j] + t[1] * dLon;
+            partLats[n] = lats[j] + t[1] * dLat;
+            n += 1;
+            if (t[1] < 1) {
+                n = endPart(parts, partLons, partLats, n);
+            }
+        }
+        endPart(parts, partLons, partLats, n);
+        return parts;
+    }
+
+    /** Adds the first N points of the piece being built to PARTS, and returns 0. */
+    private static int endPart(List<double[][]> parts, double[] partLons, double[] partLats,
+                               int n) {
+        if (n >= 2) {
+            parts.add(new double[][]{Arrays.copyOf(partLons, n), Arrays.copyOf(partLats, n)});
+        }
+        return 0;
+    }
+
+    /**
+     * Clips the segment from (LON, LAT) to (LON + DLON, LAT + DLAT) to the given box with the
+     * Liang-Barsky algorithm. Returns false if no part of it is in the box, and otherwise
+     * puts the fractions of the way along it where it enters and leaves the box into T.
+     */
+    private static boolean clipSegment(double lon, double lat, double dLon, double dLat,
+                                       double minLon, double maxLon, double minLat,
+                                       double maxLat, double[] t) {
+        double[] p = {-dLon, dLon, -dLat, dLat};
+        double[] q = {lon - minLon, maxLon - lon, lat - minLat, maxLat - lat};
+        double enter = 0;
+        double leave = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else if (p[i] < 0) {
+                enter = Math.max(enter, q[i] / p[i]);
+            } else {
+                leave = Math.min(leave, q[i] / p[i]);
+            }
+        }
+        if (enter > leave) {
+            return false;
+        }
+        t[0] = enter;
+        t[1] = leave;
+        return true;
+    }
+
+    /** Drops kept points that quantized onto the same position as the point before them. */
+    private static int[] dedupe(double[] qx, double[] qy, int[] kept) {
+        int[] result = new int[kept.length];
+        int n = 0;
+        for (int k : kept) {
+            if (n == 0 || qx[result[n - 1]] != qx[k] || qy[result[n - 1]] != qy[k]) {
+                result[n++] = k;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
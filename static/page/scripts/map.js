@@ -16,6 +16,7 @@ $(function() {
     const $errorStatus = $('#status-error');
     const $warningsContainer = $('#status-warnings');
     const $directionsText = $('#directions-text');
+    const $routeOverlay = $('#route-overlay');
     const themeableElements = ['body', '.actions', '.card', '.search', '.ui-autocomplete',
                                 '.status', '.settings', '.clear', '.action-icon'];
     const SAFE_WIDTH = 1120;
@@ -24,7 +25,10 @@ $(function() {
     var getInProgress = false;
     var updatePending = false;
     var route_params = {};
+    var route_polyline = [];
+    var route_token;
     var map;
+    var route_line;
     var dest;
     var markers = [];
     var host;
@@ -92,6 +96,10 @@ $(function() {
         var params = get_view_bounds();
         params.w = w;
         params.h = h;
+        params.vector_route = true;
+        if (route_token) {
+            params.route_token = route_token;
+        }
         console.log(params);
         $warningsContainer.empty();
         $.get({
@@ -111,6 +119,8 @@ $(function() {
                     lrlat_bound = data.raster_lr_lat;
                     img_w = data.raster_width;
                     img_h = data.raster_height;
+                    route_polyline = data.route_polyline || [];
+                    drawRoute();
                     getInProgress = false;
 
                     var warnings = [];
@@ -152,6 +162,18 @@ $(function() {
         });
     }
 
+    /* Draws the route returned alongside the raster on top of the untouched tiles. */
+    function drawRoute() {
+        var points = [];
+        for (var i = 0; i < route_polyline.length; i++) {
+            const x = (route_polyline[i][0] - ullon_bound) / (lrlon_bound - ullon_bound) * img_w;
+            const y = (ullat_bound - route_polyline[i][1]) / (ullat_bound - lrlat_bound) * img_h;
+            points.push(x + ',' + y);
+        }
+        $routeOverlay.attr({width: img_w, height: img_h});
+        route_line.setAttribute('points', points.join(' '));
+    }
+
     function updateT() {
         var londpp = get_londpp();
         var latdpp = get_latdpp();
@@ -163,6 +185,7 @@ $(function() {
         history.replaceState(null, null, document.location.pathname + '#' + newHash);
 
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        $routeOverlay.css('transform', map.style.transform);
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
             const marker_tx = (marker.lon - computed.ullon) / londpp;
@@ -175,12 +198,16 @@ $(function() {
     }
 
     function updateRoute() {
+        if (route_token) {
+            route_params.route_token = route_token;
+        }
         $.get({
             async: true,
             url: route_server,
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
+                route_token = data.route_token;
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -303,6 +330,7 @@ $(function() {
     /* ══════════════════════════════════ ೋღ SETUP ღೋ ════════════════════════════════ */
 
     map = document.getElementById('map');
+    route_line = document.getElementById('route-line');
     dest = document.getElementById('dest');
     dest.style.visibility = 'hidden';
     loadCookies();
@@ -386,6 +414,7 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: { route_token: route_token },
             success: function() {
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');